@@ -0,0 +1,61 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex;
+
+import java.util.Objects;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Request to parse a filter expression of a given type family.
+ *
+ * <p>Two requests are equal if they have the same type family and
+ * expression.
+ *
+ * @see Filtex#parseAll(java.util.List)
+ */
+public class FilterRequest {
+  public final TypeFamily typeFamily;
+  public final String expression;
+
+  private FilterRequest(TypeFamily typeFamily, String expression) {
+    this.typeFamily = requireNonNull(typeFamily);
+    this.expression = requireNonNull(expression);
+  }
+
+  /** Creates a FilterRequest. */
+  public static FilterRequest of(TypeFamily typeFamily, String expression) {
+    return new FilterRequest(typeFamily, expression);
+  }
+
+  @Override public int hashCode() {
+    return Objects.hash(typeFamily, expression);
+  }
+
+  @Override public boolean equals(Object o) {
+    return o == this
+        || o instanceof FilterRequest
+        && typeFamily == ((FilterRequest) o).typeFamily
+        && expression.equals(((FilterRequest) o).expression);
+  }
+
+  @Override public String toString() {
+    return typeFamily + ":" + expression;
+  }
+}
+
+// End FilterRequest.java
@@ -18,17 +18,31 @@
 
 import net.hydromatic.filtex.ast.Ast;
 import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.ast.Pos;
 import net.hydromatic.filtex.ast.Summary;
 import net.hydromatic.filtex.parse.FiltexParserImpl;
+import net.hydromatic.filtex.parse.NumberParser;
 import net.hydromatic.filtex.parse.ParseException;
+import net.hydromatic.filtex.parse.ParserPool;
+import net.hydromatic.filtex.parse.QuietParser;
+import net.hydromatic.filtex.parse.StringCharStream;
 import net.hydromatic.filtex.parse.TokenMgrError;
+import net.hydromatic.filtex.util.AsciiCharSequence;
 
 import com.google.common.collect.ImmutableList;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
 
-import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import static net.hydromatic.filtex.ast.AstBuilder.ast;
 
@@ -40,6 +54,14 @@
  * &#064;looker/filter-expressions</a> TypeScript API.
  */
 public class Filtex {
+  /** Number of distinct requests below which {@link #parseAll} does not
+   * use the executor. */
+  private static final int PARALLEL_THRESHOLD = 64;
+
+  /** Number of chunks per processor in {@link #parseAll}. More chunks
+   * balance the load better if some expressions are slower than others. */
+  private static final int CHUNKS_PER_PROCESSOR = 4;
+
   private Filtex() {
   }
 
@@ -90,28 +112,294 @@ public static TypeFamily getExpressionType(boolean numeric, String type) {
    */
   public static AstNode parseFilterExpression(TypeFamily typeFamily,
       String expression) {
-    FiltexParserImpl parser =
-        new FiltexParserImpl(new StringReader(expression));
+    return tryParseFilterExpression(typeFamily, expression).node;
+  }
+
+  /** As {@link #parseFilterExpression(TypeFamily, String)}, but re-uses a
+   * parser from a pool rather than creating a new parser for each call. */
+  public static AstNode parseFilterExpression(ParserPool pool,
+      TypeFamily typeFamily, String expression) {
+    return tryParseFilterExpression(pool, typeFamily, expression).node;
+  }
+
+  /** As {@link #parseFilterExpression(TypeFamily, String)}, but reads the
+   * expression from the remaining bytes of a buffer, encoded in UTF-8.
+   * Does not change the buffer's position.
+   *
+   * <p>If the bytes are all ASCII, as most filter expressions are, the
+   * parser reads them directly, and does not create a {@link String} unless
+   * the expression is invalid. Otherwise, the bytes are decoded first. */
+  public static AstNode parseFilterExpression(TypeFamily typeFamily,
+      ByteBuffer buffer) {
+    final CharSequence expression = AsciiCharSequence.decode(buffer);
+    final AstNode node = parseFast(typeFamily, expression);
+    if (node != null) {
+      return node;
+    }
+    final QuietParser parser =
+        new QuietParser(new StringCharStream(expression));
+    return parseNode(parser, typeFamily, expression);
+  }
+
+  /** As {@link #parseFilterExpression(TypeFamily, ByteBuffer)}, but re-uses
+   * a parser from a pool. */
+  public static AstNode parseFilterExpression(ParserPool pool,
+      TypeFamily typeFamily, ByteBuffer buffer) {
+    final CharSequence expression = AsciiCharSequence.decode(buffer);
+    final AstNode fastNode = parseFast(typeFamily, expression);
+    if (fastNode != null) {
+      return fastNode;
+    }
+    final QuietParser parser = pool.acquire(expression);
+    boolean reusable = false;
     try {
-      final AstNode node;
-      switch (typeFamily) {
-      case DATE:
-        node = parser.dateExpressionEof();
-        return Transforms.locationTransform(node);
+      final AstNode node = parseNode(parser, typeFamily, expression);
+      reusable = true;
+      return node;
+    } finally {
+      if (reusable) {
+        pool.release(parser);
+      } else {
+        pool.discard(parser);
+      }
+    }
+  }
 
-      case LOCATION:
-        node = parser.locationExpressionEof();
-        return Transforms.locationTransform(node);
+  /** As {@link #parseFilterExpression(TypeFamily, ByteBuffer)}, but reads
+   * from a region of a byte array. */
+  public static AstNode parseFilterExpression(TypeFamily typeFamily,
+      byte[] bytes, int offset, int length) {
+    return parseFilterExpression(typeFamily,
+        ByteBuffer.wrap(bytes, offset, length));
+  }
+
+  /** As {@link #parseFilterExpression(ParserPool, TypeFamily, ByteBuffer)},
+   * but reads from a region of a byte array. */
+  public static AstNode parseFilterExpression(ParserPool pool,
+      TypeFamily typeFamily, byte[] bytes, int offset, int length) {
+    return parseFilterExpression(pool, typeFamily,
+        ByteBuffer.wrap(bytes, offset, length));
+  }
+
+  /** Parses a filter expression, and returns a result that says whether the
+   * expression was valid and, if not, where the error occurred.
+   *
+   * <p>Unlike the parser, this method does not create an exception if the
+   * expression is invalid. Call {@link ParseResult#diagnostic()} if you need
+   * one. */
+  public static ParseResult tryParseFilterExpression(TypeFamily typeFamily,
+      String expression) {
+    final AstNode node = parseFast(typeFamily, expression);
+    if (node != null) {
+      return new ParseResult(typeFamily, expression, node, null);
+    }
+    final QuietParser parser =
+        new QuietParser(new StringCharStream(expression));
+    return parse(parser, typeFamily, expression);
+  }
+
+  /** As {@link #tryParseFilterExpression(TypeFamily, String)}, but re-uses a
+   * parser from a pool. */
+  public static ParseResult tryParseFilterExpression(ParserPool pool,
+      TypeFamily typeFamily, String expression) {
+    final AstNode node = parseFast(typeFamily, expression);
+    if (node != null) {
+      return new ParseResult(typeFamily, expression, node, null);
+    }
+    final QuietParser parser = pool.acquire(expression);
+    boolean reusable = false;
+    try {
+      final ParseResult result = parse(parser, typeFamily, expression);
+      reusable = true;
+      return result;
+    } finally {
+      if (reusable) {
+        pool.release(parser);
+      } else {
+        pool.discard(parser);
+      }
+    }
+  }
+
+  /** Parses a list of filter expressions in parallel, using the common
+   * fork-join pool.
+   *
+   * @see #parseAll(List, Executor) */
+  public static List<ParseResult> parseAll(List<FilterRequest> requests) {
+    return parseAll(requests, ForkJoinPool.commonPool());
+  }
+
+  /** Parses a list of filter expressions in parallel, using a given
+   * executor, and returns the results in the same order as the requests.
+   *
+   * <p>Each distinct request is parsed once; if a request occurs more than
+   * once, the same {@link ParseResult} occurs at each position, so callers
+   * must treat its tree as immutable.
+   *
+   * <p>Small batches are parsed in the calling thread. Larger batches are
+   * divided into contiguous chunks, a few per processor, and each chunk is
+   * parsed by one task that re-uses one parser. If parsing throws, this
+   * method throws the first exception after all tasks have finished. */
+  public static List<ParseResult> parseAll(List<FilterRequest> requests,
+      Executor executor) {
+    // Assign each distinct request an ordinal.
+    final Map<FilterRequest, Integer> ordinals = new HashMap<>();
+    final List<FilterRequest> distinctRequests = new ArrayList<>();
+    final int[] ordinalOf = new int[requests.size()];
+    for (int i = 0; i < ordinalOf.length; i++) {
+      final FilterRequest request = requests.get(i);
+      Integer ordinal = ordinals.get(request);
+      if (ordinal == null) {
+        ordinal = distinctRequests.size();
+        ordinals.put(request, ordinal);
+        distinctRequests.add(request);
+      }
+      ordinalOf[i] = ordinal;
+    }
 
-      case NUMBER:
-        node = parser.numericExpressionEof();
-        return Transforms.numberTransform(node);
+    final int n = distinctRequests.size();
+    final ParseResult[] results = new ParseResult[n];
+    if (n < PARALLEL_THRESHOLD) {
+      parseRange(distinctRequests, results, 0, n);
+    } else {
+      final int chunkCount =
+          Math.min(n / (PARALLEL_THRESHOLD / 2),
+              CHUNKS_PER_PROCESSOR
+                  * Runtime.getRuntime().availableProcessors());
+      final CompletableFuture<?>[] futures = new CompletableFuture[chunkCount];
+      for (int c = 0; c < chunkCount; c++) {
+        final int start = (int) ((long) n * c / chunkCount);
+        final int end = (int) ((long) n * (c + 1) / chunkCount);
+        futures[c] =
+            CompletableFuture.runAsync(() ->
+                parseRange(distinctRequests, results, start, end), executor);
+      }
+      try {
+        CompletableFuture.allOf(futures).join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        if (e.getCause() instanceof Error) {
+          throw (Error) e.getCause();
+        }
+        throw e;
+      }
+    }
+
+    final ImmutableList.Builder<ParseResult> list = ImmutableList.builder();
+    for (int ordinal : ordinalOf) {
+      list.add(results[ordinal]);
+    }
+    return list.build();
+  }
+
+  /** Parses requests {@code start} (inclusive) to {@code end} (exclusive),
+   * re-using a parser, and writes the results into an array. */
+  private static void parseRange(List<FilterRequest> requests,
+      ParseResult[] results, int start, int end) {
+    final ParserPool pool = ParserPool.bounded(1);
+    for (int i = start; i < end; i++) {
+      final FilterRequest request = requests.get(i);
+      results[i] =
+          tryParseFilterExpression(pool, request.typeFamily,
+              request.expression);
+    }
+  }
+
+  /** Returns statistics about calls to
+   * {@link #parseFilterExpression(TypeFamily, String)} and similar methods,
+   * including how many expressions fell back to
+   * {@link Ast.MatchesAdvanced}. */
+  public static ParseMetrics metrics() {
+    return ParseMetrics.INSTANCE;
+  }
 
+  /** Parses an expression without the generated parser, if the type family
+   * has a hand-written parser and the expression is simple enough; returns
+   * null otherwise.
+   *
+   * @see NumberParser */
+  private static @Nullable AstNode parseFast(TypeFamily typeFamily,
+      CharSequence expression) {
+    if (typeFamily != TypeFamily.NUMBER) {
+      return null;
+    }
+    final AstNode node = NumberParser.parse(expression);
+    if (node == null) {
+      return null;
+    }
+    ParseMetrics.INSTANCE.record(false);
+    return Transforms.numberTransform(node);
+  }
+
+  /** Parses an expression using a given parser. If the expression is
+   * invalid, the result contains a {@link Ast.MatchesAdvanced}. */
+  private static ParseResult parse(QuietParser parser,
+      TypeFamily typeFamily, String expression) {
+    final AstNode node = parseValid(parser, typeFamily);
+    if (node != null) {
+      return new ParseResult(typeFamily, expression, node, null);
+    }
+    final Pos pos = parser.errorPos() != null ? parser.errorPos() : Pos.ZERO;
+    return new ParseResult(typeFamily, expression,
+        getMatchesAdvancedNode(expression, null), pos);
+  }
+
+  /** Parses an expression using a given parser, and returns its transformed
+   * AST, or null if the expression is invalid. */
+  private static @Nullable AstNode parseValid(QuietParser parser,
+      TypeFamily typeFamily) {
+    try {
+      final AstNode node = parseRaw(parser, typeFamily);
+      final AstNode node2;
+      switch (typeFamily) {
+      case DATE:
+      case DATE_TIME:
+        node2 = Transforms.dateTransform(node);
+        break;
+      case LOCATION:
+        node2 = Transforms.locationTransform(node);
+        break;
       default:
-        throw new IllegalArgumentException("unknown type family " + typeFamily);
+        node2 = Transforms.numberTransform(node);
+        break;
       }
+      ParseMetrics.INSTANCE.record(false);
+      return node2;
     } catch (ParseException | TokenMgrError e) {
-      return getMatchesAdvancedNode(expression, null);
+      // We do not expect TokenMgrError, because the lexer has a catch-all
+      // token, and QuietParser does not use the ParseException except to
+      // unwind the stack.
+      ParseMetrics.INSTANCE.record(true);
+      return null;
+    }
+  }
+
+  /** Parses an expression using a given parser, and returns its AST or,
+   * if it is invalid, a {@link Ast.MatchesAdvanced}. */
+  private static AstNode parseNode(QuietParser parser, TypeFamily typeFamily,
+      CharSequence expression) {
+    final AstNode node = parseValid(parser, typeFamily);
+    return node != null
+        ? node
+        : getMatchesAdvancedNode(expression.toString(), null);
+  }
+
+  /** Parses an expression according to its type family, without applying
+   * any transforms, and throws if it is invalid. */
+  static AstNode parseRaw(FiltexParserImpl parser, TypeFamily typeFamily)
+      throws ParseException {
+    switch (typeFamily) {
+    case DATE:
+    case DATE_TIME:
+      return parser.dateExpressionEof();
+    case LOCATION:
+      return parser.locationExpressionEof();
+    case NUMBER:
+      return parser.numericExpressionEof();
+    default:
+      throw new IllegalArgumentException("unknown type family " + typeFamily);
     }
   }
 
@@ -0,0 +1,107 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex;
+
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.util.Pair;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Cache of parsed filter expressions.
+ *
+ * <p>Entries are keyed by type family and expression string, and the value
+ * is the tree returned by
+ * {@link Filtex#parseFilterExpression(TypeFamily, String)}. Trees are shared
+ * between all callers. The library's transforms, such as
+ * {@link Transforms#numberTransform(AstNode)}, create new nodes rather than
+ * modifying a tree, so are safe to apply to a shared tree. But nodes still
+ * have mutable fields, so callers must treat them as immutable; in
+ * particular, do not call {@link net.hydromatic.filtex.ast.Asts#applyId}
+ * or assign {@link net.hydromatic.filtex.ast.Ast.Call2#right} on a tree
+ * obtained from a cache.
+ *
+ * <p>A cache is safe for use by concurrent threads. It is opt-in; create one
+ * with {@link #ofSize(long)} or {@link #ofWeight(long)} and keep it for as
+ * long as the expressions are likely to recur.
+ *
+ * <p>For example,
+ * <pre>{@code
+ * ParseCache cache = ParseCache.ofSize(10_000);
+ * AstNode node = cache.parse(TypeFamily.NUMBER, "[0,20],>30");
+ * }</pre>
+ */
+public class ParseCache {
+  private final LoadingCache<Pair<TypeFamily, String>, AstNode> cache;
+
+  private ParseCache(
+      CacheBuilder<? super Pair<TypeFamily, String>, ? super AstNode> builder) {
+    this.cache =
+        builder.recordStats()
+            .build(
+                CacheLoader.from((Pair<TypeFamily, String> key) ->
+                    Filtex.parseFilterExpression(key.left, key.right)));
+  }
+
+  /** Creates a cache that holds at most {@code maximumSize} expressions. */
+  public static ParseCache ofSize(long maximumSize) {
+    return new ParseCache(CacheBuilder.newBuilder().maximumSize(maximumSize));
+  }
+
+  /** Creates a cache whose total weight is at most {@code maximumWeight}.
+   *
+   * <p>The weight of an entry is the length of its expression string plus
+   * one, so the limit bounds the total number of characters of the
+   * expressions held by the cache. Entries are still evicted in
+   * approximately least-recently-used order, not by weight. */
+  public static ParseCache ofWeight(long maximumWeight) {
+    return new ParseCache(
+        CacheBuilder.newBuilder()
+            .maximumWeight(maximumWeight)
+            .weigher((Pair<TypeFamily, String> key, AstNode node) ->
+                key.right.length() + 1));
+  }
+
+  /** Returns the AST for an expression, parsing it if it is not already in
+   * the cache.
+   *
+   * @see Filtex#parseFilterExpression(TypeFamily, String) */
+  public AstNode parse(TypeFamily typeFamily, String expression) {
+    return cache.getUnchecked(Pair.of(typeFamily, expression));
+  }
+
+  /** Returns the number of entries currently in the cache. */
+  public long size() {
+    return cache.size();
+  }
+
+  /** Returns statistics about the cache: hit, miss and eviction counts,
+   * and the total time spent parsing. */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  /** Removes all entries from the cache. Does not reset statistics. */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+}
+
+// End ParseCache.java
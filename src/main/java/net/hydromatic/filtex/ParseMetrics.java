@@ -0,0 +1,76 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how many expressions have been parsed, and how many of those were
+ * invalid and fell back to
+ * {@link net.hydromatic.filtex.ast.Ast.MatchesAdvanced}.
+ *
+ * <p>There is one instance, returned by {@link Filtex#metrics()}. Counters
+ * are updated by every thread that parses, so reads are approximate while
+ * parsing is in progress.
+ */
+public class ParseMetrics {
+  static final ParseMetrics INSTANCE = new ParseMetrics();
+
+  private final LongAdder parseCount = new LongAdder();
+  private final LongAdder fallbackCount = new LongAdder();
+
+  private ParseMetrics() {
+  }
+
+  /** Records the outcome of a parse. */
+  void record(boolean fallback) {
+    parseCount.increment();
+    if (fallback) {
+      fallbackCount.increment();
+    }
+  }
+
+  /** Returns the number of expressions parsed. */
+  public long parseCount() {
+    return parseCount.sum();
+  }
+
+  /** Returns the number of expressions that were invalid and therefore
+   * became {@link net.hydromatic.filtex.ast.Ast.MatchesAdvanced}. */
+  public long fallbackCount() {
+    return fallbackCount.sum();
+  }
+
+  /** Returns the fraction of parsed expressions that fell back, between 0
+   * and 1, or 0 if nothing has been parsed. */
+  public double fallbackRate() {
+    final long parses = parseCount();
+    return parses == 0 ? 0d : (double) fallbackCount() / parses;
+  }
+
+  /** Resets all counters to zero. */
+  public void reset() {
+    parseCount.reset();
+    fallbackCount.reset();
+  }
+
+  @Override public String toString() {
+    return "parses: " + parseCount() + ", fallbacks: " + fallbackCount();
+  }
+}
+
+// End ParseMetrics.java
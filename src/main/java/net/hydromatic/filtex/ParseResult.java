@@ -0,0 +1,91 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex;
+
+import net.hydromatic.filtex.ast.Ast;
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.ast.Pos;
+import net.hydromatic.filtex.parse.FiltexParserImpl;
+import net.hydromatic.filtex.parse.ParseException;
+import net.hydromatic.filtex.parse.StringCharStream;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Result of parsing a filter expression.
+ *
+ * <p>If the expression is valid, {@link #node} is its AST and
+ * {@link #errorPos} is null. If the expression is not valid, {@link #node}
+ * is an {@link Ast.MatchesAdvanced}, and {@link #errorPos} is the position of
+ * the first token that could not be parsed.
+ *
+ * <p>A result does not contain an exception. Call {@link #diagnostic()} if
+ * you need a detailed error message.
+ *
+ * @see Filtex#tryParseFilterExpression(TypeFamily, String)
+ */
+public class ParseResult {
+  public final TypeFamily typeFamily;
+  public final String expression;
+  public final AstNode node;
+  public final @Nullable Pos errorPos;
+
+  ParseResult(TypeFamily typeFamily, String expression, AstNode node,
+      @Nullable Pos errorPos) {
+    this.typeFamily = requireNonNull(typeFamily);
+    this.expression = requireNonNull(expression);
+    this.node = requireNonNull(node);
+    this.errorPos = errorPos;
+  }
+
+  /** Returns whether the expression was valid; if false, {@link #node} is
+   * an {@link Ast.MatchesAdvanced}. */
+  public boolean isValid() {
+    return errorPos == null;
+  }
+
+  /** Returns an exception describing why the expression is invalid, or null
+   * if it is valid.
+   *
+   * <p>This method parses the expression again, using a parser that
+   * generates a full error message, so it is much more expensive than
+   * {@link #isValid()}. */
+  public @Nullable ParseException diagnostic() {
+    if (isValid()) {
+      return null;
+    }
+    final FiltexParserImpl parser =
+        new FiltexParserImpl(new StringCharStream(expression));
+    try {
+      Filtex.parseRaw(parser, typeFamily);
+    } catch (ParseException e) {
+      return e;
+    }
+    throw new AssertionError("expression was invalid, but parsed on second "
+        + "attempt: " + expression);
+  }
+
+  @Override public String toString() {
+    return isValid()
+        ? node.toString()
+        : "invalid at " + errorPos + ": " + expression;
+  }
+}
+
+// End ParseResult.java
@@ -56,17 +56,41 @@ class CountingConsumer implements Consumer<AstNode> {
   /** When two duplicate "is not" nodes are present,
    * removes the second one. */
   static AstNode removeDuplicateNotNodes(AstNode root) {
-    final AstNode workingRoot = Asts.applyId(root);
     // get the andClauses - "is not" nodes from the ast
     final List<AstNode> andClauses =
-        Asts.treeToList(workingRoot).stream().filter(model -> !model.is())
+        Asts.treeToList(root).stream().filter(model -> !model.is())
             .collect(Collectors.toList());
     // we only care if there are two andClauses with the same expression
     return andClauses.size() == 2
         && andClauses.get(0).equals(andClauses.get(1))
         ? // remove the second one
-        Asts.removeNode(workingRoot, andClauses.get(1).id)
-        : workingRoot;
+        removeNode(root, andClauses.get(1))
+        : root;
+  }
+
+  /** Removes a node from a list of terms.
+   *
+   * <p>Unlike {@link Asts#removeNode(AstNode, Integer)}, finds the node by
+   * reference rather than by id, so does not need to assign ids, and does
+   * not modify the tree, which may be shared via a {@link ParseCache}. */
+  private static @Nullable AstNode removeNode(AstNode root, AstNode node) {
+    if (root == node) {
+      return null;
+    }
+    if (root.op == Op.COMMA) {
+      final Ast.Call2 call2 = (Ast.Call2) root;
+      final @Nullable AstNode left2 = removeNode(call2.left, node);
+      final @Nullable AstNode right2 = removeNode(call2.right, node);
+      if (left2 == null) {
+        return right2;
+      }
+      if (right2 == null) {
+        return left2;
+      }
+      return left2 == call2.left && right2 == call2.right ? root
+          : ast.logicalExpression(left2, right2);
+    }
+    return root;
   }
 
   /** Merges the value array of two nodes, removing duplicates. */
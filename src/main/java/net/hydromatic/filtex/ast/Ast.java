@@ -40,9 +40,9 @@ public static class DateLiteral extends AstNode {
     public final @Nullable Integer quarter;
     public final @Nullable Integer month;
     public final @Nullable Integer day;
-    private final @Nullable Integer hour;
-    private final @Nullable Integer minute;
-    private final @Nullable Integer second;
+    public final @Nullable Integer hour;
+    public final @Nullable Integer minute;
+    public final @Nullable Integer second;
 
     public DateLiteral(Op op, int year, @Nullable Integer quarter,
         @Nullable Integer month, @Nullable Integer day, @Nullable Integer hour,
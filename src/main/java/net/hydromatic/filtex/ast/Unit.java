@@ -18,15 +18,19 @@
 
 /** Unit of distance. */
 public enum Unit {
-  METER("meters"),
-  FOOT("feet"),
-  KILOMETER("kilometers"),
-  MILE("miles");
+  METER("meters", 1d),
+  FOOT("feet", 0.3048d),
+  KILOMETER("kilometers", 1_000d),
+  MILE("miles", 1_609.344d);
 
   public final String plural;
 
-  Unit(String plural) {
+  /** Length of one unit, in meters. */
+  public final double meters;
+
+  Unit(String plural, double meters) {
     this.plural = plural;
+    this.meters = meters;
   }
 }
 
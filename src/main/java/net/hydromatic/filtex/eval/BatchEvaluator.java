@@ -0,0 +1,531 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+import net.hydromatic.filtex.ast.Ast;
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.ast.Op;
+
+import com.google.common.collect.ImmutableList;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Evaluates a filter against a batch of values, writing the result to a
+ * bitset.
+ *
+ * <p>A batch is a column of {@code count} values, of type {@code C} (for
+ * example {@code int[]}, {@code long[]} or {@code double[]}), and an
+ * optional validity bitmap. Bit {@code i} of a bitset is bit {@code i % 64}
+ * of word {@code i / 64}. In the validity bitmap, a set bit means that the
+ * value is not null (as in Apache Arrow); if there is no bitmap, no values
+ * are null.
+ * The values at null positions are ignored.
+ *
+ * <p>Each term of the filter is compiled to a {@link Kernel}, which
+ * computes 64 rows at a time. The terms of a comma list are combined with
+ * bitwise OR, negated terms are removed with AND-NOT, and {@code NULL} and
+ * {@code NOT NULL} terms read the validity bitmap and do not look at the
+ * values. The result for each row is the same as the corresponding
+ * predicate from {@link NumberCompiler}, or
+ * {@link NumberCompiler#matchesNull(AstNode)} if the row is null.
+ *
+ * <p>Evaluators of date filters, such as
+ * {@link #ofEpoch(DateIntervals, TimeUnit)}, start from the intervals of a
+ * resolved filter, and give the same result as the corresponding predicate
+ * from {@link DateCompiler}. Evaluators of location filters, created by
+ * {@link #ofLocation(AstNode)}, read a column of {@link Locations}.
+ *
+ * <p>On JDK 17 and higher, if the {@code jdk.incubator.vector} module is
+ * loaded, kernels for ranges of doubles use the JDK Vector API; see
+ * {@link #isVectorAvailable()}.
+ *
+ * <p>An evaluator is immutable and may be used by several threads at once.
+ *
+ * @param <C> Column type
+ */
+public class BatchEvaluator<C> {
+  /** Kernel that matches no values. Terms that compile to it are
+   * skipped. */
+  @SuppressWarnings("rawtypes")
+  private static final Kernel NONE = (column, start, n) -> 0L;
+
+  /** Above this number of values, "=" kernels use binary search rather
+   * than a pass per value. */
+  private static final int LINEAR_SCAN_MAX = 8;
+
+  /** Factory for kernels that use plain Java loops. */
+  static final KernelFactory SCALAR = new KernelFactory() {
+    @Override public Kernel<long[]> longRange(long lo, long hi) {
+      return scalarLongRange(lo, hi);
+    }
+
+    @Override public Kernel<double[]> doubleRange(double lo, double hi) {
+      return scalarDoubleRange(lo, hi);
+    }
+  };
+
+  /** Factory for kernels that use the JDK Vector API, or null if the API is
+   * not available. */
+  private static final @Nullable KernelFactory VECTOR = vectorFactory();
+
+  private final ImmutableList<Kernel<C>> positives;
+  private final ImmutableList<Kernel<C>> negatives;
+  private final boolean hasPositive;
+  /** Whether there is a positive {@code NULL} term, which matches nulls. */
+  private final boolean positiveNull;
+  /** Whether there is a positive {@code NOT NULL} term, which matches
+   * non-nulls. */
+  private final boolean positiveNotNull;
+  /** Whether there is a negated {@code NULL} term, which rejects nulls. */
+  private final boolean negativeNull;
+  /** Whether there is a negated {@code NOT NULL} term, which rejects
+   * non-nulls. */
+  private final boolean negativeNotNull;
+
+  private BatchEvaluator(List<Kernel<C>> positives, List<Kernel<C>> negatives,
+      boolean hasPositive, boolean positiveNull, boolean positiveNotNull,
+      boolean negativeNull, boolean negativeNotNull) {
+    this.positives = ImmutableList.copyOf(positives);
+    this.negatives = ImmutableList.copyOf(negatives);
+    this.hasPositive = hasPositive;
+    this.positiveNull = positiveNull;
+    this.positiveNotNull = positiveNotNull;
+    this.negativeNull = negativeNull;
+    this.negativeNotNull = negativeNotNull;
+  }
+
+  /** Creates an evaluator for a filter, compiling each term that is not
+   * {@code NULL} or {@code NOT NULL} to a kernel. */
+  static <C> BatchEvaluator<C> of(AstNode node,
+      Function<AstNode, Kernel<C>> compiler) {
+    final List<Kernel<C>> positives = new ArrayList<>();
+    final List<Kernel<C>> negatives = new ArrayList<>();
+    boolean hasPositive = false;
+    boolean positiveNull = false;
+    boolean positiveNotNull = false;
+    boolean negativeNull = false;
+    boolean negativeNotNull = false;
+    for (AstNode term : NumberCompiler.terms(node)) {
+      final boolean is = term.is();
+      hasPositive |= is;
+      switch (term.op) {
+      case NULL:
+        if (is) {
+          positiveNull = true;
+        } else {
+          negativeNull = true;
+        }
+        break;
+      case NOTNULL:
+        if (is) {
+          positiveNotNull = true;
+        } else {
+          negativeNotNull = true;
+        }
+        break;
+      default:
+        final Kernel<C> kernel = compiler.apply(term);
+        if (kernel != NONE) {
+          (is ? positives : negatives).add(kernel);
+        }
+      }
+    }
+    return new BatchEvaluator<>(positives, negatives, hasPositive,
+        positiveNull, positiveNotNull, negativeNull, negativeNotNull);
+  }
+
+  /** Loads the kernel factory that uses the JDK Vector API.
+   *
+   * <p>The factory is in the part of the jar for JDK 17 and higher, and
+   * needs the {@code jdk.incubator.vector} module, which the JVM only
+   * loads if it is started with
+   * "{@code --add-modules jdk.incubator.vector}". If any of these is
+   * missing, or if the system property {@code filtex.vector} is "false",
+   * returns null, and evaluators use scalar kernels. */
+  private static @Nullable KernelFactory vectorFactory() {
+    if (!Boolean.parseBoolean(System.getProperty("filtex.vector", "true"))) {
+      return null;
+    }
+    try {
+      final KernelFactory factory =
+          (KernelFactory) Class.forName(
+                  "net.hydromatic.filtex.eval.VectorKernels")
+              .getDeclaredConstructor()
+              .newInstance();
+      // Make sure that the vector classes can be loaded and used.
+      factory.longRange(0, 1).word(new long[64], 0, 64);
+      factory.doubleRange(0, 1).word(new double[64], 0, 64);
+      return factory;
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return null;
+    }
+  }
+
+  /** Returns whether evaluators can use the JDK Vector API. */
+  public static boolean isVectorAvailable() {
+    return VECTOR != null;
+  }
+
+  private static KernelFactory factory(boolean vector) {
+    return vector && VECTOR != null ? VECTOR : SCALAR;
+  }
+
+  /** Creates an evaluator of a numeric filter for a column of longs. */
+  public static BatchEvaluator<long[]> ofLong(AstNode node) {
+    return ofDecimal(node, 0);
+  }
+
+  /** Creates an evaluator of a numeric filter for a column of unscaled
+   * decimal values with a given scale; see
+   * {@link NumberCompiler#compileDecimal(AstNode, int)}. */
+  public static BatchEvaluator<long[]> ofDecimal(AstNode node, int scale) {
+    return ofDecimal(node, scale, true);
+  }
+
+  /** Creates an evaluator of a numeric filter for a column of unscaled
+   * decimal values with a given scale, optionally using the JDK Vector API
+   * if it is available. */
+  public static BatchEvaluator<long[]> ofDecimal(AstNode node, int scale,
+      boolean vector) {
+    final KernelFactory factory = factory(vector);
+    return of(node, term -> {
+      if (term.op == Op.EQ) {
+        return longIn(factory,
+            NumberCompiler.longValues((Ast.Comparison) term, scale));
+      }
+      final long[] bounds = NumberCompiler.longBounds(term, scale);
+      return longRange(factory, bounds[0], bounds[1]);
+    });
+  }
+
+  /** Creates an evaluator of a numeric filter for a column of doubles. */
+  public static BatchEvaluator<double[]> ofDouble(AstNode node) {
+    return ofDouble(node, true);
+  }
+
+  /** Creates an evaluator of a numeric filter for a column of doubles,
+   * optionally using the JDK Vector API if it is available. */
+  public static BatchEvaluator<double[]> ofDouble(AstNode node,
+      boolean vector) {
+    final KernelFactory factory = factory(vector);
+    return of(node, term -> {
+      if (term.op == Op.EQ) {
+        return doubleIn(factory,
+            NumberCompiler.doubleValues((Ast.Comparison) term));
+      }
+      final double[] bounds = NumberCompiler.doubleBounds(term);
+      return doubleRange(factory, bounds[0], bounds[1]);
+    });
+  }
+
+  /** Creates an evaluator of a location filter for a column of locations.
+   *
+   * <p>Each circle, box and point term is a kernel that uses the predicate
+   * from {@link LocationCompiler#compile(AstNode)}, and
+   * {@link Op#ANYWHERE} matches every location, so a whole filter is
+   * evaluated in one pass over the column. */
+  public static BatchEvaluator<Locations> ofLocation(AstNode node) {
+    return of(node, term -> {
+      if (term.op == Op.ANYWHERE) {
+        return (column, start, n) -> -1L;
+      }
+      final LocationPredicate predicate = LocationCompiler.compile(term);
+      return (column, start, n) ->
+          predicate.word(column.latitudes, column.longitudes, start, n);
+    });
+  }
+
+  /** Creates an evaluator of a resolved date filter for a column of longs
+   * that are the number of {@code unit}s since the epoch; see
+   * {@link DateCompiler#compileEpoch(DateIntervals, TimeUnit)}. */
+  public static BatchEvaluator<long[]> ofEpoch(DateIntervals intervals,
+      TimeUnit unit) {
+    return ofRanges(DateCompiler.epochBounds(intervals, unit),
+        intervals.containsNull, (lo, hi) -> longRange(SCALAR, lo, hi),
+        (values, i) -> values[i]);
+  }
+
+  /** Creates an evaluator of a resolved date filter for a column of ints
+   * that are the number of days since the epoch; see
+   * {@link DateCompiler#compileEpochDay(DateIntervals, ZoneId)}. */
+  public static BatchEvaluator<int[]> ofEpochDay(DateIntervals intervals,
+      ZoneId zone) {
+    return ofRanges(DateCompiler.epochDayBounds(intervals, zone),
+        intervals.containsNull,
+        (lo, hi) -> intRange((int) lo, (int) hi),
+        (values, i) -> values[i]);
+  }
+
+  /** Creates an evaluator that matches values in a list of closed ranges
+   * {@code [lo0, hi0, lo1, hi1, ...]}, and matches null if
+   * {@code containsNull}. If there are few ranges, each is a kernel;
+   * otherwise one kernel does a binary search per value. */
+  private static <C> BatchEvaluator<C> ofRanges(long[] bounds,
+      boolean containsNull, RangeKernelFactory<C> rangeFactory,
+      ValueGetter<C> getter) {
+    final List<Kernel<C>> positives = new ArrayList<>();
+    if (bounds.length <= LINEAR_SCAN_MAX * 2) {
+      for (int i = 0; i < bounds.length; i += 2) {
+        positives.add(rangeFactory.range(bounds[i], bounds[i + 1]));
+      }
+    } else {
+      positives.add(search(bounds, getter));
+    }
+    return new BatchEvaluator<>(positives, ImmutableList.of(), true,
+        containsNull, false, false, false);
+  }
+
+  /** Creates a kernel that matches values in a list of closed ranges by
+   * binary search. */
+  private static <C> Kernel<C> search(long[] bounds, ValueGetter<C> getter) {
+    return (column, start, n) -> {
+      long word = 0L;
+      for (int j = 0; j < n; j++) {
+        if (DateCompiler.contains(bounds, getter.get(column, start + j))) {
+          word |= 1L << j;
+        }
+      }
+      return word;
+    };
+  }
+
+  /** Returns the number of words in a bitset of {@code count} bits. */
+  public static int wordCount(int count) {
+    return (count + 63) >>> 6;
+  }
+
+  /** Evaluates this filter against a batch, returning a new bitset. */
+  public long[] evaluate(C column, long @Nullable [] validity, int count) {
+    final long[] bits = new long[wordCount(count)];
+    evaluate(column, validity, count, bits);
+    return bits;
+  }
+
+  /** Evaluates this filter against a batch, writing to an existing bitset
+   * and overwriting its first {@link #wordCount(int) wordCount(count)}
+   * words. Bits beyond {@code count} in the last word are cleared. */
+  public void evaluate(C column, long @Nullable [] validity, int count,
+      long[] bits) {
+    for (int w = 0, start = 0; start < count; w++, start += 64) {
+      final int n = Math.min(64, count - start);
+      final long mask = n == 64 ? -1L : (1L << n) - 1;
+      final long valid = validity == null ? -1L : validity[w];
+
+      long positive = -1L;
+      if (hasPositive) {
+        positive = 0L;
+        for (int i = 0; i < positives.size(); i++) {
+          positive |= positives.get(i).word(column, start, n);
+        }
+        positive &= valid;
+        if (positiveNull) {
+          positive |= ~valid;
+        }
+        if (positiveNotNull) {
+          positive |= valid;
+        }
+      }
+
+      long negative = 0L;
+      if ((positive & valid) != 0) {
+        for (int i = 0; i < negatives.size(); i++) {
+          negative |= negatives.get(i).word(column, start, n);
+        }
+        negative &= valid;
+      }
+      if (negativeNull) {
+        negative |= ~valid;
+      }
+      if (negativeNotNull) {
+        negative |= valid;
+      }
+
+      bits[w] = positive & ~negative & mask;
+    }
+  }
+
+  /** Computes, for one term of a filter, which of up to 64 consecutive
+   * values match.
+   *
+   * @param <C> Column type */
+  public interface Kernel<C> {
+    /** Returns a word whose bit {@code j} is set if the value at
+     * {@code start + j} matches, for {@code j} in {@code [0, n)}. Other
+     * bits, and bits for null values, may have any value.
+     *
+     * @param column Column
+     * @param start Index of first value
+     * @param n Number of values, between 1 and 64 */
+    long word(C column, int start, int n);
+  }
+
+  /** Creates a kernel that matches values in a closed range.
+   *
+   * @param <C> Column type */
+  @FunctionalInterface
+  private interface RangeKernelFactory<C> {
+    Kernel<C> range(long lo, long hi);
+  }
+
+  /** Gets a value from a column, as a long.
+   *
+   * @param <C> Column type */
+  @FunctionalInterface
+  private interface ValueGetter<C> {
+    long get(C column, int i);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <C> Kernel<C> none() {
+    return (Kernel<C>) NONE;
+  }
+
+  /** Returns a kernel that matches longs in the closed range
+   * {@code [lo, hi]}, or no longs if {@code lo > hi}. */
+  private static Kernel<long[]> longRange(KernelFactory factory, long lo,
+      long hi) {
+    return lo > hi ? none() : factory.longRange(lo, hi);
+  }
+
+  /** Returns a scalar kernel that matches longs in the closed range
+   * {@code [lo, hi]}, where {@code lo <= hi}. */
+  static Kernel<long[]> scalarLongRange(long lo, long hi) {
+    // "lo <= v && v <= hi" is equivalent to "v - lo <= hi - lo", compared
+    // as unsigned values; one comparison, and no branch.
+    final long width = hi - lo + Long.MIN_VALUE;
+    return (values, start, n) -> {
+      long word = 0L;
+      for (int j = 0; j < n; j++) {
+        final long v = values[start + j] - lo + Long.MIN_VALUE;
+        word |= (v <= width ? 1L : 0L) << j;
+      }
+      return word;
+    };
+  }
+
+  /** Returns a kernel that matches ints in the closed range
+   * {@code [lo, hi]}, where {@code lo <= hi}. */
+  private static Kernel<int[]> intRange(int lo, int hi) {
+    final int width = hi - lo + Integer.MIN_VALUE;
+    return (values, start, n) -> {
+      long word = 0L;
+      for (int j = 0; j < n; j++) {
+        final int v = values[start + j] - lo + Integer.MIN_VALUE;
+        word |= (v <= width ? 1L : 0L) << j;
+      }
+      return word;
+    };
+  }
+
+  /** Returns a kernel that matches longs in an ascending array. */
+  private static Kernel<long[]> longIn(KernelFactory factory,
+      long[] longs) {
+    switch (longs.length) {
+    case 0:
+      return none();
+    case 1:
+      return factory.longRange(longs[0], longs[0]);
+    default:
+      if (longs.length <= LINEAR_SCAN_MAX) {
+        // One pass per value is faster than a binary search per row.
+        return (values, start, n) -> {
+          long word = 0L;
+          for (long x : longs) {
+            for (int j = 0; j < n; j++) {
+              word |= (values[start + j] == x ? 1L : 0L) << j;
+            }
+          }
+          return word;
+        };
+      }
+      return (values, start, n) -> {
+        long word = 0L;
+        for (int j = 0; j < n; j++) {
+          if (Arrays.binarySearch(longs, values[start + j]) >= 0) {
+            word |= 1L << j;
+          }
+        }
+        return word;
+      };
+    }
+  }
+
+  /** Returns a kernel that matches doubles in the closed range
+   * {@code [lo, hi]}, or no doubles if {@code lo > hi}. */
+  private static Kernel<double[]> doubleRange(KernelFactory factory,
+      double lo, double hi) {
+    return lo <= hi ? factory.doubleRange(lo, hi) : none();
+  }
+
+  /** Returns a scalar kernel that matches doubles in the closed range
+   * {@code [lo, hi]}, where {@code lo <= hi}. NaN never matches. */
+  static Kernel<double[]> scalarDoubleRange(double lo, double hi) {
+    return (values, start, n) -> {
+      long word = 0L;
+      for (int j = 0; j < n; j++) {
+        final double v = values[start + j];
+        word |= (v >= lo & v <= hi ? 1L : 0L) << j;
+      }
+      return word;
+    };
+  }
+
+  /** Returns a kernel that matches doubles in an ascending array. */
+  private static Kernel<double[]> doubleIn(KernelFactory factory,
+      double[] doubles) {
+    switch (doubles.length) {
+    case 0:
+      return none();
+    case 1:
+      return factory.doubleRange(doubles[0], doubles[0]);
+    default:
+      if (doubles.length <= LINEAR_SCAN_MAX) {
+        return (values, start, n) -> {
+          long word = 0L;
+          for (double x : doubles) {
+            for (int j = 0; j < n; j++) {
+              word |= (values[start + j] == x ? 1L : 0L) << j;
+            }
+          }
+          return word;
+        };
+      }
+      return (values, start, n) -> {
+        long word = 0L;
+        for (int j = 0; j < n; j++) {
+          final double v = values[start + j];
+          // Arrays.binarySearch distinguishes -0.0 from 0.0, and the array
+          // contains only 0.0.
+          if (Arrays.binarySearch(doubles, v == 0d ? 0d : v) >= 0) {
+            word |= 1L << j;
+          }
+        }
+        return word;
+      };
+    }
+  }
+}
+
+// End BatchEvaluator.java
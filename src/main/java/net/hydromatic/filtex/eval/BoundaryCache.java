@@ -0,0 +1,192 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * Cache of the instants at which days start, per time zone.
+ *
+ * <p>Every boundary of a calendar unit (day, week, month, quarter, year,
+ * fiscal quarter, fiscal year) is the start of a day in some time zone.
+ * {@link DateResolver} finds that day by integer arithmetic on days since
+ * the epoch, and converts it to an instant using the zone's rules; this
+ * cache makes the conversion cheap.
+ *
+ * <p>For each zone, the cache remembers a span of days during which the
+ * zone's offset from UTC does not change; typically the months between two
+ * daylight saving time transitions, or forever for a fixed-offset zone.
+ * A day in the span starts at {@code epochDay * 86,400,000 - offset}
+ * milliseconds, with no calls to the zone's rules. A day outside the span
+ * moves the span; a day whose midnight is in a gap or an overlap (because
+ * a transition happens at midnight) is computed using
+ * {@link LocalDate#atStartOfDay(ZoneId)}, so results are the same as
+ * {@code atStartOfDay} for every day. If midnight does not exist in a zone
+ * on a given day, the day starts at the first valid time.
+ *
+ * <p>A cache is safe for use by concurrent threads. Create one with
+ * {@link #ofSize(long)}, and give it to resolvers using
+ * {@link DateResolver#withCache(BoundaryCache)}. Its size is the number of
+ * zones.
+ */
+public class BoundaryCache {
+  private static final long SECONDS_PER_DAY = 86_400L;
+  private static final long MILLIS_PER_DAY = SECONDS_PER_DAY * 1_000L;
+
+  /** Largest number of days from the epoch that a span may contain; about
+   * 2.7 million years, small enough that the arithmetic does not
+   * overflow. */
+  private static final long MAX_DAY = 1_000_000_000L;
+
+  private final LoadingCache<ZoneId, ZoneBoundaries> cache;
+
+  private BoundaryCache(
+      CacheBuilder<? super ZoneId, ? super ZoneBoundaries> builder) {
+    this.cache =
+        builder.recordStats()
+            .build(CacheLoader.from(ZoneBoundaries::new));
+  }
+
+  /** Creates a cache that holds boundaries for at most {@code maximumSize}
+   * time zones. */
+  public static BoundaryCache ofSize(long maximumSize) {
+    return new BoundaryCache(
+        CacheBuilder.newBuilder().maximumSize(maximumSize));
+  }
+
+  /** Returns the instant, in milliseconds since the epoch, at which a day
+   * starts in a time zone. */
+  public long start(ZoneId zone, long epochDay) {
+    return boundaries(zone).start(epochDay);
+  }
+
+  /** Returns the boundaries of a time zone, creating them if they are not
+   * already in the cache. */
+  ZoneBoundaries boundaries(ZoneId zone) {
+    return cache.getUnchecked(zone);
+  }
+
+  /** Computes the instant, in milliseconds since the epoch, at which a day
+   * starts in a time zone. */
+  static long dayStart(ZoneId zone, long epochDay) {
+    return LocalDate.ofEpochDay(epochDay).atStartOfDay(zone).toInstant()
+        .toEpochMilli();
+  }
+
+  /** Returns the number of time zones currently in the cache. */
+  public long size() {
+    return cache.size();
+  }
+
+  /** Returns statistics about the cache: hit, miss and eviction counts. */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  /** Removes all entries from the cache. Does not reset statistics. */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /** Start of each day in a time zone. */
+  static class ZoneBoundaries {
+    private final ZoneId zone;
+    private final ZoneRules rules;
+    private volatile Span span = new Span(0, 0, 0);
+
+    ZoneBoundaries(ZoneId zone) {
+      this.zone = zone;
+      this.rules = zone.getRules();
+    }
+
+    /** Returns the instant, in milliseconds since the epoch, at which a
+     * day starts. */
+    long start(long epochDay) {
+      Span span = this.span;
+      if (epochDay < span.lo || epochDay >= span.hi) {
+        final Span newSpan = span(epochDay);
+        if (newSpan == null) {
+          return dayStart(zone, epochDay);
+        }
+        this.span = span = newSpan;
+      }
+      return epochDay * MILLIS_PER_DAY - span.offsetMillis;
+    }
+
+    /** Computes the span of days, containing a given day, that start at
+     * midnight with the same offset; or returns null if the day does not
+     * start at midnight, or is too far from the epoch. */
+    private @Nullable Span span(long epochDay) {
+      if (Math.abs(epochDay) >= MAX_DAY) {
+        return null;
+      }
+      final long start = dayStart(zone, epochDay);
+      final Instant instant = Instant.ofEpochMilli(start);
+      final long offset = rules.getOffset(instant).getTotalSeconds();
+      if (start != epochDay * MILLIS_PER_DAY - offset * 1_000L) {
+        return null;
+      }
+      // The offset applies from the last transition at or before the start
+      // of the day until the next transition after it.
+      final ZoneOffsetTransition previous =
+          rules.previousTransition(instant.plusSeconds(1));
+      final ZoneOffsetTransition next = rules.nextTransition(instant);
+      long lo = previous == null ? -MAX_DAY
+          : Math.max(-MAX_DAY,
+              Math.floorDiv(previous.toEpochSecond() + offset - 1,
+                  SECONDS_PER_DAY) + 1);
+      final long hi = next == null ? MAX_DAY
+          : Math.min(MAX_DAY,
+              Math.floorDiv(next.toEpochSecond() + offset - 1,
+                  SECONDS_PER_DAY) + 1);
+      // Just after a transition that turns clocks back, midnight may also
+      // have occurred, earlier, with the previous offset.
+      if (lo < epochDay
+          && dayStart(zone, lo) != lo * MILLIS_PER_DAY - offset * 1_000L) {
+        ++lo;
+      }
+      return new Span(lo, hi, offset * 1_000L);
+    }
+  }
+
+  /** Range of days {@code [lo, hi)} that start at midnight with the same
+   * offset from UTC. */
+  private static class Span {
+    final long lo;
+    final long hi;
+    final long offsetMillis;
+
+    Span(long lo, long hi, long offsetMillis) {
+      this.lo = lo;
+      this.hi = hi;
+      this.offsetMillis = offsetMillis;
+    }
+  }
+}
+
+// End BoundaryCache.java
@@ -0,0 +1,438 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+import net.hydromatic.filtex.ast.Ast;
+import net.hydromatic.filtex.ast.AstNode;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Predicate;
+
+/**
+ * Compiles resolved date filters to predicates on the physical encodings of
+ * dates and timestamps.
+ *
+ * <p>The input is a {@link DateIntervals}, as returned by
+ * {@link DateResolver#resolve}, for a filter of the
+ * {@link net.hydromatic.filtex.TypeFamily#DATE DATE} or
+ * {@link net.hydromatic.filtex.TypeFamily#DATE_TIME DATE_TIME} type family.
+ * The encodings are:
+ *
+ * <ul>
+ * <li>{@code int} days since the epoch, usual for {@code DATE} columns; use
+ *   {@link #compileEpochDay(DateIntervals, ZoneId)}, or
+ *   {@link #compileEpochDay(AstNode, DateResolver)} if the filter has days
+ *   of the week;
+ * <li>{@code long} seconds, milliseconds, microseconds or nanoseconds since
+ *   the epoch, usual for {@code TIMESTAMP} columns; use
+ *   {@link #compileEpoch(DateIntervals, TimeUnit)};
+ * <li>{@link Timestamp}; use {@link #compileTimestamp(DateIntervals)}.
+ * </ul>
+ *
+ * <p>The bounds of the intervals are converted to the column's unit when
+ * the predicate is compiled, so predicates compare primitive values, and do
+ * not create {@link LocalDate} or {@link Instant} objects when called.
+ *
+ * <p>As in {@link NumberCompiler}, the primitive predicates test non-null
+ * values; use {@link DateIntervals#containsNull} to find out whether the
+ * filter accepts null.
+ */
+public class DateCompiler {
+  /** Above this number of intervals, predicates use binary search rather
+   * than a linear scan. */
+  private static final int LINEAR_SCAN_MAX = 8;
+
+  private DateCompiler() {
+  }
+
+  /** Compiles a resolved date filter to a predicate on the number of days
+   * since 1970-01-01.
+   *
+   * <p>A day matches if its start, in the given time zone, is in the
+   * intervals; the zone should be the one that the intervals were resolved
+   * in. For example, if "{@code today}" was resolved in
+   * {@code America/Los_Angeles}, it matches just today's date, even though
+   * the UTC day is different for 7 or 8 hours. */
+  public static IntPredicate compileEpochDay(DateIntervals intervals,
+      ZoneId zone) {
+    final LongPredicate predicate = compile(epochDayBounds(intervals, zone));
+    return predicate::test;
+  }
+
+  /** Compiles a date filter to a predicate on the number of days since
+   * 1970-01-01, computing calendar fields by integer arithmetic.
+   *
+   * <p>Unlike {@link #compileEpochDay(DateIntervals, ZoneId)}, the filter
+   * may contain days of the week, such as "{@code monday, friday}", which
+   * are not a finite list of intervals; they are tested using
+   * {@link EpochDays#dayOfWeek(long)} and a bit mask.
+   *
+   * <p>Days ("{@code today}", "{@code yesterday}") and units
+   * ("{@code this week}", "{@code next month}",
+   * "{@code before last quarter}") become ranges of days; the first day of
+   * each week, month, quarter or year is computed from the current day of
+   * {@code resolver} by {@link EpochDays}, without {@code java.time}, and
+   * of each fiscal quarter or year is looked up in the resolver's
+   * {@link FiscalCalendar}. Other
+   * terms are resolved to intervals by {@code resolver}, and match days
+   * whose start is in an interval. Ranges that overlap or touch are merged,
+   * so each row does one comparison per range, or a binary search if there
+   * are many. */
+  public static IntPredicate compileEpochDay(AstNode node,
+      DateResolver resolver) {
+    final long today = resolver.today();
+    final List<long[]> ranges = new ArrayList<>();
+    int weekdays = 0; // bit d is set if ISO day of week d matches
+    DateIntervals positives = DateIntervals.EMPTY;
+    DateIntervals negatives = DateIntervals.EMPTY;
+    boolean hasPositive = false;
+    for (AstNode term : NumberCompiler.terms(node)) {
+      if (!term.is()) {
+        negatives = negatives.union(resolver.resolveTerm(term));
+        continue;
+      }
+      hasPositive = true;
+      final int dayOfWeek = dayOfWeek(term);
+      if (dayOfWeek > 0) {
+        weekdays |= 1 << dayOfWeek;
+        continue;
+      }
+      final long[] range =
+          dayRange(term, today, resolver.fiscalCalendar());
+      if (range != null) {
+        ranges.add(range);
+      } else {
+        positives = positives.union(resolver.resolveTerm(term));
+      }
+    }
+    ranges.add(epochDayBounds(positives, resolver.zone()));
+
+    final long[] bounds = merge(ranges);
+    final LongPredicate inRanges = compile(bounds);
+    final int mask = weekdays;
+    final LongPredicate any;
+    if (!hasPositive) {
+      any = d -> true;
+    } else if (mask == 0) {
+      any = inRanges;
+    } else if (bounds.length == 0) {
+      any = d -> (mask >>> EpochDays.dayOfWeek(d) & 1) != 0;
+    } else {
+      any = d -> (mask >>> EpochDays.dayOfWeek(d) & 1) != 0
+          || inRanges.test(d);
+    }
+    if (negatives.isEmpty()) {
+      return any::test;
+    }
+    final LongPredicate none =
+        compile(epochDayBounds(negatives, resolver.zone()));
+    return d -> any.test(d) && !none.test(d);
+  }
+
+  /** Returns the ISO day of the week (1 for Monday) of a term such as
+   * "{@code monday}", or 0 if the term is not a day of the week. */
+  private static int dayOfWeek(AstNode term) {
+    if (!(term instanceof Ast.DayLiteral)) {
+      return 0;
+    }
+    switch (((Ast.DayLiteral) term).day) {
+    case "today":
+    case "yesterday":
+    case "tomorrow":
+      return 0;
+    default:
+      return DayOfWeek.valueOf(
+              ((Ast.DayLiteral) term).day.toUpperCase(Locale.ROOT))
+          .getValue();
+    }
+  }
+
+  /** Returns the closed range of days {@code [lo, hi]} that a day or unit
+   * term matches, or null if the term is not a day or a unit of days. */
+  private static long @Nullable [] dayRange(AstNode term, long today,
+      FiscalCalendar fiscalCalendar) {
+    if (term instanceof Ast.DayLiteral) {
+      switch (((Ast.DayLiteral) term).day) {
+      case "today":
+        return new long[] {today, today};
+      case "yesterday":
+        return new long[] {today - 1, today - 1};
+      case "tomorrow":
+        return new long[] {today + 1, today + 1};
+      default:
+        return null;
+      }
+    }
+    if (!(term instanceof Ast.ThisUnit)) {
+      return null;
+    }
+    // The period that contains today, and a function from a period to its
+    // first day.
+    final long current;
+    final LongUnaryOperator firstDay;
+    switch (((Ast.ThisUnit) term).unit) {
+    case DAY:
+      current = today;
+      firstDay = p -> p;
+      break;
+    case WEEK:
+      current = EpochDays.epochWeek(today);
+      firstDay = p -> p * 7 - 3;
+      break;
+    case MONTH:
+      current = EpochDays.epochMonth(today);
+      firstDay = EpochDays::firstDayOfMonth;
+      break;
+    case QUARTER:
+      current = EpochDays.epochQuarter(today);
+      firstDay = p -> EpochDays.firstDayOfMonth(p * 3);
+      break;
+    case YEAR:
+      current = EpochDays.year(today);
+      firstDay = p -> EpochDays.daysFromCivil(p, 1, 1);
+      break;
+    case FISCAL_QUARTER:
+      current = fiscalCalendar.epochQuarter(today);
+      firstDay = fiscalCalendar::quarterStart;
+      break;
+    case FISCAL_YEAR:
+      current = fiscalCalendar.year(today);
+      firstDay = p -> fiscalCalendar.yearStart(Math.toIntExact(p));
+      break;
+    default:
+      // Hours, minutes and seconds are not units of days
+      return null;
+    }
+    switch (term.op) {
+    case THIS:
+      return period(firstDay, current);
+    case NEXT:
+      return period(firstDay, current + 1);
+    case LAST:
+      return period(firstDay, current - 1);
+    case BEFORE_THIS:
+      return new long[] {Long.MIN_VALUE, firstDay.applyAsLong(current) - 1};
+    case BEFORE_NEXT:
+      return new long[] {Long.MIN_VALUE, firstDay.applyAsLong(current + 1) - 1};
+    case BEFORE_LAST:
+      return new long[] {Long.MIN_VALUE, firstDay.applyAsLong(current - 1) - 1};
+    case AFTER_THIS:
+      return new long[] {firstDay.applyAsLong(current), Long.MAX_VALUE};
+    case AFTER_NEXT:
+      return new long[] {firstDay.applyAsLong(current + 1), Long.MAX_VALUE};
+    case AFTER_LAST:
+      return new long[] {firstDay.applyAsLong(current - 1), Long.MAX_VALUE};
+    default:
+      throw new AssertionError(term.op);
+    }
+  }
+
+  /** Returns the closed range of days of a period. */
+  private static long[] period(LongUnaryOperator firstDay, long period) {
+    return new long[] {firstDay.applyAsLong(period),
+        firstDay.applyAsLong(period + 1) - 1};
+  }
+
+  /** Merges lists of closed ranges {@code [lo0, hi0, lo1, hi1, ...]} into
+   * one ascending list, combining ranges that overlap or touch. */
+  private static long[] merge(List<long[]> rangeLists) {
+    final List<long[]> ranges = new ArrayList<>();
+    for (long[] bounds : rangeLists) {
+      for (int i = 0; i < bounds.length; i += 2) {
+        ranges.add(new long[] {bounds[i], bounds[i + 1]});
+      }
+    }
+    ranges.sort((r0, r1) -> Long.compare(r0[0], r1[0]));
+    final long[] merged = new long[ranges.size() * 2];
+    int n = 0;
+    for (long[] range : ranges) {
+      if (n > 0 && (merged[n - 1] == Long.MAX_VALUE
+          || range[0] <= merged[n - 1] + 1)) {
+        merged[n - 1] = Math.max(merged[n - 1], range[1]);
+      } else {
+        merged[n++] = range[0];
+        merged[n++] = range[1];
+      }
+    }
+    return Arrays.copyOf(merged, n);
+  }
+
+  /** Compiles a resolved date filter to a predicate on the number of
+   * {@code unit}s since 1970-01-01 00:00:00 UTC.
+   *
+   * <p>A value matches if the instant it represents is in the intervals.
+   * For units coarser than a millisecond, a value matches if its start is
+   * in the intervals. */
+  public static LongPredicate compileEpoch(DateIntervals intervals,
+      TimeUnit unit) {
+    return compile(epochBounds(intervals, unit));
+  }
+
+  /** Compiles a resolved date filter to a predicate on {@link Timestamp}
+   * values. The predicate accepts null if the filter accepts null. */
+  public static Predicate<Timestamp> compileTimestamp(
+      DateIntervals intervals) {
+    // Timestamp.getTime() is in milliseconds, rounded down, and interval
+    // bounds are whole milliseconds, so the nanoseconds do not matter.
+    final LongPredicate predicate =
+        compileEpoch(intervals, TimeUnit.MILLISECONDS);
+    final boolean containsNull = intervals.containsNull;
+    return t -> t == null ? containsNull : predicate.test(t.getTime());
+  }
+
+  /** Converts intervals to closed ranges of values in a given unit.
+   *
+   * <p>Returns an array {@code [lo0, hi0, lo1, hi1, ...]} of ascending,
+   * disjoint, non-empty closed ranges; {@link Long#MIN_VALUE} and
+   * {@link Long#MAX_VALUE} are unbounded. */
+  static long[] epochBounds(DateIntervals intervals, TimeUnit unit) {
+    final long millisPerUnit = unit.toMillis(1);
+    final long unitsPerMilli = unit.convert(1, TimeUnit.MILLISECONDS);
+    final long[] bounds = new long[intervals.size() * 2];
+    for (int i = 0; i < intervals.size(); i++) {
+      // Value v matches interval [start, end) if
+      // start <= millis(v) < end. Since millis(v) is monotonic, the
+      // matching values are [ceil(start), ceil(end)) in the new unit.
+      bounds[i * 2] = toUnit(intervals.start(i), millisPerUnit, unitsPerMilli);
+      bounds[i * 2 + 1] =
+          toUnit(intervals.end(i), millisPerUnit, unitsPerMilli);
+    }
+    return closed(bounds);
+  }
+
+  /** Converts intervals to closed ranges of days since the epoch. A day
+   * matches if its start in {@code zone} is in the intervals. */
+  static long[] epochDayBounds(DateIntervals intervals, ZoneId zone) {
+    final long[] bounds = new long[intervals.size() * 2];
+    for (int i = 0; i < intervals.size(); i++) {
+      bounds[i * 2] = toEpochDay(intervals.start(i), zone);
+      bounds[i * 2 + 1] = toEpochDay(intervals.end(i), zone);
+    }
+    final long[] closed = closed(bounds);
+    for (int i = 0; i < closed.length; i++) {
+      closed[i] = Math.max(Integer.MIN_VALUE,
+          Math.min(Integer.MAX_VALUE, closed[i]));
+    }
+    return closed;
+  }
+
+  /** Converts an instant in milliseconds to the first value in a unit that
+   * is not before it. */
+  private static long toUnit(long millis, long millisPerUnit,
+      long unitsPerMilli) {
+    if (millis == Long.MIN_VALUE || millis == Long.MAX_VALUE) {
+      return millis;
+    }
+    if (millisPerUnit > 1) {
+      return -Math.floorDiv(-millis, millisPerUnit);
+    }
+    try {
+      return Math.multiplyExact(millis, unitsPerMilli);
+    } catch (ArithmeticException e) {
+      return millis < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+    }
+  }
+
+  /** Returns the first day whose start, in a given time zone, is not before
+   * an instant. */
+  private static long toEpochDay(long millis, ZoneId zone) {
+    if (millis == Long.MIN_VALUE || millis == Long.MAX_VALUE) {
+      return millis;
+    }
+    final LocalDate date =
+        Instant.ofEpochMilli(millis).atZone(zone).toLocalDate();
+    final long start = date.atStartOfDay(zone).toInstant().toEpochMilli();
+    return start < millis ? date.toEpochDay() + 1 : date.toEpochDay();
+  }
+
+  /** Converts half-open ranges {@code [start, end)} to closed ranges
+   * {@code [start, end - 1]}, removing those that are empty. An end of
+   * {@link Long#MAX_VALUE} remains unbounded. */
+  private static long[] closed(long[] bounds) {
+    final long[] closed = new long[bounds.length];
+    int n = 0;
+    for (int i = 0; i < bounds.length; i += 2) {
+      final long lo = bounds[i];
+      final long hi = bounds[i + 1] == Long.MAX_VALUE ? Long.MAX_VALUE
+          : bounds[i + 1] - 1;
+      if (lo <= hi) {
+        closed[n++] = lo;
+        closed[n++] = hi;
+      }
+    }
+    return Arrays.copyOf(closed, n);
+  }
+
+  /** Returns a predicate that tests whether a value is in one of a list of
+   * closed ranges. */
+  private static LongPredicate compile(long[] bounds) {
+    switch (bounds.length) {
+    case 0:
+      return v -> false;
+    case 2:
+      // "lo <= v && v <= hi" as one unsigned comparison
+      final long lo = bounds[0];
+      final long width = bounds[1] - lo + Long.MIN_VALUE;
+      return v -> v - lo + Long.MIN_VALUE <= width;
+    default:
+      if (bounds.length <= LINEAR_SCAN_MAX * 2) {
+        return v -> {
+          for (int i = 0; i < bounds.length; i += 2) {
+            if (v >= bounds[i] && v <= bounds[i + 1]) {
+              return true;
+            }
+          }
+          return false;
+        };
+      }
+      return v -> contains(bounds, v);
+    }
+  }
+
+  /** Returns whether a value is in one of a list of closed ranges, using
+   * binary search. */
+  static boolean contains(long[] bounds, long v) {
+    // Find the last range whose lower bound is <= v.
+    int lo = 0;
+    int hi = bounds.length / 2 - 1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (bounds[mid * 2] <= v) {
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return hi >= 0 && v <= bounds[hi * 2 + 1];
+  }
+}
+
+// End DateCompiler.java
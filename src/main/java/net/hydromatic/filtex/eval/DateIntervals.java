@@ -0,0 +1,244 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+import com.google.common.collect.ImmutableRangeSet;
+import com.google.common.collect.Range;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A set of instants, represented as a sorted list of disjoint half-open
+ * intervals {@code [start, end)} of milliseconds since the epoch.
+ *
+ * <p>Intervals are merged if they overlap or touch, so the representation
+ * is canonical. An unbounded start is {@link Long#MIN_VALUE}, and an
+ * unbounded end is {@link Long#MAX_VALUE}.
+ *
+ * <p>Use {@link DateResolver} to create the intervals for a date filter.
+ */
+public class DateIntervals {
+  /** Set that contains no instants. */
+  public static final DateIntervals EMPTY =
+      new DateIntervals(new long[0], new long[0], false);
+
+  /** Set that contains all instants. */
+  public static final DateIntervals ALL =
+      new DateIntervals(new long[] {Long.MIN_VALUE},
+          new long[] {Long.MAX_VALUE}, false);
+
+  private final long[] starts;
+  private final long[] ends;
+  /** Whether the filter accepts null. */
+  public final boolean containsNull;
+
+  private DateIntervals(long[] starts, long[] ends, boolean containsNull) {
+    this.starts = starts;
+    this.ends = ends;
+    this.containsNull = containsNull;
+  }
+
+  /** Creates a set containing the single interval {@code [start, end)}. */
+  public static DateIntervals of(long start, long end) {
+    return start >= end ? EMPTY
+        : new DateIntervals(new long[] {start}, new long[] {end}, false);
+  }
+
+  /** Creates a set from arrays of interval starts and ends, in any order,
+   * merging intervals that overlap or touch. Empty intervals are
+   * ignored. */
+  public static DateIntervals of(long[] starts, long[] ends) {
+    checkArgument(starts.length == ends.length,
+        "starts and ends must have the same length");
+    final Integer[] order = new Integer[starts.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (i, j) -> Long.compare(starts[i], starts[j]));
+    final long[] newStarts = new long[starts.length];
+    final long[] newEnds = new long[starts.length];
+    int n = 0;
+    for (int i : order) {
+      final long start = starts[i];
+      final long end = ends[i];
+      if (start >= end) {
+        continue;
+      }
+      if (n > 0 && start <= newEnds[n - 1]) {
+        newEnds[n - 1] = Math.max(newEnds[n - 1], end);
+      } else {
+        newStarts[n] = start;
+        newEnds[n] = end;
+        ++n;
+      }
+    }
+    return n == 0 ? EMPTY
+        : new DateIntervals(Arrays.copyOf(newStarts, n),
+            Arrays.copyOf(newEnds, n), false);
+  }
+
+  /** Returns a copy of this set that does or does not accept null. */
+  public DateIntervals withNull(boolean containsNull) {
+    return containsNull == this.containsNull ? this
+        : new DateIntervals(starts, ends, containsNull);
+  }
+
+  /** Returns the number of intervals. */
+  public int size() {
+    return starts.length;
+  }
+
+  /** Returns whether this set contains no instants. */
+  public boolean isEmpty() {
+    return starts.length == 0;
+  }
+
+  /** Returns the start of the {@code i}th interval, inclusive. */
+  public long start(int i) {
+    return starts[i];
+  }
+
+  /** Returns the end of the {@code i}th interval, exclusive. */
+  public long end(int i) {
+    return ends[i];
+  }
+
+  /** Returns whether an instant, in milliseconds since the epoch, is in
+   * this set. Uses binary search. */
+  public boolean contains(long millis) {
+    // Find the last interval whose start is <= millis.
+    int lo = 0;
+    int hi = starts.length - 1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (starts[mid] <= millis) {
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return hi >= 0 && millis < ends[hi];
+  }
+
+  /** Returns the union of this set and another. */
+  public DateIntervals union(DateIntervals other) {
+    final long[] starts = concat(this.starts, other.starts);
+    final long[] ends = concat(this.ends, other.ends);
+    return of(starts, ends)
+        .withNull(this.containsNull || other.containsNull);
+  }
+
+  /** Returns the instants in this set that are not in another set. Whether
+   * the result accepts null is the same as this set. */
+  public DateIntervals minus(DateIntervals other) {
+    if (other.isEmpty() || isEmpty()) {
+      return this;
+    }
+    final long[] newStarts = new long[starts.length + other.starts.length];
+    final long[] newEnds = new long[newStarts.length];
+    int n = 0;
+    int j = 0;
+    for (int i = 0; i < starts.length; i++) {
+      long start = starts[i];
+      final long end = ends[i];
+      // Skip other's intervals that end before this interval starts.
+      while (j < other.starts.length && other.ends[j] <= start) {
+        ++j;
+      }
+      int k = j;
+      while (k < other.starts.length && other.starts[k] < end) {
+        if (other.starts[k] > start) {
+          newStarts[n] = start;
+          newEnds[n] = other.starts[k];
+          ++n;
+        }
+        start = Math.max(start, other.ends[k]);
+        ++k;
+      }
+      if (start < end) {
+        newStarts[n] = start;
+        newEnds[n] = end;
+        ++n;
+      }
+    }
+    return n == 0 ? EMPTY.withNull(containsNull)
+        : new DateIntervals(Arrays.copyOf(newStarts, n),
+            Arrays.copyOf(newEnds, n), containsNull);
+  }
+
+  private static long[] concat(long[] a, long[] b) {
+    final long[] c = Arrays.copyOf(a, a.length + b.length);
+    System.arraycopy(b, 0, c, a.length, b.length);
+    return c;
+  }
+
+  /** Returns the intervals as a Guava range set. Unbounded ends become
+   * unbounded ranges. */
+  public ImmutableRangeSet<Long> toRangeSet() {
+    final ImmutableRangeSet.Builder<Long> builder = ImmutableRangeSet.builder();
+    for (int i = 0; i < starts.length; i++) {
+      final long start = starts[i];
+      final long end = ends[i];
+      if (start == Long.MIN_VALUE) {
+        builder.add(end == Long.MAX_VALUE ? Range.all() : Range.lessThan(end));
+      } else {
+        builder.add(end == Long.MAX_VALUE ? Range.atLeast(start)
+            : Range.closedOpen(start, end));
+      }
+    }
+    return builder.build();
+  }
+
+  @Override public int hashCode() {
+    return (Arrays.hashCode(starts) * 31 + Arrays.hashCode(ends)) * 31
+        + Boolean.hashCode(containsNull);
+  }
+
+  @Override public boolean equals(Object o) {
+    return o == this
+        || o instanceof DateIntervals
+        && Arrays.equals(starts, ((DateIntervals) o).starts)
+        && Arrays.equals(ends, ((DateIntervals) o).ends)
+        && containsNull == ((DateIntervals) o).containsNull;
+  }
+
+  /** Returns a string such as
+   * "{@code [2018-05-18T00:00:00Z, 2018-05-19T00:00:00Z), null}". */
+  @Override public String toString() {
+    final StringBuilder b = new StringBuilder();
+    for (int i = 0; i < starts.length; i++) {
+      if (i > 0) {
+        b.append(", ");
+      }
+      b.append(starts[i] == Long.MIN_VALUE ? "(-inf"
+              : "[" + Instant.ofEpochMilli(starts[i]))
+          .append(", ")
+          .append(ends[i] == Long.MAX_VALUE ? "+inf"
+              : Instant.ofEpochMilli(ends[i]))
+          .append(')');
+    }
+    if (containsNull) {
+      b.append(b.length() > 0 ? ", " : "").append("null");
+    }
+    return b.toString();
+  }
+}
+
+// End DateIntervals.java
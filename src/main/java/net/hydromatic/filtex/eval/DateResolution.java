@@ -0,0 +1,75 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+import java.time.Instant;
+import java.util.Objects;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Result of resolving a date filter at a particular time: the intervals
+ * that the filter matches, and the instant at which they next change.
+ *
+ * <p>Between the time of resolution and {@link #expiry}, the filter is
+ * effectively a constant; a caller may use the same intervals for every
+ * query, and may cache results that depend on them until the expiry.
+ *
+ * @see DateResolver#resolveWithExpiry(net.hydromatic.filtex.ast.AstNode)
+ */
+public class DateResolution {
+  /** Intervals that the filter matches. */
+  public final DateIntervals intervals;
+
+  /** Instant, in milliseconds since the epoch, at which the intervals next
+   * change, or {@link Long#MAX_VALUE} if they never change. */
+  public final long expiry;
+
+  DateResolution(DateIntervals intervals, long expiry) {
+    this.intervals = requireNonNull(intervals);
+    this.expiry = expiry;
+  }
+
+  /** Returns whether the filter does not depend on the current time. */
+  public boolean isConstant() {
+    return expiry == Long.MAX_VALUE;
+  }
+
+  /** Returns whether the intervals are still valid at a given instant, in
+   * milliseconds since the epoch. */
+  public boolean isValidAt(long millis) {
+    return millis < expiry;
+  }
+
+  @Override public int hashCode() {
+    return Objects.hash(intervals, expiry);
+  }
+
+  @Override public boolean equals(Object o) {
+    return o == this
+        || o instanceof DateResolution
+        && intervals.equals(((DateResolution) o).intervals)
+        && expiry == ((DateResolution) o).expiry;
+  }
+
+  @Override public String toString() {
+    return intervals + " until "
+        + (isConstant() ? "forever" : Instant.ofEpochMilli(expiry));
+  }
+}
+
+// End DateResolution.java
@@ -0,0 +1,118 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.util.Pair;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.time.ZoneId;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Cache of resolved date filters, each of which expires at the instant its
+ * resolution next changes.
+ *
+ * <p>A relative filter such as "{@code last 7 days}" or
+ * "{@code this month}" resolves to the same intervals until the next day or
+ * month starts; {@link DateResolver#resolveWithExpiry(AstNode)} says when
+ * that is. This cache keeps each {@link DateResolution} until the resolver's
+ * clock reaches its expiry, and then resolves the filter again. A filter
+ * that does not depend on the current time, such as "{@code 2018/05}", is
+ * resolved once.
+ *
+ * <p>Entries are keyed by time zone and tree. Trees are compared by
+ * identity, so the cache is most effective when trees come from a
+ * {@link net.hydromatic.filtex.ParseCache}.
+ *
+ * <p>A cache is safe for use by concurrent threads. For example,
+ * <pre>{@code
+ * DateResolutionCache cache =
+ *     DateResolutionCache.of(new DateResolver(clock, zone), 10_000);
+ * DateIntervals intervals = cache.resolve(node).intervals;
+ * }</pre>
+ */
+public class DateResolutionCache {
+  private final DateResolver resolver;
+  private final Cache<Pair<ZoneId, AstNode>, DateResolution> cache;
+
+  private DateResolutionCache(DateResolver resolver,
+      CacheBuilder<? super Pair<ZoneId, AstNode>, ? super DateResolution>
+          builder) {
+    this.resolver = requireNonNull(resolver);
+    this.cache = builder.recordStats().build();
+  }
+
+  /** Creates a cache that holds at most {@code maximumSize} resolutions,
+   * computed by a given resolver. */
+  public static DateResolutionCache of(DateResolver resolver,
+      long maximumSize) {
+    return new DateResolutionCache(resolver,
+        CacheBuilder.newBuilder().maximumSize(maximumSize));
+  }
+
+  /** Returns the resolution of a date filter in the resolver's time
+   * zone. */
+  public DateResolution resolve(AstNode node) {
+    return resolve(resolver.zone(), node);
+  }
+
+  /** Returns the resolution of a date filter in a given time zone, resolving
+   * it if it is not in the cache or has expired. */
+  public DateResolution resolve(ZoneId zone, AstNode node) {
+    final Pair<ZoneId, AstNode> key = Pair.of(zone, node);
+    final DateResolution resolution = cache.getIfPresent(key);
+    if (resolution != null
+        && resolution.isValidAt(resolver.clock().millis())) {
+      return resolution;
+    }
+    final DateResolution newResolution =
+        resolver.withZone(zone).resolveWithExpiry(node);
+    final ConcurrentMap<Pair<ZoneId, AstNode>, DateResolution> map =
+        cache.asMap();
+    if (resolution == null) {
+      map.putIfAbsent(key, newResolution);
+    } else {
+      map.replace(key, resolution, newResolution);
+    }
+    return newResolution;
+  }
+
+  /** Returns the number of entries currently in the cache, including any
+   * that have expired but have not been resolved again. */
+  public long size() {
+    return cache.size();
+  }
+
+  /** Returns statistics about the cache: hit and miss counts (a hit may
+   * find an expired entry), and eviction count. */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  /** Removes all entries from the cache. Does not reset statistics. */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+}
+
+// End DateResolutionCache.java
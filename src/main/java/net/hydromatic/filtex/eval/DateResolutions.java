@@ -0,0 +1,132 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+import java.util.Arrays;
+
+/**
+ * Resolutions of a date filter as of each of an array of instants, stored
+ * in primitive arrays.
+ *
+ * <p>Consecutive instants that resolve to the same intervals share a
+ * resolution. Instant {@code i} uses resolution {@code r = index[i]}, whose
+ * intervals are {@code [starts[j], ends[j])} for {@code j} from
+ * {@code offsets[r]} (inclusive) to {@code offsets[r + 1]} (exclusive). The
+ * intervals of a resolution are sorted and disjoint, as in
+ * {@link DateIntervals}.
+ *
+ * <p>The arrays are exposed for speed, and must not be modified.
+ *
+ * @see DateResolver#resolveBatch(net.hydromatic.filtex.ast.AstNode, long[])
+ */
+public class DateResolutions {
+  /** Resolution used by each instant. */
+  public final int[] index;
+
+  /** Offset in {@link #starts} and {@link #ends} of the first interval of
+   * each resolution, and a sentinel. */
+  public final int[] offsets;
+
+  /** Start of each interval, in milliseconds since the epoch, inclusive. */
+  public final long[] starts;
+
+  /** End of each interval, in milliseconds since the epoch, exclusive. */
+  public final long[] ends;
+
+  /** Whether the filter matches null values. */
+  public final boolean containsNull;
+
+  private DateResolutions(int[] index, int[] offsets, long[] starts,
+      long[] ends, boolean containsNull) {
+    this.index = index;
+    this.offsets = offsets;
+    this.starts = starts;
+    this.ends = ends;
+    this.containsNull = containsNull;
+  }
+
+  /** Returns the number of instants. */
+  public int size() {
+    return index.length;
+  }
+
+  /** Returns the number of distinct resolutions. */
+  public int resolutionCount() {
+    return offsets.length - 1;
+  }
+
+  /** Returns the intervals that the filter matches as of instant
+   * {@code i}. */
+  public DateIntervals intervals(int i) {
+    final int r = index[i];
+    return DateIntervals.of(
+            Arrays.copyOfRange(starts, offsets[r], offsets[r + 1]),
+            Arrays.copyOfRange(ends, offsets[r], offsets[r + 1]))
+        .withNull(containsNull);
+  }
+
+  /** Builds a {@link DateResolutions}. */
+  static class Builder {
+    private final int[] index;
+    private final boolean containsNull;
+    private int instantCount;
+    private int[] offsets = new int[8];
+    private int resolutionCount;
+    private long[] starts = new long[8];
+    private long[] ends = new long[8];
+    private int intervalCount;
+
+    Builder(int instantCount, boolean containsNull) {
+      this.index = new int[instantCount];
+      this.containsNull = containsNull;
+    }
+
+    /** Adds a resolution, and uses it for the next instant. */
+    void add(DateIntervals intervals) {
+      if (resolutionCount + 2 > offsets.length) {
+        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+      }
+      final int n = intervals.size();
+      if (intervalCount + n > starts.length) {
+        final int capacity = Math.max(starts.length * 2, intervalCount + n);
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+      }
+      for (int i = 0; i < n; i++) {
+        starts[intervalCount] = intervals.start(i);
+        ends[intervalCount] = intervals.end(i);
+        ++intervalCount;
+      }
+      offsets[++resolutionCount] = intervalCount;
+      index[instantCount++] = resolutionCount - 1;
+    }
+
+    /** Uses the previous resolution for the next instant. */
+    void reuse() {
+      index[instantCount++] = resolutionCount - 1;
+    }
+
+    DateResolutions build() {
+      return new DateResolutions(index,
+          Arrays.copyOf(offsets, resolutionCount + 1),
+          Arrays.copyOf(starts, intervalCount),
+          Arrays.copyOf(ends, intervalCount), containsNull);
+    }
+  }
+}
+
+// End DateResolutions.java
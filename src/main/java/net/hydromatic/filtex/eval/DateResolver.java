@@ -0,0 +1,722 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+import net.hydromatic.filtex.ast.Ast;
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.ast.Date;
+import net.hydromatic.filtex.ast.Datetime;
+import net.hydromatic.filtex.ast.DatetimeUnit;
+import net.hydromatic.filtex.ast.Op;
+
+import com.google.common.collect.ImmutableList;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Resolves date filters to sets of instants.
+ *
+ * <p>Many date filters, such as "{@code this week}" or
+ * "{@code 3 days ago}", are relative to the current time. The resolver
+ * reads the current time from a {@link Clock}, and does calendar arithmetic
+ * in a {@link ZoneId}; both are given when the resolver is created, so
+ * that results are reproducible. The result is a {@link DateIntervals}: a
+ * list of half-open intervals {@code [start, end)} of epoch milliseconds.
+ * Testing whether a row matches is then a binary search, with no calendar
+ * arithmetic.
+ *
+ * <p>Rules:
+ *
+ * <ul>
+ * <li>A unit of time, such as "{@code this month}", starts at the start of
+ *   the unit that contains the current time, and ends at the start of the
+ *   next unit. Weeks start on Monday. Fiscal years and quarters are given
+ *   by a {@link FiscalCalendar}; by default, they are calendar years and
+ *   quarters.
+ * <li>"{@code 3 days}" (and "{@code last 3 days}") is the current day and
+ *   the previous 2 days; "{@code 3 days ago for 3 days}" is the 3 complete
+ *   days before the current day.
+ * <li>"{@code 3 days ago}" and "{@code 3 days from now}" are a single day.
+ * <li>"{@code before X}" is every instant before the start of X;
+ *   "{@code after X}" is every instant at or after the start of X.
+ * <li>"{@code 2018/05/10 to 2018/05/13}" does not include its end.
+ * <li>A date literal, such as "{@code 2018}", "{@code 2018-Q2}",
+ *   "{@code 2018/05}" or "{@code 2018/05/10}", is the year, quarter, month
+ *   or day; a date-time literal is the minute, or the second if it has
+ *   seconds.
+ * <li>Days and larger units are calendar units, so a day may be 23 or 25
+ *   hours long when daylight saving time starts or ends. Hours, minutes
+ *   and seconds are elapsed time.
+ * </ul>
+ *
+ * <p>Calendar arithmetic for days and larger units is integer arithmetic
+ * on days since the epoch (see {@link EpochDays} and
+ * {@link FiscalCalendar}); the only use of the time zone's rules is to find
+ * the offset of the current time, and the instants at which days start.
+ * To resolve filters for many zones, create one resolver and call
+ * {@link #withZone(ZoneId)} or {@link #resolveAll(AstNode, List)}; give it
+ * a {@link BoundaryCache} to remember when days start in each zone.
+ *
+ * <p>A comma list is the union of its terms. Day-of-week terms, such as
+ * "{@code monday}", match a day in every week and cannot be resolved to a
+ * finite list of intervals; to evaluate them against days, use
+ * {@link DateCompiler#compileEpochDay(AstNode, DateResolver)}.
+ */
+public class DateResolver {
+  private static final long MILLIS_PER_SECOND = 1_000L;
+  private static final long SECONDS_PER_DAY = 86_400L;
+
+  private final Clock clock;
+  private final ZoneId zone;
+  private final FiscalCalendar fiscalCalendar;
+  private final @Nullable BoundaryCache cache;
+  private final BoundaryCache.@Nullable ZoneBoundaries boundaries;
+
+  /** Creates a DateResolver whose fiscal years are calendar years. */
+  public DateResolver(Clock clock, ZoneId zone) {
+    this(clock, zone, FiscalCalendar.DEFAULT);
+  }
+
+  /** Creates a DateResolver with a given fiscal calendar. */
+  public DateResolver(Clock clock, ZoneId zone,
+      FiscalCalendar fiscalCalendar) {
+    this(clock, zone, fiscalCalendar, null);
+  }
+
+  private DateResolver(Clock clock, ZoneId zone,
+      FiscalCalendar fiscalCalendar, @Nullable BoundaryCache cache) {
+    this.clock = requireNonNull(clock);
+    this.zone = requireNonNull(zone);
+    this.fiscalCalendar = requireNonNull(fiscalCalendar);
+    this.cache = cache;
+    this.boundaries = cache == null ? null : cache.boundaries(zone);
+  }
+
+  /** Returns a resolver that is the same as this but for a given time
+   * zone. */
+  public DateResolver withZone(ZoneId zone) {
+    return zone.equals(this.zone) ? this
+        : new DateResolver(clock, zone, fiscalCalendar, cache);
+  }
+
+  /** Returns a resolver that is the same as this but uses a given cache of
+   * day boundaries. */
+  public DateResolver withCache(BoundaryCache cache) {
+    return cache == this.cache ? this
+        : new DateResolver(clock, zone, fiscalCalendar, cache);
+  }
+
+  /** Returns the clock that gives the current time. */
+  public Clock clock() {
+    return clock;
+  }
+
+  /** Returns the time zone in which this resolver does calendar
+   * arithmetic. */
+  public ZoneId zone() {
+    return zone;
+  }
+
+  /** Returns the fiscal calendar. */
+  public FiscalCalendar fiscalCalendar() {
+    return fiscalCalendar;
+  }
+
+  /** Returns the current day in this resolver's time zone, as days since
+   * 1970-01-01. */
+  public long today() {
+    return epochDay(clock.instant());
+  }
+
+  /** Resolves a date filter. */
+  public DateIntervals resolve(AstNode node) {
+    return resolve(node, NumberCompiler.terms(node), clock.instant());
+  }
+
+  /** Resolves a date filter in each of a list of time zones, at the same
+   * instant.
+   *
+   * <p>The result is the same as calling {@link #withZone(ZoneId)} and
+   * {@link #resolve(AstNode)} for each zone, except that the filter is
+   * analyzed once, and the clock is read once. */
+  public List<DateIntervals> resolveAll(AstNode node, List<ZoneId> zones) {
+    final List<AstNode> terms = NumberCompiler.terms(node);
+    final Instant now = clock.instant();
+    final ImmutableList.Builder<DateIntervals> list = ImmutableList.builder();
+    for (ZoneId zone : zones) {
+      list.add(withZone(zone).resolve(node, terms, now));
+    }
+    return list.build();
+  }
+
+  /** Resolves a date filter, and returns the result with the instant at
+   * which it next changes.
+   *
+   * <p>For example, at 2018-05-18 10:20 UTC, "{@code this month}" resolves
+   * to the month of May 2018, and expires at the start of June 1, when it
+   * would resolve to June; "{@code last 3 hours}" expires at 11:00; and
+   * "{@code 2018/05/10}", which does not depend on the current time, never
+   * expires. */
+  public DateResolution resolveWithExpiry(AstNode node) {
+    final List<AstNode> terms = NumberCompiler.terms(node);
+    final Now now = new Now(clock.instant());
+    long expiry = Long.MAX_VALUE;
+    for (AstNode term : terms) {
+      expiry = Math.min(expiry, boundary(now, term, 1));
+    }
+    return new DateResolution(resolve(node, terms, now), expiry);
+  }
+
+  /** Resolves a date filter as of each of an array of instants, in
+   * milliseconds since the epoch, ignoring this resolver's clock.
+   *
+   * <p>Between the start of a unit and the start of the next, a filter
+   * resolves to the same intervals (see
+   * {@link #resolveWithExpiry(AstNode)}), so an instant in the same unit as
+   * the previous instant reuses its resolution. For example, resolving
+   * "{@code 3 months ago for 2 days}" as of every hour in a year computes
+   * 12 resolutions. Instants may be in any order, but reuse is greatest if
+   * they are sorted. */
+  public DateResolutions resolveBatch(AstNode node, long[] instants) {
+    final List<AstNode> terms = NumberCompiler.terms(node);
+    final DateResolutions.Builder builder =
+        new DateResolutions.Builder(instants.length,
+            NumberCompiler.matchesNull(node));
+    long validFrom = Long.MAX_VALUE;
+    long expiry = Long.MIN_VALUE;
+    for (long instant : instants) {
+      if (instant < validFrom || instant >= expiry) {
+        final Now now = new Now(Instant.ofEpochMilli(instant));
+        validFrom = Long.MIN_VALUE;
+        expiry = Long.MAX_VALUE;
+        for (AstNode term : terms) {
+          validFrom = Math.max(validFrom, boundary(now, term, 0));
+          expiry = Math.min(expiry, boundary(now, term, 1));
+        }
+        builder.add(resolve(node, terms, now));
+      } else {
+        builder.reuse();
+      }
+    }
+    return builder.build();
+  }
+
+  private DateIntervals resolve(AstNode node, List<AstNode> terms,
+      Instant now) {
+    return resolve(node, terms, new Now(now));
+  }
+
+  private DateIntervals resolve(AstNode node, List<AstNode> terms, Now n) {
+    DateIntervals positives = DateIntervals.EMPTY;
+    DateIntervals negatives = DateIntervals.EMPTY;
+    boolean hasPositive = false;
+    for (AstNode term : terms) {
+      final DateIntervals intervals = resolveTerm(n, term);
+      if (term.is()) {
+        hasPositive = true;
+        positives = positives.union(intervals);
+      } else {
+        negatives = negatives.union(intervals);
+      }
+    }
+    if (!hasPositive) {
+      positives = DateIntervals.ALL;
+    }
+    return positives.minus(negatives)
+        .withNull(NumberCompiler.matchesNull(node));
+  }
+
+  /** Resolves a term, ignoring whether it is negated. */
+  DateIntervals resolveTerm(AstNode term) {
+    return resolveTerm(new Now(clock.instant()), term);
+  }
+
+  private DateIntervals resolveTerm(Now now, AstNode term) {
+    switch (term.op) {
+    case NULL:
+      return DateIntervals.EMPTY;
+    case NOTNULL:
+    case ANYWHERE:
+      return DateIntervals.ALL;
+
+    case PAST:
+      final Ast.Past past = (Ast.Past) term;
+      return past(now, past.value, past.unit, past.complete);
+
+    case LAST_INTERVAL:
+      final Ast.LastInterval lastInterval = (Ast.LastInterval) term;
+      return past(now, lastInterval.value, lastInterval.unit, false);
+
+    case PAST_AGO:
+    case FROM_NOW:
+      // "3 days ago", "3 days from now"
+      final Ast.Relative relative = (Ast.Relative) term;
+      final long k = signed(relative.value, term.op == Op.FROM_NOW);
+      return DateIntervals.of(now.start(relative.unit, k),
+          now.start(relative.unit, k + 1));
+
+    case RELATIVE:
+      // "3 months ago for 2 days"
+      final Ast.RelativeRange range = (Ast.RelativeRange) term;
+      final DatetimeUnit startUnit = range.startInterval.unit;
+      final long startK = signed(range.startInterval.value, range.fromNow);
+      final DatetimeUnit endUnit = range.endInterval.unit;
+      final long endN = range.endInterval.value.longValueExact();
+      if (isCalendarUnit(startUnit) && isCalendarUnit(endUnit)) {
+        final long startDay = now.startDay(startUnit, startK);
+        return DateIntervals.of(dayStart(startDay),
+            dayStart(plus(startDay, endN, endUnit)));
+      }
+      final ZonedDateTime rangeStart =
+          Instant.ofEpochMilli(now.start(startUnit, startK)).atZone(zone);
+      return interval(rangeStart, plus(rangeStart, endN, endUnit));
+
+    case THIS:
+    case NEXT:
+    case LAST:
+    case BEFORE_THIS:
+    case BEFORE_NEXT:
+    case BEFORE_LAST:
+    case AFTER_THIS:
+    case AFTER_NEXT:
+    case AFTER_LAST:
+      return thisUnit(now, (Ast.ThisUnit) term);
+
+    case THIS_RANGE:
+      // "this year to day"
+      final Ast.ThisRange thisRange = (Ast.ThisRange) term;
+      return DateIntervals.of(now.start(thisRange.startInterval, 0),
+          now.start(thisRange.endInterval, 1));
+
+    case BEFORE:
+    case AFTER:
+      if (term instanceof Ast.RelativeUnit) {
+        // "before 3 days ago", "after 2 weeks from now"
+        final Ast.RelativeUnit relativeUnit = (Ast.RelativeUnit) term;
+        return beforeAfter(term.op == Op.BEFORE,
+            now.start(relativeUnit.unit,
+                signed(relativeUnit.value, relativeUnit.fromNow)));
+      }
+      // "before 2018/05/10", "after 2018/05/10 12:00"
+      final Ast.Absolute absolute = (Ast.Absolute) term;
+      return beforeAfter(term.op == Op.BEFORE, millis(at(absolute.date)));
+
+    case RANGE:
+      // "2018/05/10 to 2018/05/13"
+      final Ast.Range dateRange = (Ast.Range) term;
+      return interval(at(dateRange.start), at(dateRange.end));
+
+    case RANGE_INTERVAL:
+      // "2018/05/10 for 3 days"
+      final Ast.RangeInterval rangeInterval = (Ast.RangeInterval) term;
+      final ZonedDateTime intervalStart = at(rangeInterval.start);
+      return interval(intervalStart,
+          plus(intervalStart, rangeInterval.end.value.longValueExact(),
+              rangeInterval.end.unit));
+
+    case MONTH_INTERVAL:
+      // "2018/05 for 3 months"
+      final Ast.MonthInterval monthInterval = (Ast.MonthInterval) term;
+      final ZonedDateTime monthStart =
+          LocalDate.of(monthInterval.year, monthInterval.month, 1)
+              .atStartOfDay(zone);
+      return interval(monthStart,
+          plus(monthStart, monthInterval.end.value.longValueExact(),
+              monthInterval.end.unit));
+
+    case YEAR:
+    case FISCAL_YEAR:
+    case QUARTER:
+    case FISCAL_QUARTER:
+    case MONTH:
+    case ON:
+      return dateLiteral((Ast.DateLiteral) term);
+
+    case DAY:
+      return day(now, (Ast.DayLiteral) term);
+
+    default:
+      throw new IllegalArgumentException("cannot resolve date term: "
+          + term.op);
+    }
+  }
+
+  /** Returns the instant, in milliseconds since the epoch, at which the
+   * resolution of a term last changed (if {@code k} is 0) or next changes
+   * (if {@code k} is 1). For a term that does not depend on the current
+   * time, returns {@link Long#MIN_VALUE} or {@link Long#MAX_VALUE}.
+   *
+   * <p>A term that depends on the current time depends on it only via the
+   * start of the current unit (or units, for "this year to day"), so its
+   * resolution is the same from the start of the unit to the start of the
+   * next unit. */
+  private static long boundary(Now now, AstNode term, int k) {
+    switch (term.op) {
+    case PAST:
+      return now.start(((Ast.Past) term).unit, k);
+    case LAST_INTERVAL:
+      return now.start(((Ast.LastInterval) term).unit, k);
+    case PAST_AGO:
+    case FROM_NOW:
+      return now.start(((Ast.Relative) term).unit, k);
+    case RELATIVE:
+      return now.start(((Ast.RelativeRange) term).startInterval.unit, k);
+    case THIS:
+    case NEXT:
+    case LAST:
+    case BEFORE_THIS:
+    case BEFORE_NEXT:
+    case BEFORE_LAST:
+    case AFTER_THIS:
+    case AFTER_NEXT:
+    case AFTER_LAST:
+      return now.start(((Ast.ThisUnit) term).unit, k);
+    case THIS_RANGE:
+      final Ast.ThisRange thisRange = (Ast.ThisRange) term;
+      final long b0 = now.start(thisRange.startInterval, k);
+      final long b1 = now.start(thisRange.endInterval, k);
+      return k == 0 ? Math.max(b0, b1) : Math.min(b0, b1);
+    case BEFORE:
+    case AFTER:
+      if (term instanceof Ast.RelativeUnit) {
+        return now.start(((Ast.RelativeUnit) term).unit, k);
+      }
+      return k == 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+    case DAY:
+      return now.start(DatetimeUnit.DAY, k);
+    default:
+      return k == 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+    }
+  }
+
+  /** Resolves "3 days" (or "3 complete days" if {@code complete}). */
+  private static DateIntervals past(Now now, BigDecimal value,
+      DatetimeUnit unit, boolean complete) {
+    final long n = value.longValueExact();
+    return complete
+        ? DateIntervals.of(now.start(unit, -n), now.start(unit, 0))
+        : DateIntervals.of(now.start(unit, 1 - n), now.start(unit, 1));
+  }
+
+  /** Resolves "this week", "next month", "before last year", etc. */
+  private static DateIntervals thisUnit(Now now, Ast.ThisUnit thisUnit) {
+    final DatetimeUnit unit = thisUnit.unit;
+    switch (thisUnit.op) {
+    case THIS:
+      return DateIntervals.of(now.start(unit, 0), now.start(unit, 1));
+    case NEXT:
+      return DateIntervals.of(now.start(unit, 1), now.start(unit, 2));
+    case LAST:
+      return DateIntervals.of(now.start(unit, -1), now.start(unit, 0));
+    case BEFORE_THIS:
+      return beforeAfter(true, now.start(unit, 0));
+    case BEFORE_NEXT:
+      return beforeAfter(true, now.start(unit, 1));
+    case BEFORE_LAST:
+      return beforeAfter(true, now.start(unit, -1));
+    case AFTER_THIS:
+      return beforeAfter(false, now.start(unit, 0));
+    case AFTER_NEXT:
+      return beforeAfter(false, now.start(unit, 1));
+    case AFTER_LAST:
+      return beforeAfter(false, now.start(unit, -1));
+    default:
+      throw new AssertionError(thisUnit.op);
+    }
+  }
+
+  /** Resolves a year, quarter, month, day or date-time literal. */
+  private DateIntervals dateLiteral(Ast.DateLiteral literal) {
+    switch (literal.op) {
+    case YEAR:
+      return days(EpochDays.daysFromCivil(literal.year, 1, 1),
+          DatetimeUnit.YEAR);
+    case FISCAL_YEAR:
+      return days(fiscalCalendar.yearStart(literal.year),
+          DatetimeUnit.FISCAL_YEAR);
+    case FISCAL_QUARTER:
+      return days(
+          fiscalCalendar.quarterStart(literal.year,
+              requireNonNull(literal.quarter)),
+          DatetimeUnit.FISCAL_QUARTER);
+    case QUARTER:
+      final int quarter = requireNonNull(literal.quarter);
+      return days(EpochDays.daysFromCivil(literal.year, quarter * 3 - 2, 1),
+          DatetimeUnit.QUARTER);
+    case MONTH:
+      return days(
+          EpochDays.daysFromCivil(literal.year,
+              requireNonNull(literal.month), 1),
+          DatetimeUnit.MONTH);
+    case ON:
+      final LocalDate date =
+          LocalDate.of(literal.year, requireNonNull(literal.month),
+              requireNonNull(literal.day));
+      if (literal.hour == null) {
+        return days(date.toEpochDay(), DatetimeUnit.DAY);
+      }
+      final int minute = literal.minute == null ? 0 : literal.minute;
+      final ZonedDateTime start =
+          date.atTime(literal.hour, minute,
+                  literal.second == null ? 0 : literal.second)
+              .atZone(zone);
+      return interval(start,
+          plus(start, 1,
+              literal.second == null
+                  ? DatetimeUnit.MINUTE : DatetimeUnit.SECOND));
+    default:
+      throw new AssertionError(literal.op);
+    }
+  }
+
+  /** Resolves "today", "yesterday" and "tomorrow". */
+  private DateIntervals day(Now now, Ast.DayLiteral day) {
+    switch (day.day) {
+    case "today":
+      return days(now.today, DatetimeUnit.DAY);
+    case "yesterday":
+      return days(now.today - 1, DatetimeUnit.DAY);
+    case "tomorrow":
+      return days(now.today + 1, DatetimeUnit.DAY);
+    default:
+      throw new IllegalArgumentException("cannot resolve day of week '"
+          + day.day + "' to intervals");
+    }
+  }
+
+  /** Returns the interval from the start of a day to one unit later. */
+  private DateIntervals days(long epochDay, DatetimeUnit unit) {
+    return DateIntervals.of(dayStart(epochDay),
+        dayStart(plus(epochDay, 1, unit)));
+  }
+
+  /** Converts a date or date-time to an instant in this resolver's time
+   * zone. */
+  private ZonedDateTime at(Date date) {
+    if (date instanceof Datetime) {
+      final Datetime datetime = (Datetime) date;
+      return LocalDateTime.of(datetime.year, datetime.month, datetime.day,
+              datetime.hour, datetime.minute,
+              datetime.second == null ? 0 : datetime.second)
+          .atZone(zone);
+    }
+    return LocalDate.of(date.year, date.month, date.day).atStartOfDay(zone);
+  }
+
+  private static long signed(BigDecimal value, boolean fromNow) {
+    final long n = value.longValueExact();
+    return fromNow ? n : -n;
+  }
+
+  /** Returns whether a unit is a whole number of days, and therefore is
+   * calendar arithmetic on days; hours, minutes and seconds are elapsed
+   * time. */
+  private static boolean isCalendarUnit(DatetimeUnit unit) {
+    switch (unit) {
+    case HOUR:
+    case MINUTE:
+    case SECOND:
+      return false;
+    default:
+      return true;
+    }
+  }
+
+  /** Returns the day, in this resolver's time zone, that contains an
+   * instant. */
+  private long epochDay(Instant instant) {
+    final long offset =
+        zone.getRules().getOffset(instant).getTotalSeconds();
+    return Math.floorDiv(instant.getEpochSecond() + offset, SECONDS_PER_DAY);
+  }
+
+  /** Returns the instant, in milliseconds since the epoch, at which a day
+   * starts in this resolver's time zone. */
+  private long dayStart(long epochDay) {
+    return boundaries != null ? boundaries.start(epochDay)
+        : BoundaryCache.dayStart(zone, epochDay);
+  }
+
+  /** Returns the first day of the calendar unit that contains a day. */
+  long truncate(long epochDay, DatetimeUnit unit) {
+    switch (unit) {
+    case DAY:
+      return epochDay;
+    case WEEK:
+      return epochDay - EpochDays.dayOfWeek(epochDay) + 1;
+    case MONTH:
+      return EpochDays.firstDayOfMonth(EpochDays.epochMonth(epochDay));
+    case QUARTER:
+      return EpochDays.firstDayOfMonth(EpochDays.epochQuarter(epochDay) * 3);
+    case YEAR:
+      return EpochDays.daysFromCivil(EpochDays.year(epochDay), 1, 1);
+    case FISCAL_QUARTER:
+      return fiscalCalendar.quarterStart(
+          fiscalCalendar.epochQuarter(epochDay));
+    case FISCAL_YEAR:
+      return fiscalCalendar.yearStart(fiscalCalendar.year(epochDay));
+    default:
+      throw new AssertionError(unit);
+    }
+  }
+
+  /** Adds a number of calendar units to a day. As in
+   * {@link LocalDate#plusMonths(long)}, if the day of the month (or of the
+   * fiscal period) does not exist, the result is the last day of the
+   * month. */
+  long plus(long epochDay, long n, DatetimeUnit unit) {
+    switch (unit) {
+    case DAY:
+      return epochDay + n;
+    case WEEK:
+      return epochDay + n * 7;
+    case MONTH:
+      return plusMonths(epochDay, n);
+    case QUARTER:
+      return plusMonths(epochDay, n * 3);
+    case YEAR:
+      return plusMonths(epochDay, n * 12);
+    case FISCAL_QUARTER:
+    case FISCAL_YEAR:
+      return plusFiscal(epochDay, n, unit == DatetimeUnit.FISCAL_QUARTER);
+    default:
+      throw new AssertionError(unit);
+    }
+  }
+
+  private static long plusMonths(long epochDay, long n) {
+    final long month = EpochDays.epochMonth(epochDay);
+    final long first = EpochDays.firstDayOfMonth(month + n);
+    final long next = EpochDays.firstDayOfMonth(month + n + 1);
+    return Math.min(
+        first + epochDay - EpochDays.firstDayOfMonth(month), next - 1);
+  }
+
+  /** Adds a number of fiscal quarters or years to a day. The result is the
+   * same number of days after the start of its period, or the last day of
+   * the period if it is shorter. */
+  private long plusFiscal(long epochDay, long n, boolean quarter) {
+    final long period;
+    final long start;
+    final long newStart;
+    final long newEnd;
+    if (quarter) {
+      period = fiscalCalendar.epochQuarter(epochDay);
+      start = fiscalCalendar.quarterStart(period);
+      newStart = fiscalCalendar.quarterStart(period + n);
+      newEnd = fiscalCalendar.quarterStart(period + n + 1);
+    } else {
+      period = fiscalCalendar.year(epochDay);
+      start = fiscalCalendar.yearStart((int) period);
+      newStart = fiscalCalendar.yearStart(Math.toIntExact(period + n));
+      newEnd = fiscalCalendar.yearStart(Math.toIntExact(period + n + 1));
+    }
+    return Math.min(newStart + epochDay - start, newEnd - 1);
+  }
+
+  /** Adds a number of units to a time. Days and larger units are added to
+   * the local date, keeping the time of day; if the time is the start of a
+   * day, the result is the start of the resulting day. Hours, minutes and
+   * seconds are added to the instant. */
+  private ZonedDateTime plus(ZonedDateTime t, long n, DatetimeUnit unit) {
+    switch (unit) {
+    case SECOND:
+      return t.plusSeconds(n);
+    case MINUTE:
+      return t.plusMinutes(n);
+    case HOUR:
+      return t.plusHours(n);
+    default:
+      final long day = t.toLocalDate().toEpochDay();
+      final long newDay = plus(day, n, unit);
+      if (millis(t) == dayStart(day)) {
+        return Instant.ofEpochMilli(dayStart(newDay)).atZone(zone);
+      }
+      return ZonedDateTime.ofLocal(
+          t.toLocalDateTime().with(LocalDate.ofEpochDay(newDay)), zone,
+          t.getOffset());
+    }
+  }
+
+  private static DateIntervals interval(ZonedDateTime start,
+      ZonedDateTime end) {
+    return DateIntervals.of(millis(start), millis(end));
+  }
+
+  /** Returns all instants before a time, or all instants at or after it. */
+  private static DateIntervals beforeAfter(boolean before, long millis) {
+    return before
+        ? DateIntervals.of(Long.MIN_VALUE, millis)
+        : DateIntervals.of(millis, Long.MAX_VALUE);
+  }
+
+  private static long millis(ZonedDateTime t) {
+    return t.toInstant().toEpochMilli();
+  }
+
+  /** The current time, in this resolver's time zone. */
+  private class Now {
+    final Instant instant;
+    /** Current day. */
+    final long today;
+
+    Now(Instant instant) {
+      this.instant = instant;
+      this.today = epochDay(instant);
+    }
+
+    /** Returns the first day of the unit that is {@code k} units after the
+     * unit that contains the current day; the unit is a calendar unit. */
+    long startDay(DatetimeUnit unit, long k) {
+      final long first = truncate(today, unit);
+      return k == 0 ? first : plus(first, k, unit);
+    }
+
+    /** Returns the instant, in milliseconds since the epoch, at which the
+     * unit that is {@code k} units after the current unit starts. */
+    long start(DatetimeUnit unit, long k) {
+      if (isCalendarUnit(unit)) {
+        return dayStart(startDay(unit, k));
+      }
+      final ZonedDateTime t = instant.atZone(zone);
+      switch (unit) {
+      case HOUR:
+        return millis(t.truncatedTo(ChronoUnit.HOURS).plusHours(k));
+      case MINUTE:
+        return millis(t.truncatedTo(ChronoUnit.MINUTES).plusMinutes(k));
+      case SECOND:
+        return millis(t.truncatedTo(ChronoUnit.SECONDS).plusSeconds(k));
+      default:
+        throw new AssertionError(unit);
+      }
+    }
+  }
+}
+
+// End DateResolver.java
@@ -0,0 +1,125 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+/**
+ * Calendar fields of days since the epoch, computed by integer arithmetic.
+ *
+ * <p>A day is represented as the number of days since 1970-01-01, as in
+ * {@link java.time.LocalDate#toEpochDay()}, in the proleptic Gregorian
+ * calendar. The methods give the same results as {@code LocalDate} but do
+ * not allocate, and are cheap enough to call for every row of a column.
+ *
+ * <p>The conversion from days to year, month and day is the
+ * "civil from days" algorithm of Howard Hinnant. It shifts the start of
+ * the year to March 1, so that the leap day is the last day of the year,
+ * and the lengths of the months March to January repeat with period 5.
+ */
+public class EpochDays {
+  /** Days from 0000-03-01 to 1970-01-01. */
+  private static final long EPOCH_SHIFT = 719_468L;
+
+  /** Days in a 400-year era. */
+  private static final long DAYS_PER_ERA = 146_097L;
+
+  private EpochDays() {
+  }
+
+  /** Returns the ISO day of the week, 1 (Monday) to 7 (Sunday).
+   * 1970-01-01 was a Thursday. */
+  public static int dayOfWeek(long epochDay) {
+    return (int) Math.floorMod(epochDay + 3, 7L) + 1;
+  }
+
+  /** Returns the number of weeks since the week that contains 1970-01-01;
+   * weeks start on Monday. */
+  public static long epochWeek(long epochDay) {
+    return Math.floorDiv(epochDay + 3, 7L);
+  }
+
+  /** Returns the number of months since January 1970; for example,
+   * 0 for 1970-01-15, -1 for 1969-12-31, 12 for 1971-01-01. */
+  public static long epochMonth(long epochDay) {
+    final long civil = civil(epochDay);
+    return (civil >> 9) * 12 + ((civil >> 5) & 15) - 1 - 1970 * 12;
+  }
+
+  /** Returns the number of quarters since the first quarter of 1970. */
+  public static long epochQuarter(long epochDay) {
+    return Math.floorDiv(epochMonth(epochDay), 3L);
+  }
+
+  /** Returns the year. */
+  public static int year(long epochDay) {
+    return (int) (civil(epochDay) >> 9);
+  }
+
+  /** Returns the month of the year, 1 to 12. */
+  public static int month(long epochDay) {
+    return (int) (civil(epochDay) >> 5) & 15;
+  }
+
+  /** Returns the day of the month, 1 to 31. */
+  public static int dayOfMonth(long epochDay) {
+    return (int) civil(epochDay) & 31;
+  }
+
+  /** Returns the quarter of the year, 1 to 4. */
+  public static int quarter(long epochDay) {
+    return (month(epochDay) + 2) / 3;
+  }
+
+  /** Returns the first day of the month that is {@code epochMonth} months
+   * after January 1970; the inverse of {@link #epochMonth(long)}. */
+  public static long firstDayOfMonth(long epochMonth) {
+    final long year = Math.floorDiv(epochMonth, 12L) + 1970;
+    final int month = (int) Math.floorMod(epochMonth, 12L) + 1;
+    return daysFromCivil(year, month, 1);
+  }
+
+  /** Returns the number of days since the epoch of a date. */
+  public static long daysFromCivil(long year, int month, int day) {
+    final long y = month <= 2 ? year - 1 : year;
+    final long era = Math.floorDiv(y, 400L);
+    final long yearOfEra = y - era * 400; // [0, 399]
+    final int shiftedMonth = month > 2 ? month - 3 : month + 9; // March is 0
+    final long dayOfYear = (153 * shiftedMonth + 2) / 5 + day - 1;
+    final long dayOfEra =
+        yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * DAYS_PER_ERA + dayOfEra - EPOCH_SHIFT;
+  }
+
+  /** Converts days since the epoch to year, month and day, packed into a
+   * long as {@code year << 9 | month << 5 | day}. */
+  private static long civil(long epochDay) {
+    final long z = epochDay + EPOCH_SHIFT;
+    final long era = Math.floorDiv(z, DAYS_PER_ERA);
+    final long dayOfEra = z - era * DAYS_PER_ERA; // [0, 146096]
+    final long yearOfEra =
+        (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524
+            - dayOfEra / 146096) / 365; // [0, 399]
+    final long dayOfYear =
+        dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    final long shiftedMonth = (5 * dayOfYear + 2) / 153; // March is 0
+    final long day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+    final long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+    final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+    return year << 9 | month << 5 | day;
+  }
+}
+
+// End EpochDays.java
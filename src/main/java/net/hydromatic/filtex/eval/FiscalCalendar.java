@@ -0,0 +1,293 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+import java.time.DayOfWeek;
+import java.util.Arrays;
+import java.util.Objects;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Fiscal calendar, which says when fiscal years, quarters and periods
+ * start.
+ *
+ * <p>A fiscal year has 4 quarters, each of 3 periods (fiscal months). A
+ * fiscal year is named for the calendar year in which it starts; for
+ * example, if fiscal years start in April, fiscal year 2018 is from
+ * 2018-04-01 to 2019-03-31.
+ *
+ * <p>If the pattern is {@link Pattern#MONTHS}, periods are calendar months,
+ * and the fiscal year starts on the first day of its start month.
+ * Otherwise, as in a retail "52-53 week" calendar, periods are whole
+ * weeks: the fiscal year starts on the {@link #firstDayOfWeek()} nearest
+ * to the first day of its start month, and each quarter has 13 weeks,
+ * divided into periods of 4, 4 and 5 weeks (or 4-5-4, or 5-4-4). A year
+ * that has 53 weeks adds the extra week to its last period.
+ *
+ * <p>The first day of every period in a range of years (by default, 1900
+ * to 2100) is computed when the calendar is created, so finding the
+ * boundaries of a period in that range is an array lookup, and finding
+ * the period that contains a day is a binary search. Outside the range,
+ * boundaries are computed as needed.
+ *
+ * <p>Days are represented as the number of days since 1970-01-01, as in
+ * {@link EpochDays}. A calendar is immutable.
+ */
+public class FiscalCalendar {
+  /** Calendar whose fiscal years are calendar years. */
+  public static final FiscalCalendar DEFAULT =
+      new FiscalCalendar(1, Pattern.MONTHS, DayOfWeek.MONDAY, 1900, 2100);
+
+  private static final int PERIODS_PER_YEAR = 12;
+
+  private final int startMonth;
+  private final Pattern pattern;
+  private final DayOfWeek firstDayOfWeek;
+  private final int minYear;
+  private final int maxYear;
+
+  /** First day of each period of the years {@code [minYear, maxYear]}, and
+   * of the year after; index {@code (year - minYear) * 12 + period}. */
+  private final int[] periodStarts;
+
+  private FiscalCalendar(int startMonth, Pattern pattern,
+      DayOfWeek firstDayOfWeek, int minYear, int maxYear) {
+    checkArgument(startMonth >= 1 && startMonth <= 12,
+        "start month must be between 1 and 12");
+    checkArgument(minYear <= maxYear, "min year must not exceed max year");
+    this.startMonth = startMonth;
+    this.pattern = requireNonNull(pattern);
+    this.firstDayOfWeek = requireNonNull(firstDayOfWeek);
+    this.minYear = minYear;
+    this.maxYear = maxYear;
+    this.periodStarts =
+        new int[(maxYear - minYear + 1) * PERIODS_PER_YEAR + 1];
+    for (int year = minYear; year <= maxYear; year++) {
+      for (int period = 0; period < PERIODS_PER_YEAR; period++) {
+        periodStarts[(year - minYear) * PERIODS_PER_YEAR + period] =
+            Math.toIntExact(computePeriodStart(year, period));
+      }
+    }
+    periodStarts[periodStarts.length - 1] =
+        Math.toIntExact(computeYearStart(maxYear + 1));
+  }
+
+  /** Creates a calendar whose fiscal years start on the first day of a
+   * given month, with periods that are calendar months. */
+  public static FiscalCalendar of(int startMonth) {
+    return DEFAULT.withStartMonth(startMonth);
+  }
+
+  /** Returns a copy of this calendar with a given start month, 1 to 12. */
+  public FiscalCalendar withStartMonth(int startMonth) {
+    return startMonth == this.startMonth ? this
+        : new FiscalCalendar(startMonth, pattern, firstDayOfWeek, minYear,
+            maxYear);
+  }
+
+  /** Returns a copy of this calendar with a given pattern of periods. */
+  public FiscalCalendar withPattern(Pattern pattern) {
+    return pattern == this.pattern ? this
+        : new FiscalCalendar(startMonth, pattern, firstDayOfWeek, minYear,
+            maxYear);
+  }
+
+  /** Returns a copy of this calendar with a given first day of the week.
+   * It is used only if periods are weeks. */
+  public FiscalCalendar withFirstDayOfWeek(DayOfWeek firstDayOfWeek) {
+    return firstDayOfWeek == this.firstDayOfWeek ? this
+        : new FiscalCalendar(startMonth, pattern, firstDayOfWeek, minYear,
+            maxYear);
+  }
+
+  /** Returns a copy of this calendar that precomputes the boundaries of
+   * fiscal years {@code minYear} to {@code maxYear}, inclusive. */
+  public FiscalCalendar withYearRange(int minYear, int maxYear) {
+    return minYear == this.minYear && maxYear == this.maxYear ? this
+        : new FiscalCalendar(startMonth, pattern, firstDayOfWeek, minYear,
+            maxYear);
+  }
+
+  /** Returns the month, 1 to 12, in which fiscal years start. */
+  public int startMonth() {
+    return startMonth;
+  }
+
+  /** Returns the pattern of periods. */
+  public Pattern pattern() {
+    return pattern;
+  }
+
+  /** Returns the day of the week on which fiscal years start, if periods
+   * are weeks. */
+  public DayOfWeek firstDayOfWeek() {
+    return firstDayOfWeek;
+  }
+
+  /** Returns the first day of a fiscal year. */
+  public long yearStart(int year) {
+    return periodStart(year, 0);
+  }
+
+  /** Returns the first day of a quarter, 1 to 4, of a fiscal year. */
+  public long quarterStart(int year, int quarter) {
+    checkArgument(quarter >= 1 && quarter <= 4,
+        "quarter must be between 1 and 4");
+    return periodStart(year, (quarter - 1) * 3);
+  }
+
+  /** Returns the first day of the quarter that is {@code epochQuarter}
+   * quarters after the first quarter of fiscal year 0; the inverse of
+   * {@link #epochQuarter(long)}. */
+  public long quarterStart(long epochQuarter) {
+    return periodStart(Math.toIntExact(Math.floorDiv(epochQuarter, 4L)),
+        (int) Math.floorMod(epochQuarter, 4L) * 3);
+  }
+
+  /** Returns the first day of a period, 0 to 11, of a fiscal year. Period
+   * 12 is the first period of the next year. */
+  long periodStart(int year, int period) {
+    if (year >= minYear && year <= maxYear) {
+      return periodStarts[(year - minYear) * PERIODS_PER_YEAR + period];
+    }
+    return computePeriodStart(year, period);
+  }
+
+  /** Returns the fiscal year that contains a day. */
+  public int year(long epochDay) {
+    return (int) Math.floorDiv(epochPeriod(epochDay), PERIODS_PER_YEAR);
+  }
+
+  /** Returns the quarter, 1 to 4, of the fiscal year that contains a
+   * day. */
+  public int quarter(long epochDay) {
+    return (int) Math.floorMod(epochQuarter(epochDay), 4L) + 1;
+  }
+
+  /** Returns the number of quarters between the first quarter of fiscal
+   * year 0 and the quarter that contains a day. */
+  public long epochQuarter(long epochDay) {
+    return Math.floorDiv(epochPeriod(epochDay), 3L);
+  }
+
+  /** Returns the number of periods between the first period of fiscal year
+   * 0 and the period that contains a day. */
+  private long epochPeriod(long epochDay) {
+    if (epochDay >= periodStarts[0]
+        && epochDay < periodStarts[periodStarts.length - 1]) {
+      int i = Arrays.binarySearch(periodStarts, (int) epochDay);
+      if (i < 0) {
+        // Not the first day of a period; use the period that starts before
+        i = -(i + 1) - 1;
+      }
+      return (long) minYear * PERIODS_PER_YEAR + i;
+    }
+    // The fiscal year starts within a few days of the start month of its
+    // calendar year, so it is this calendar year or the one before.
+    final int calendarYear = EpochDays.year(epochDay);
+    int year = EpochDays.month(epochDay) >= startMonth
+        ? calendarYear : calendarYear - 1;
+    if (epochDay < computeYearStart(year)) {
+      --year;
+    } else if (epochDay >= computeYearStart(year + 1)) {
+      ++year;
+    }
+    int period = PERIODS_PER_YEAR - 1;
+    while (epochDay < computePeriodStart(year, period)) {
+      --period;
+    }
+    return (long) year * PERIODS_PER_YEAR + period;
+  }
+
+  /** Computes the first day of a fiscal year. */
+  private long computeYearStart(int year) {
+    final long first = EpochDays.daysFromCivil(year, startMonth, 1);
+    if (pattern == Pattern.MONTHS) {
+      return first;
+    }
+    // The nearest firstDayOfWeek, 3 days before to 3 days after.
+    int days = Math.floorMod(
+        firstDayOfWeek.getValue() - EpochDays.dayOfWeek(first), 7);
+    if (days > 3) {
+      days -= 7;
+    }
+    return first + days;
+  }
+
+  /** Computes the first day of a period, 0 to 12, of a fiscal year. */
+  private long computePeriodStart(int year, int period) {
+    if (period == PERIODS_PER_YEAR) {
+      return computeYearStart(year + 1);
+    }
+    if (pattern == Pattern.MONTHS) {
+      final long epochMonth = (year - 1970L) * 12 + startMonth - 1 + period;
+      return EpochDays.firstDayOfMonth(epochMonth);
+    }
+    final int quarter = period / 3;
+    int weeks = quarter * 13;
+    for (int i = 0; i < period % 3; i++) {
+      weeks += pattern.weeks[i];
+    }
+    return computeYearStart(year) + weeks * 7L;
+  }
+
+  @Override public int hashCode() {
+    return Objects.hash(startMonth, pattern, firstDayOfWeek, minYear,
+        maxYear);
+  }
+
+  @Override public boolean equals(Object o) {
+    return o == this
+        || o instanceof FiscalCalendar
+        && startMonth == ((FiscalCalendar) o).startMonth
+        && pattern == ((FiscalCalendar) o).pattern
+        && firstDayOfWeek == ((FiscalCalendar) o).firstDayOfWeek
+        && minYear == ((FiscalCalendar) o).minYear
+        && maxYear == ((FiscalCalendar) o).maxYear;
+  }
+
+  @Override public String toString() {
+    return "FiscalCalendar{startMonth=" + startMonth
+        + ", pattern=" + pattern
+        + (pattern == Pattern.MONTHS ? ""
+            : ", firstDayOfWeek=" + firstDayOfWeek)
+        + "}";
+  }
+
+  /** How a fiscal quarter is divided into periods. */
+  public enum Pattern {
+    /** Periods are calendar months. */
+    MONTHS(),
+    /** Periods of 4, 4 and 5 weeks. */
+    FOUR_FOUR_FIVE(4, 4, 5),
+    /** Periods of 4, 5 and 4 weeks. */
+    FOUR_FIVE_FOUR(4, 5, 4),
+    /** Periods of 5, 4 and 4 weeks. */
+    FIVE_FOUR_FOUR(5, 4, 4);
+
+    private final int[] weeks;
+
+    Pattern(int... weeks) {
+      this.weeks = weeks;
+    }
+  }
+}
+
+// End FiscalCalendar.java
@@ -0,0 +1,325 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.ast.Op;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Geohash encoding, and coverings of location filters by geohash cells.
+ *
+ * <p>A geohash is a string in base 32 that identifies a cell of a grid;
+ * each character divides its parent cell into 32 cells. The cells of the
+ * geohashes that start with a given prefix are exactly the sub-cells of
+ * the prefix's cell, so a store that indexes geohashes can find the
+ * locations in a cell with a prefix scan.
+ *
+ * <p>{@link #cover(AstNode, int, int)} converts a location filter to a list
+ * of geohash prefixes whose cells contain every location that the filter
+ * matches. The store answers the coarse filter with one prefix scan per
+ * cell, and the caller refines the result with the exact predicate from
+ * {@link LocationCompiler#compile(AstNode)}.
+ */
+public class Geohash {
+  private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+  /** Longest geohash supported; a cell is about 3.7 cm wide. */
+  public static final int MAX_PRECISION = 12;
+
+  private Geohash() {
+  }
+
+  /** Returns the geohash, with {@code precision} characters, of the cell
+   * that contains a location. */
+  public static String encode(double latitude, double longitude,
+      int precision) {
+    checkPrecision(precision);
+    double south = -90d;
+    double north = 90d;
+    double west = -180d;
+    double east = 180d;
+    final StringBuilder b = new StringBuilder(precision);
+    boolean even = true;
+    int bits = 0;
+    int bit = 0;
+    while (b.length() < precision) {
+      if (even) {
+        final double mid = (west + east) / 2d;
+        if (longitude >= mid) {
+          bits = bits << 1 | 1;
+          west = mid;
+        } else {
+          bits <<= 1;
+          east = mid;
+        }
+      } else {
+        final double mid = (south + north) / 2d;
+        if (latitude >= mid) {
+          bits = bits << 1 | 1;
+          south = mid;
+        } else {
+          bits <<= 1;
+          north = mid;
+        }
+      }
+      even = !even;
+      if (++bit == 5) {
+        b.append(BASE32.charAt(bits));
+        bits = 0;
+        bit = 0;
+      }
+    }
+    return b.toString();
+  }
+
+  /** Returns the cell of a geohash, as an array
+   * {@code [south, north, west, east]}. The cell of the empty geohash is
+   * the whole world. */
+  public static double[] bounds(String geohash) {
+    final double[] box = {-90d, 90d, -180d, 180d};
+    boolean even = true;
+    for (int i = 0; i < geohash.length(); i++) {
+      final int bits = BASE32.indexOf(geohash.charAt(i));
+      checkArgument(bits >= 0, "invalid geohash: %s", geohash);
+      for (int mask = 16; mask > 0; mask >>= 1) {
+        // Even bits divide longitude (elements 2 and 3 of the box), odd
+        // bits divide latitude (elements 0 and 1)
+        final int lo = even ? 2 : 0;
+        final double mid = (box[lo] + box[lo + 1]) / 2d;
+        box[(bits & mask) != 0 ? lo : lo + 1] = mid;
+        even = !even;
+      }
+    }
+    return box;
+  }
+
+  /** Returns a list of geohash prefixes whose cells contain every location
+   * that a location filter matches.
+   *
+   * <p>The covering starts with the cells of one character that intersect
+   * the filter, and divides cells, coarsest first, while the number of
+   * cells is at most {@code maxCells} and the cells have fewer than
+   * {@code precision} characters. A cell that is entirely inside the
+   * filter is not divided. So the covering is at most {@code maxCells}
+   * cells, and the area outside the filter is less than that of the
+   * boundary cells.
+   *
+   * <p>If the filter is not bounded (for example, "{@code is anywhere}"),
+   * or there are more cells of one character than {@code maxCells}, the
+   * covering is the empty prefix, which matches every location. If the
+   * filter matches no locations ("{@code NULL}"), the covering is
+   * empty. Negated terms are ignored, because a covering may contain more
+   * than the filter.
+   *
+   * @param node Location filter
+   * @param precision Maximum length of each prefix, 1 to
+   *                  {@link #MAX_PRECISION}
+   * @param maxCells Maximum number of prefixes, at least 1
+   * @return Sorted list of prefixes
+   */
+  public static List<String> cover(AstNode node, int precision,
+      int maxCells) {
+    checkPrecision(precision);
+    checkArgument(maxCells >= 1, "max cells must be at least 1");
+    final List<Shape> shapes = new ArrayList<>();
+    boolean hasPositive = false;
+    for (AstNode term : NumberCompiler.terms(node)) {
+      if (!term.is()) {
+        continue;
+      }
+      hasPositive = true;
+      if (term.op == Op.NULL) {
+        continue;
+      }
+      final LocationPredicate predicate = LocationCompiler.compile(term);
+      final List<double[]> boxes = LocationCompiler.bounds(term);
+      if (boxes == null) {
+        return ImmutableList.of("");
+      }
+      shapes.add(predicate instanceof LocationCompiler.CirclePredicate
+          ? new CircleShape((LocationCompiler.CirclePredicate) predicate,
+              boxes)
+          : new BoxShape(boxes));
+    }
+    if (!hasPositive) {
+      return ImmutableList.of("");
+    }
+
+    // Cells that are complete, and cells that may be divided
+    final List<String> done = new ArrayList<>();
+    final Deque<String> queue = new ArrayDeque<>();
+    for (int i = 0; i < BASE32.length(); i++) {
+      final String cell = String.valueOf(BASE32.charAt(i));
+      final double[] box = bounds(cell);
+      if (intersects(shapes, box)) {
+        (precision == 1 || contains(shapes, box) ? done : queue).add(cell);
+      }
+    }
+    if (done.size() + queue.size() > maxCells) {
+      return ImmutableList.of("");
+    }
+    final List<String> children = new ArrayList<>();
+    final List<String> fullChildren = new ArrayList<>();
+    while (!queue.isEmpty()) {
+      final String cell = queue.removeFirst();
+      children.clear();
+      fullChildren.clear();
+      for (int i = 0; i < BASE32.length(); i++) {
+        final String child = cell + BASE32.charAt(i);
+        final double[] box = bounds(child);
+        if (intersects(shapes, box)) {
+          (child.length() == precision || contains(shapes, box)
+              ? fullChildren : children).add(child);
+        }
+      }
+      // Replacing the cell by its children adds "size - 1" cells
+      if (done.size() + queue.size() + children.size() + fullChildren.size()
+          > maxCells) {
+        done.add(cell);
+      } else {
+        done.addAll(fullChildren);
+        queue.addAll(children);
+      }
+    }
+    return Ordering.natural().immutableSortedCopy(done);
+  }
+
+  private static void checkPrecision(int precision) {
+    checkArgument(precision >= 1 && precision <= MAX_PRECISION,
+        "precision must be between 1 and %s", MAX_PRECISION);
+  }
+
+  private static boolean intersects(List<Shape> shapes, double[] cell) {
+    for (Shape shape : shapes) {
+      if (shape.intersects(cell)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean contains(List<Shape> shapes, double[] cell) {
+    for (Shape shape : shapes) {
+      if (shape.contains(cell)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Region of a term of a location filter, compared with cells. Each cell
+   * is an array {@code [south, north, west, east]}. */
+  private interface Shape {
+    /** Returns whether the shape may have a location in common with a
+     * cell; may return true if it does not. */
+    boolean intersects(double[] cell);
+
+    /** Returns whether every location in a cell is in the shape; may
+     * return false if it is. */
+    boolean contains(double[] cell);
+  }
+
+  /** Shape that is a union of boxes. */
+  private static class BoxShape implements Shape {
+    final List<double[]> boxes;
+
+    BoxShape(List<double[]> boxes) {
+      this.boxes = boxes;
+    }
+
+    @Override public boolean intersects(double[] cell) {
+      for (double[] box : boxes) {
+        if (box[0] <= cell[1] && box[1] >= cell[0]
+            && box[2] <= cell[3] && box[3] >= cell[2]) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override public boolean contains(double[] cell) {
+      for (double[] box : boxes) {
+        if (box[0] <= cell[0] && box[1] >= cell[1]
+            && box[2] <= cell[2] && box[3] >= cell[3]) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /** Shape that is a circle.
+   *
+   * <p>The locations of a cell are within the distance from the cell's
+   * center to its farthest corner (on a sphere, the farthest point of a
+   * latitude-longitude rectangle from its center is a corner); so by the
+   * triangle inequality, the circle cannot intersect a cell whose center
+   * is more than the circle's radius plus that distance from the circle's
+   * center, and contains a cell whose center is less than the radius minus
+   * that distance. */
+  private static class CircleShape extends BoxShape {
+    /** Allowance, in meters, for rounding error. */
+    private static final double EPSILON = 1e-3d;
+
+    final LocationCompiler.CirclePredicate circle;
+
+    CircleShape(LocationCompiler.CirclePredicate circle,
+        List<double[]> boxes) {
+      super(boxes);
+      this.circle = circle;
+    }
+
+    @Override public boolean intersects(double[] cell) {
+      if (!super.intersects(cell)) {
+        return false;
+      }
+      final double[] d = distances(cell);
+      return d[0] - d[1] <= circle.meters + EPSILON;
+    }
+
+    @Override public boolean contains(double[] cell) {
+      final double[] d = distances(cell);
+      return d[0] + d[1] < circle.meters - EPSILON;
+    }
+
+    /** Returns the distance from the circle's center to the cell's center,
+     * and from the cell's center to its farthest corner. */
+    private double[] distances(double[] cell) {
+      final double lat = (cell[0] + cell[1]) / 2d;
+      final double lon = (cell[2] + cell[3]) / 2d;
+      final double toCenter =
+          LocationCompiler.distance(circle.latitude, circle.longitude, lat,
+              lon);
+      final double toCorner =
+          Math.max(LocationCompiler.distance(lat, lon, cell[0], cell[2]),
+              LocationCompiler.distance(lat, lon, cell[1], cell[2]));
+      return new double[] {toCenter, toCorner};
+    }
+  }
+}
+
+// End Geohash.java
@@ -0,0 +1,40 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+import net.hydromatic.filtex.eval.BatchEvaluator.Kernel;
+
+/**
+ * Creates kernels for the range tests that dominate numeric filters.
+ *
+ * <p>There are two implementations: {@link BatchEvaluator#SCALAR}, which
+ * works on any JDK, and {@code VectorKernels}, which uses the JDK Vector
+ * API and is in the part of the jar for JDK 17 and higher.
+ *
+ * @see BatchEvaluator#isVectorAvailable()
+ */
+interface KernelFactory {
+  /** Returns a kernel that matches longs in the closed range
+   * {@code [lo, hi]}, where {@code lo <= hi}. */
+  Kernel<long[]> longRange(long lo, long hi);
+
+  /** Returns a kernel that matches doubles in the closed range
+   * {@code [lo, hi]}, where {@code lo <= hi}. NaN never matches. */
+  Kernel<double[]> doubleRange(double lo, double hi);
+}
+
+// End KernelFactory.java
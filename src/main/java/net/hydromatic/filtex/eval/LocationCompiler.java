@@ -0,0 +1,356 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+import net.hydromatic.filtex.ast.Ast;
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.ast.Op;
+
+import com.google.common.collect.ImmutableList;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles location filter expressions to predicates.
+ *
+ * <p>The input is an AST of the LOCATION type family, as returned by
+ * {@link net.hydromatic.filtex.Filtex#parseFilterExpression}: an
+ * {@link Ast.Circle}, {@link Ast.Box}, {@link Ast.Point}, or
+ * {@link Ast.Call0}
+ * ({@link Op#ANYWHERE}, {@link Op#NULL} or {@link Op#NOTNULL}). As for
+ * numeric filters, the predicates test non-null locations; use
+ * {@link NumberCompiler#matchesNull(AstNode)} to find out whether the
+ * filter accepts null.
+ *
+ * <p>A box contains the locations whose latitude is between the latitudes
+ * of its corners, and whose longitude is east of the longitude of its
+ * {@code from} corner and west of the longitude of its {@code to} corner.
+ * If the {@code from} longitude is greater than the {@code to} longitude,
+ * the box crosses the 180° meridian; for example, the box from
+ * "{@code 10, 170}" to "{@code -10, -170}" contains longitudes from 170 to
+ * 180 and from -180 to -170.
+ *
+ * <p>Distances are great-circle distances on a sphere whose radius is the
+ * mean radius of the Earth, {@link #EARTH_RADIUS_METERS}.
+ */
+public class LocationCompiler {
+  /** Mean radius of the Earth, in meters. */
+  public static final double EARTH_RADIUS_METERS = 6_371_008.8d;
+
+  private static final LocationPredicate TRUE = (lat, lon) -> true;
+  private static final LocationPredicate FALSE = (lat, lon) -> false;
+
+  private LocationCompiler() {
+  }
+
+  /** Compiles a location filter to a predicate. */
+  public static LocationPredicate compile(AstNode node) {
+    final List<LocationPredicate> positives = new ArrayList<>();
+    final List<LocationPredicate> negatives = new ArrayList<>();
+    for (AstNode term : NumberCompiler.terms(node)) {
+      (term.is() ? positives : negatives).add(term(term));
+    }
+    final LocationPredicate any =
+        positives.isEmpty() ? TRUE : or(positives);
+    if (negatives.isEmpty()) {
+      return any;
+    }
+    final LocationPredicate none = or(negatives);
+    return (lat, lon) -> any.test(lat, lon) && !none.test(lat, lon);
+  }
+
+  /** Returns boxes, in degrees, that contain every location that a filter
+   * matches, or null if the filter may match locations anywhere.
+   *
+   * <p>Each box is an array {@code [south, north, west, east]} with
+   * {@code west <= east}; a term that crosses the 180° meridian has two
+   * boxes. A filter with no positive terms (such as
+   * "{@code NOT NULL}"), or with an {@link Op#ANYWHERE} term, is
+   * unbounded. */
+  static @Nullable List<double[]> bounds(AstNode node) {
+    final ImmutableList.Builder<double[]> boxes = ImmutableList.builder();
+    boolean hasPositive = false;
+    for (AstNode term : NumberCompiler.terms(node)) {
+      if (!term.is()) {
+        continue;
+      }
+      hasPositive = true;
+      final LocationPredicate predicate = term(term);
+      if (predicate instanceof CirclePredicate) {
+        final CirclePredicate circle = (CirclePredicate) predicate;
+        addBoxes(boxes, circle.latitude - circle.latitudeRadius,
+            circle.latitude + circle.latitudeRadius,
+            circle.longitude - circle.longitudeRadius,
+            circle.longitude + circle.longitudeRadius);
+      } else if (predicate instanceof BoxPredicate) {
+        final BoxPredicate box = (BoxPredicate) predicate;
+        boxes.add(new double[] {box.south, box.north, box.west0, box.east0});
+        if (box.west1 != box.west0) {
+          boxes.add(
+              new double[] {box.south, box.north, box.west1, box.east1});
+        }
+      } else if (term.op == Op.POINT) {
+        final Ast.Point point = (Ast.Point) term;
+        final double lat = point.location.latitude.doubleValue();
+        final double lon = point.location.longitude.doubleValue();
+        boxes.add(new double[] {lat, lat, lon, lon});
+      } else if (term.op != Op.NULL) {
+        return null;
+      }
+    }
+    return hasPositive ? boxes.build() : null;
+  }
+
+  /** Adds a box whose longitudes may be less than -180 or greater than
+   * 180, splitting it at the 180° meridian if necessary. */
+  private static void addBoxes(ImmutableList.Builder<double[]> boxes,
+      double south, double north, double west, double east) {
+    south = Math.max(south, -90d);
+    north = Math.min(north, 90d);
+    if (east - west >= 360d) {
+      boxes.add(new double[] {south, north, -180d, 180d});
+    } else if (west < -180d) {
+      boxes.add(new double[] {south, north, west + 360d, 180d});
+      boxes.add(new double[] {south, north, -180d, east});
+    } else if (east > 180d) {
+      boxes.add(new double[] {south, north, west, 180d});
+      boxes.add(new double[] {south, north, -180d, east - 360d});
+    } else {
+      boxes.add(new double[] {south, north, west, east});
+    }
+  }
+
+  /** Compiles a term, ignoring whether it is negated. */
+  private static LocationPredicate term(AstNode term) {
+    switch (term.op) {
+    case NULL:
+      return FALSE;
+    case NOTNULL:
+    case ANYWHERE:
+      return TRUE;
+    case POINT:
+      final Ast.Point point = (Ast.Point) term;
+      final double latitude = point.location.latitude.doubleValue();
+      final double longitude = point.location.longitude.doubleValue();
+      return (lat, lon) -> lat == latitude && lon == longitude;
+    case CIRCLE:
+      final Ast.Circle circle = (Ast.Circle) term;
+      return circle(circle.location.latitude.doubleValue(),
+          circle.location.longitude.doubleValue(),
+          circle.distance.doubleValue() * circle.unit.meters);
+    case BOX:
+      final Ast.Box box = (Ast.Box) term;
+      return box(box.from.latitude.doubleValue(),
+          box.from.longitude.doubleValue(), box.to.latitude.doubleValue(),
+          box.to.longitude.doubleValue());
+    default:
+      throw new IllegalArgumentException("cannot compile location term: "
+          + term.op);
+    }
+  }
+
+  private static LocationPredicate or(List<LocationPredicate> predicates) {
+    if (predicates.size() == 1) {
+      return predicates.get(0);
+    }
+    final LocationPredicate[] array =
+        predicates.toArray(new LocationPredicate[0]);
+    return (lat, lon) -> {
+      for (LocationPredicate predicate : array) {
+        if (predicate.test(lat, lon)) {
+          return true;
+        }
+      }
+      return false;
+    };
+  }
+
+  /** Returns the great-circle distance, in meters, between two
+   * locations. */
+  static double distance(double lat0, double lon0, double lat1,
+      double lon1) {
+    final double sinDLat = Math.sin(Math.toRadians(lat1 - lat0) / 2d);
+    final double sinDLon = Math.sin(Math.toRadians(lon1 - lon0) / 2d);
+    final double h = sinDLat * sinDLat
+        + Math.cos(Math.toRadians(lat0)) * Math.cos(Math.toRadians(lat1))
+            * sinDLon * sinDLon;
+    return 2d * Math.asin(Math.min(1d, Math.sqrt(h))) * EARTH_RADIUS_METERS;
+  }
+
+  /** Returns a predicate that matches locations within a given distance,
+   * in meters, of a center. */
+  public static LocationPredicate circle(double latitude, double longitude,
+      double meters) {
+    return new CirclePredicate(latitude, longitude, meters);
+  }
+
+  /** Returns a predicate that matches locations in a box from one corner
+   * to another. */
+  public static LocationPredicate box(double fromLatitude,
+      double fromLongitude, double toLatitude, double toLongitude) {
+    return new BoxPredicate(fromLatitude, fromLongitude, toLatitude,
+        toLongitude);
+  }
+
+  /** Predicate that matches locations in a box.
+   *
+   * <p>The longitudes of the box are two spans, {@code [west0, east0]} and
+   * {@code [west1, east1]}. A box that crosses the 180° meridian is split
+   * into a span that ends at 180 and a span that starts at -180; other
+   * boxes have the same span twice. So every location is tested the same
+   * way, without a branch. */
+  static class BoxPredicate implements LocationPredicate {
+    final double south;
+    final double north;
+    final double west0;
+    final double east0;
+    final double west1;
+    final double east1;
+
+    BoxPredicate(double fromLatitude, double fromLongitude,
+        double toLatitude, double toLongitude) {
+      this.south = Math.min(fromLatitude, toLatitude);
+      this.north = Math.max(fromLatitude, toLatitude);
+      this.west0 = fromLongitude;
+      this.east1 = toLongitude;
+      if (fromLongitude <= toLongitude) {
+        this.east0 = toLongitude;
+        this.west1 = fromLongitude;
+      } else {
+        this.east0 = 180d;
+        this.west1 = -180d;
+      }
+    }
+
+    @Override public boolean test(double lat, double lon) {
+      return contains(lat, lon);
+    }
+
+    @Override public long word(double[] latitudes, double[] longitudes,
+        int start, int n) {
+      long word = 0L;
+      for (int j = 0; j < n; j++) {
+        word |= (contains(latitudes[start + j], longitudes[start + j])
+            ? 1L : 0L) << j;
+      }
+      return word;
+    }
+
+    /** Returns whether a location is in the box. Uses non-short-circuit
+     * operators, so that the compiler does not generate branches. */
+    private boolean contains(double lat, double lon) {
+      return lat >= south & lat <= north
+          & (lon >= west0 & lon <= east0 | lon >= west1 & lon <= east1);
+    }
+  }
+
+  /** Predicate that matches locations within a distance of a center.
+   *
+   * <p>A location is first tested against a box, in degrees of latitude
+   * and longitude, that contains the circle; that test needs only
+   * subtraction and comparison, and rejects most locations if the circle
+   * is small. Locations in the box are tested exactly using the haversine
+   * formula: the location matches if
+   * <blockquote>{@code sin²(Δφ/2) + cos φ1 cos φ2 sin²(Δλ/2)
+   * <= sin²(θ/2)}</blockquote>
+   * where θ is the distance as an angle. The left side is a quarter of
+   * the squared chord distance between the two locations on a unit sphere,
+   * so the comparison needs no inverse trigonometric functions. */
+  static class CirclePredicate implements LocationPredicate {
+    /** Allowance, in degrees, for rounding error in the box test. */
+    private static final double EPSILON = 1e-9d;
+
+    final double latitude;
+    final double longitude;
+    /** Radius, in meters. */
+    final double meters;
+    /** Cosine of the center's latitude. */
+    private final double cosLatitude;
+    /** {@code sin²(θ/2)}, where θ is the radius as an angle. */
+    private final double threshold;
+    /** Half-height of the bounding box, in degrees of latitude. */
+    final double latitudeRadius;
+    /** Half-width of the bounding box, in degrees of longitude; 180 if the
+     * circle contains a pole. */
+    final double longitudeRadius;
+
+    CirclePredicate(double latitude, double longitude, double meters) {
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.meters = meters;
+      final double theta =
+          Math.min(Math.PI, Math.max(0d, meters / EARTH_RADIUS_METERS));
+      final double sinHalf = Math.sin(theta / 2d);
+      this.threshold = theta >= Math.PI ? Double.POSITIVE_INFINITY
+          : sinHalf * sinHalf;
+      final double phi = Math.toRadians(latitude);
+      this.cosLatitude = Math.cos(phi);
+      this.latitudeRadius = Math.toDegrees(theta) + EPSILON;
+      if (Math.abs(latitude) + latitudeRadius >= 90d) {
+        // The circle contains a pole, and every longitude.
+        this.longitudeRadius = 180d;
+      } else {
+        // Greatest longitude difference at which a location is within
+        // theta: where a meridian is tangent to the circle.
+        this.longitudeRadius =
+            Math.toDegrees(Math.asin(Math.sin(theta) / cosLatitude))
+                + EPSILON;
+      }
+    }
+
+    @Override public boolean test(double lat, double lon) {
+      return inBox(lat, lon) && inCircle(lat, lon);
+    }
+
+    @Override public long word(double[] latitudes, double[] longitudes,
+        int start, int n) {
+      long word = 0L;
+      for (int j = 0; j < n; j++) {
+        final double lat = latitudes[start + j];
+        final double lon = longitudes[start + j];
+        if (inBox(lat, lon) && inCircle(lat, lon)) {
+          word |= 1L << j;
+        }
+      }
+      return word;
+    }
+
+    /** Returns whether a location is in the bounding box. */
+    boolean inBox(double lat, double lon) {
+      double dLon = Math.abs(lon - longitude);
+      if (dLon > 180d) {
+        dLon = 360d - dLon;
+      }
+      return Math.abs(lat - latitude) <= latitudeRadius
+          && dLon <= longitudeRadius;
+    }
+
+    /** Returns whether a location is within the distance of the center. */
+    boolean inCircle(double lat, double lon) {
+      final double sinDLat = Math.sin(Math.toRadians(lat - latitude) / 2d);
+      final double sinDLon = Math.sin(Math.toRadians(lon - longitude) / 2d);
+      final double h = sinDLat * sinDLat
+          + cosLatitude * Math.cos(Math.toRadians(lat)) * sinDLon * sinDLon;
+      return h <= threshold;
+    }
+  }
+}
+
+// End LocationCompiler.java
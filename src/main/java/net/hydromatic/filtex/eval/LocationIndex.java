@@ -0,0 +1,230 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+import net.hydromatic.filtex.ast.AstNode;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Index of location filters, which finds the filters that match a
+ * location.
+ *
+ * <p>The index divides the world into a uniform grid of cells, each
+ * {@code cellDegrees} of latitude by {@code cellDegrees} of longitude. A
+ * filter is added to each cell that its bounding boxes (see
+ * {@link LocationCompiler}) overlap, so matching a location only tests the
+ * filters in the location's cell. Filters that cover more than
+ * {@link #MAX_CELLS} cells, or are not bounded (such as
+ * "{@code is anywhere}"), are tested for every location.
+ *
+ * <p>Choose a cell size that is comparable to the size of a typical
+ * filter; for geofences of a few kilometers, a quarter of a degree (about
+ * 28 kilometers of latitude) is reasonable.
+ *
+ * <p>Filters are identified by keys of type {@code K}. Adding a filter with
+ * the same key as an existing filter replaces it. An index is not safe for
+ * use by concurrent threads if any of them is adding or removing
+ * filters.
+ *
+ * <p>For example,
+ * <pre>{@code
+ * LocationIndex<String> index = LocationIndex.of(0.25);
+ * index.add("home", Filtex.parseFilterExpression(TypeFamily.LOCATION,
+ *     "1 mile from 40.7, -74.0"));
+ * List<String> keys = index.matches(40.71, -74.01); // ["home"]
+ * }</pre>
+ *
+ * @param <K> Key type
+ */
+public class LocationIndex<K> {
+  /** Largest number of cells to which a filter is added; a filter that
+   * covers more cells is tested for every location. */
+  public static final int MAX_CELLS = 4096;
+
+  private final double cellDegrees;
+  private final int rows;
+  private final int columns;
+
+  /** Filters in each cell, indexed by {@code row * columns + column};
+   * null if the cell has never had a filter. */
+  private final @Nullable List<Entry<K>>[] cells;
+
+  /** Filters that are tested for every location. */
+  private final List<Entry<K>> global = new ArrayList<>();
+
+  private final Map<K, Entry<K>> entries = new HashMap<>();
+
+  @SuppressWarnings("unchecked")
+  private LocationIndex(double cellDegrees) {
+    checkArgument(cellDegrees > 0d && cellDegrees <= 180d,
+        "cell size must be greater than 0 and at most 180 degrees");
+    this.cellDegrees = cellDegrees;
+    this.rows = (int) Math.ceil(180d / cellDegrees);
+    this.columns = (int) Math.ceil(360d / cellDegrees);
+    this.cells = new List[Math.multiplyExact(rows, columns)];
+  }
+
+  /** Creates an empty index whose cells are {@code cellDegrees} degrees
+   * square. */
+  public static <K> LocationIndex<K> of(double cellDegrees) {
+    return new LocationIndex<>(cellDegrees);
+  }
+
+  /** Returns the number of filters. */
+  public int size() {
+    return entries.size();
+  }
+
+  /** Adds a location filter, replacing any filter with the same key. */
+  public void add(K key, AstNode node) {
+    remove(key);
+    final Entry<K> entry =
+        new Entry<>(requireNonNull(key), LocationCompiler.compile(node),
+            cells(LocationCompiler.bounds(node)));
+    if (entry.cells == null) {
+      global.add(entry);
+    } else {
+      for (int cell : entry.cells) {
+        List<Entry<K>> list = cells[cell];
+        if (list == null) {
+          cells[cell] = list = new ArrayList<>(4);
+        }
+        list.add(entry);
+      }
+    }
+    entries.put(key, entry);
+  }
+
+  /** Removes the filter with a given key; returns whether there was
+   * one. */
+  public boolean remove(K key) {
+    final Entry<K> entry = entries.remove(key);
+    if (entry == null) {
+      return false;
+    }
+    if (entry.cells == null) {
+      global.remove(entry);
+    } else {
+      for (int cell : entry.cells) {
+        requireNonNull(cells[cell]).remove(entry);
+      }
+    }
+    return true;
+  }
+
+  /** Calls a consumer with the key of each filter that matches a
+   * location. */
+  public void forEachMatch(double latitude, double longitude,
+      Consumer<? super K> consumer) {
+    final int cell = cell(latitude, longitude);
+    if (cell >= 0) {
+      final List<Entry<K>> list = cells[cell];
+      if (list != null) {
+        match(list, latitude, longitude, consumer);
+      }
+    }
+    match(global, latitude, longitude, consumer);
+  }
+
+  /** Returns the keys of the filters that match a location. */
+  public List<K> matches(double latitude, double longitude) {
+    final List<K> keys = new ArrayList<>();
+    forEachMatch(latitude, longitude, keys::add);
+    return keys;
+  }
+
+  private static <K> void match(List<Entry<K>> list, double latitude,
+      double longitude, Consumer<? super K> consumer) {
+    for (int i = 0; i < list.size(); i++) {
+      final Entry<K> entry = list.get(i);
+      if (entry.predicate.test(latitude, longitude)) {
+        consumer.accept(entry.key);
+      }
+    }
+  }
+
+  /** Returns the cell that contains a location, or -1 if the location is
+   * not valid. */
+  private int cell(double latitude, double longitude) {
+    if (!(latitude >= -90d && latitude <= 90d
+        && longitude >= -180d && longitude <= 180d)) {
+      return -1;
+    }
+    return row(latitude) * columns + column(longitude);
+  }
+
+  private int row(double latitude) {
+    return Math.min(rows - 1, (int) ((latitude + 90d) / cellDegrees));
+  }
+
+  private int column(double longitude) {
+    return Math.min(columns - 1, (int) ((longitude + 180d) / cellDegrees));
+  }
+
+  /** Returns the cells that a list of boxes overlap, or null if the boxes
+   * are unbounded or overlap more than {@link #MAX_CELLS} cells. */
+  private int @Nullable [] cells(@Nullable List<double[]> boxes) {
+    if (boxes == null) {
+      return null;
+    }
+    final List<Integer> list = new ArrayList<>();
+    for (double[] box : boxes) {
+      final int row0 = row(Math.max(box[0], -90d));
+      final int row1 = row(Math.min(box[1], 90d));
+      final int column0 = column(Math.max(box[2], -180d));
+      final int column1 = column(Math.min(box[3], 180d));
+      if ((long) (row1 - row0 + 1) * (column1 - column0 + 1) + list.size()
+          > MAX_CELLS) {
+        return null;
+      }
+      for (int row = row0; row <= row1; row++) {
+        for (int column = column0; column <= column1; column++) {
+          list.add(row * columns + column);
+        }
+      }
+    }
+    // Boxes of different terms may overlap
+    return list.stream().mapToInt(Integer::intValue).distinct().toArray();
+  }
+
+  /** Filter in an index. */
+  private static class Entry<K> {
+    final K key;
+    final LocationPredicate predicate;
+    /** Cells that contain this filter, or null if it is global. */
+    final int @Nullable [] cells;
+
+    Entry(K key, LocationPredicate predicate, int @Nullable [] cells) {
+      this.key = key;
+      this.predicate = predicate;
+      this.cells = cells;
+    }
+  }
+}
+
+// End LocationIndex.java
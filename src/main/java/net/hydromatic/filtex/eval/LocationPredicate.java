@@ -0,0 +1,64 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+/**
+ * Predicate on a geographic location, given as latitude and longitude in
+ * degrees.
+ *
+ * <p>Latitudes are between -90 and 90, and longitudes between -180 and 180.
+ * A location with a NaN coordinate matches no circle, box or point.
+ *
+ * @see LocationCompiler
+ */
+@FunctionalInterface
+public interface LocationPredicate {
+  /** Returns whether a location matches. */
+  boolean test(double latitude, double longitude);
+
+  /** Returns a word whose bit {@code j} is set if the location at
+   * {@code start + j} matches, for {@code j} in {@code [0, n)}; other bits
+   * are clear.
+   *
+   * @param latitudes Latitudes
+   * @param longitudes Longitudes
+   * @param start Index of first location
+   * @param n Number of locations, between 1 and 64 */
+  default long word(double[] latitudes, double[] longitudes, int start,
+      int n) {
+    long word = 0L;
+    for (int j = 0; j < n; j++) {
+      if (test(latitudes[start + j], longitudes[start + j])) {
+        word |= 1L << j;
+      }
+    }
+    return word;
+  }
+
+  /** Evaluates this predicate against {@code count} locations, returning a
+   * bitset; bit {@code i} is bit {@code i % 64} of word {@code i / 64}. */
+  default long[] evaluate(double[] latitudes, double[] longitudes,
+      int count) {
+    final long[] bits = new long[BatchEvaluator.wordCount(count)];
+    for (int w = 0, start = 0; start < count; w++, start += 64) {
+      bits[w] = word(latitudes, longitudes, start, Math.min(64, count - start));
+    }
+    return bits;
+  }
+}
+
+// End LocationPredicate.java
@@ -0,0 +1,53 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Column of geographic locations, stored as an array of latitudes and an
+ * array of longitudes, in degrees.
+ *
+ * <p>It is the column type of evaluators created by
+ * {@link BatchEvaluator#ofLocation(net.hydromatic.filtex.ast.AstNode)}. The
+ * arrays are not copied.
+ */
+public class Locations {
+  public final double[] latitudes;
+  public final double[] longitudes;
+
+  private Locations(double[] latitudes, double[] longitudes) {
+    this.latitudes = requireNonNull(latitudes);
+    this.longitudes = requireNonNull(longitudes);
+    checkArgument(latitudes.length == longitudes.length,
+        "latitudes and longitudes must have the same length");
+  }
+
+  /** Creates a column of locations. */
+  public static Locations of(double[] latitudes, double[] longitudes) {
+    return new Locations(latitudes, longitudes);
+  }
+
+  /** Returns the number of locations. */
+  public int size() {
+    return latitudes.length;
+  }
+}
+
+// End Locations.java
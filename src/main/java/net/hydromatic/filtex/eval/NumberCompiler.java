@@ -0,0 +1,539 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+import net.hydromatic.filtex.ast.Ast;
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.ast.Op;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoublePredicate;
+import java.util.function.LongPredicate;
+
+/**
+ * Compiles numeric filter expressions to predicates.
+ *
+ * <p>The input is an AST of the NUMBER type family, as returned by
+ * {@link net.hydromatic.filtex.Filtex#parseFilterExpression}: a list of
+ * terms, joined by {@link Op#COMMA}, each of which is an
+ * {@link Ast.Comparison}, {@link Ast.NumericRange}, or {@link Ast.Call0}
+ * ({@link Op#NULL} or {@link Op#NOTNULL}).
+ *
+ * <p>A value matches the filter if it matches at least one of the positive
+ * terms (or there are no positive terms), and does not match any of the
+ * negated terms. For example, "{@code [1, 10], not 3}" matches 1 to 10
+ * except 3; "{@code not 3, not 4}" matches everything except 3 and 4.
+ *
+ * <p>Note that the parser's transform merges the values of a list that
+ * has exactly one negated value into one negated term; so
+ * "{@code 1, 2, not 3}" is equivalent to "{@code not 1, not 2, not 3}".
+ *
+ * <p>The predicates test non-null values, so a {@code NULL} term never
+ * matches, and a {@code NOT NULL} term always matches; use
+ * {@link #matchesNull(AstNode)} to find out whether the filter accepts null.
+ *
+ * <p>Constants are converted from {@link BigDecimal} when the predicate is
+ * compiled, and predicates do not allocate when called. Long predicates
+ * are exact: "{@code > 7.5}" accepts 8 but not 7. For exact evaluation
+ * against decimal values, represent them as unscaled longs and use
+ * {@link #compileDecimal(AstNode, int)}.
+ */
+public class NumberCompiler {
+  /** Above this number of values, "=" tests use binary search rather than
+   * a linear scan. */
+  private static final int LINEAR_SCAN_MAX = 8;
+
+  private static final BigDecimal LONG_MIN =
+      BigDecimal.valueOf(Long.MIN_VALUE);
+  private static final BigDecimal LONG_MAX =
+      BigDecimal.valueOf(Long.MAX_VALUE);
+
+  private static final LongPredicate LONG_TRUE = v -> true;
+  private static final LongPredicate LONG_FALSE = v -> false;
+  private static final DoublePredicate DOUBLE_TRUE = v -> true;
+  private static final DoublePredicate DOUBLE_FALSE = v -> false;
+
+  private NumberCompiler() {
+  }
+
+  /** Compiles a numeric filter to a predicate on {@code long} values. */
+  public static LongPredicate compileLong(AstNode node) {
+    return compileDecimal(node, 0);
+  }
+
+  /** Compiles a numeric filter to a predicate on the unscaled values of
+   * decimals with a given scale.
+   *
+   * <p>For example, a {@code DECIMAL(10, 2)} column stores 80.44 as the
+   * long 8044; {@code compileDecimal(node, 2)} for the filter
+   * "{@code >= 80.44}" returns a predicate that accepts 8044 and rejects
+   * 8043.
+   *
+   * <p>Each constant is scaled and rounded, exactly, to a long threshold
+   * when the predicate is compiled, so the predicate only compares longs.
+   * A constant with more decimal places than the scale falls between two
+   * unscaled values; "{@code = 1.005}" with scale 2 never matches, and
+   * "{@code > 1.005}" accepts 101 (1.01) but not 100 (1.00). */
+  public static LongPredicate compileDecimal(AstNode node, int scale) {
+    final List<LongPredicate> positives = new ArrayList<>();
+    final List<LongPredicate> negatives = new ArrayList<>();
+    for (AstNode term : terms(node)) {
+      (term.is() ? positives : negatives).add(longTerm(term, scale));
+    }
+    final LongPredicate any = anyLong(positives);
+    final LongPredicate none = noneLong(negatives);
+    if (negatives.isEmpty()) {
+      return any;
+    }
+    if (positives.isEmpty()) {
+      return none;
+    }
+    return v -> any.test(v) && none.test(v);
+  }
+
+  /** Compiles a numeric filter to a predicate on {@code double} values. */
+  public static DoublePredicate compileDouble(AstNode node) {
+    final List<DoublePredicate> positives = new ArrayList<>();
+    final List<DoublePredicate> negatives = new ArrayList<>();
+    for (AstNode term : terms(node)) {
+      (term.is() ? positives : negatives).add(doubleTerm(term));
+    }
+    final DoublePredicate any = anyDouble(positives);
+    final DoublePredicate none = noneDouble(negatives);
+    if (negatives.isEmpty()) {
+      return any;
+    }
+    if (positives.isEmpty()) {
+      return none;
+    }
+    return v -> any.test(v) && none.test(v);
+  }
+
+  /** Returns whether a numeric filter accepts null values.
+   *
+   * <p>Null matches a positive {@code NULL} term. A negated term rejects
+   * null only if it is "{@code NOT NULL}"; for example,
+   * "{@code not 3}" accepts null. */
+  public static boolean matchesNull(AstNode node) {
+    boolean hasPositive = false;
+    boolean positiveMatch = false;
+    for (AstNode term : terms(node)) {
+      final boolean termMatchesNull = term.op == Op.NULL;
+      if (term.is()) {
+        hasPositive = true;
+        positiveMatch |= termMatchesNull;
+      } else if (term instanceof Ast.Call0 && termMatchesNull) {
+        return false;
+      }
+    }
+    return !hasPositive || positiveMatch;
+  }
+
+  /** Returns the terms of a filter; that is, the leaves of a tree of
+   * {@link Op#COMMA} nodes. */
+  static List<AstNode> terms(AstNode node) {
+    final List<AstNode> terms = new ArrayList<>();
+    addTerms(terms, node);
+    return terms;
+  }
+
+  private static void addTerms(List<AstNode> terms, AstNode node) {
+    if (node.op == Op.COMMA) {
+      final Ast.Call2 call2 = (Ast.Call2) node;
+      addTerms(terms, call2.left);
+      if (call2.right != null) {
+        addTerms(terms, call2.right);
+      }
+    } else {
+      terms.add(node);
+    }
+  }
+
+  /** Returns the values of an "=" comparison. */
+  @SuppressWarnings("rawtypes")
+  static List<BigDecimal> decimals(Ast.Comparison comparison) {
+    final List<BigDecimal> list = new ArrayList<>();
+    for (Comparable value : comparison.value) {
+      if (!(value instanceof BigDecimal)) {
+        throw new IllegalArgumentException("not a number: " + value);
+      }
+      list.add((BigDecimal) value);
+    }
+    return list;
+  }
+
+  private static IllegalArgumentException unsupported(AstNode term) {
+    return new IllegalArgumentException("not a numeric term: " + term.op);
+  }
+
+  // long
+
+  /** Compiles a term, ignoring whether it is negated, to a predicate on
+   * unscaled values. */
+  private static LongPredicate longTerm(AstNode term, int scale) {
+    if (term.op == Op.EQ) {
+      return longIn(longValues((Ast.Comparison) term, scale));
+    }
+    switch (term.op) {
+    case NULL:
+      return LONG_FALSE;
+    case NOTNULL:
+      return LONG_TRUE;
+    default:
+      final long[] bounds = longBounds(term, scale);
+      return bounds[0] > bounds[1] ? LONG_FALSE
+          : longRange(bounds[0], bounds[1]);
+    }
+  }
+
+  /** Returns the closed range of unscaled values, {@code [lo, hi]}, that a
+   * term matches, ignoring whether it is negated. The term is a
+   * {@link Ast.Comparison} other than "=", or a {@link Ast.NumericRange}.
+   * If the term matches no values, returns a range where {@code lo > hi}. */
+  static long[] longBounds(AstNode term, int scale) {
+    if (term instanceof Ast.Comparison) {
+      final BigDecimal value =
+          decimals((Ast.Comparison) term).get(0).movePointRight(scale);
+      switch (term.op) {
+      case GT:
+        return longRange(ceilingAfter(value), LONG_MAX);
+      case GE:
+        return longRange(ceiling(value), LONG_MAX);
+      case LT:
+        return longRange(LONG_MIN, floorBefore(value));
+      case LE:
+        return longRange(LONG_MIN, floor(value));
+      default:
+        throw unsupported(term);
+      }
+    }
+    if (term instanceof Ast.NumericRange) {
+      final Ast.NumericRange range = (Ast.NumericRange) term;
+      final BigDecimal left = range.left.movePointRight(scale);
+      final BigDecimal right = range.right.movePointRight(scale);
+      switch (term.op) {
+      case OPEN_OPEN:
+        return longRange(ceilingAfter(left), floorBefore(right));
+      case OPEN_CLOSED:
+        return longRange(ceilingAfter(left), floor(right));
+      case CLOSED_OPEN:
+        return longRange(ceiling(left), floorBefore(right));
+      case CLOSED_CLOSED:
+        return longRange(ceiling(left), floor(right));
+      default:
+        throw unsupported(term);
+      }
+    }
+    throw unsupported(term);
+  }
+
+  /** Returns the distinct unscaled values, in ascending order, that an "="
+   * term matches. Values that do not have an exact unscaled
+   * representation, or are out of range, can never match, and are
+   * omitted. */
+  static long[] longValues(Ast.Comparison comparison, int scale) {
+    return decimals(comparison).stream()
+        .map(v -> v.movePointRight(scale))
+        .filter(v -> v.compareTo(floor(v)) == 0
+            && v.compareTo(LONG_MIN) >= 0
+            && v.compareTo(LONG_MAX) <= 0)
+        .mapToLong(v -> floor(v).longValueExact())
+        .sorted()
+        .distinct()
+        .toArray();
+  }
+
+  /** Returns the smallest integer that is greater than or equal to a
+   * value. */
+  private static BigDecimal ceiling(BigDecimal value) {
+    return value.setScale(0, RoundingMode.CEILING);
+  }
+
+  /** Returns the smallest integer that is greater than a value. */
+  private static BigDecimal ceilingAfter(BigDecimal value) {
+    return value.setScale(0, RoundingMode.FLOOR).add(BigDecimal.ONE);
+  }
+
+  /** Returns the largest integer that is less than or equal to a value. */
+  private static BigDecimal floor(BigDecimal value) {
+    return value.setScale(0, RoundingMode.FLOOR);
+  }
+
+  /** Returns the largest integer that is less than a value. */
+  private static BigDecimal floorBefore(BigDecimal value) {
+    return value.setScale(0, RoundingMode.CEILING).subtract(BigDecimal.ONE);
+  }
+
+  /** Returns the closed range of integers {@code [lo, hi]}, clamped to the
+   * range of {@code long}, or an empty range if there are no such
+   * integers. */
+  private static long[] longRange(BigDecimal lo, BigDecimal hi) {
+    if (lo.compareTo(hi) > 0
+        || lo.compareTo(LONG_MAX) > 0
+        || hi.compareTo(LONG_MIN) < 0) {
+      return new long[] {1, 0};
+    }
+    return new long[] {lo.max(LONG_MIN).longValueExact(),
+        hi.min(LONG_MAX).longValueExact()};
+  }
+
+  /** Returns a predicate for the closed range {@code [lo, hi]}, where
+   * {@code lo <= hi}. */
+  private static LongPredicate longRange(long lo, long hi) {
+    if (lo == Long.MIN_VALUE && hi == Long.MAX_VALUE) {
+      return LONG_TRUE;
+    }
+    if (lo == Long.MIN_VALUE) {
+      return v -> v <= hi;
+    }
+    if (hi == Long.MAX_VALUE) {
+      return v -> v >= lo;
+    }
+    if (lo == hi) {
+      return v -> v == lo;
+    }
+    return v -> v >= lo && v <= hi;
+  }
+
+  /** Returns a predicate that tests whether a long is one of an ascending
+   * array of values. */
+  private static LongPredicate longIn(long[] longs) {
+    switch (longs.length) {
+    case 0:
+      return LONG_FALSE;
+    case 1:
+      final long value = longs[0];
+      return v -> v == value;
+    default:
+      if (longs.length <= LINEAR_SCAN_MAX) {
+        return v -> {
+          for (long w : longs) {
+            if (v == w) {
+              return true;
+            }
+          }
+          return false;
+        };
+      }
+      return v -> Arrays.binarySearch(longs, v) >= 0;
+    }
+  }
+
+  private static LongPredicate anyLong(List<LongPredicate> predicates) {
+    switch (predicates.size()) {
+    case 0:
+      return LONG_TRUE;
+    case 1:
+      return predicates.get(0);
+    case 2:
+      final LongPredicate p0 = predicates.get(0);
+      final LongPredicate p1 = predicates.get(1);
+      return v -> p0.test(v) || p1.test(v);
+    default:
+      final LongPredicate[] array = predicates.toArray(new LongPredicate[0]);
+      return v -> {
+        for (LongPredicate p : array) {
+          if (p.test(v)) {
+            return true;
+          }
+        }
+        return false;
+      };
+    }
+  }
+
+  private static LongPredicate noneLong(List<LongPredicate> predicates) {
+    switch (predicates.size()) {
+    case 0:
+      return LONG_TRUE;
+    case 1:
+      final LongPredicate p = predicates.get(0);
+      return v -> !p.test(v);
+    default:
+      final LongPredicate any = anyLong(predicates);
+      return v -> !any.test(v);
+    }
+  }
+
+  // double
+
+  /** Compiles a term, ignoring whether it is negated. */
+  private static DoublePredicate doubleTerm(AstNode term) {
+    if (term instanceof Ast.Comparison) {
+      final Ast.Comparison comparison = (Ast.Comparison) term;
+      final List<BigDecimal> values = decimals(comparison);
+      final double c = values.get(0).doubleValue();
+      switch (term.op) {
+      case EQ:
+        return doubleIn(doubleValues(comparison));
+      case GT:
+        return v -> v > c;
+      case GE:
+        return v -> v >= c;
+      case LT:
+        return v -> v < c;
+      case LE:
+        return v -> v <= c;
+      default:
+        throw unsupported(term);
+      }
+    }
+    if (term instanceof Ast.NumericRange) {
+      final Ast.NumericRange range = (Ast.NumericRange) term;
+      final double lo = range.left.doubleValue();
+      final double hi = range.right.doubleValue();
+      switch (term.op) {
+      case OPEN_OPEN:
+        return v -> v > lo && v < hi;
+      case OPEN_CLOSED:
+        return v -> v > lo && v <= hi;
+      case CLOSED_OPEN:
+        return v -> v >= lo && v < hi;
+      case CLOSED_CLOSED:
+        return v -> v >= lo && v <= hi;
+      default:
+        throw unsupported(term);
+      }
+    }
+    switch (term.op) {
+    case NULL:
+      return DOUBLE_FALSE;
+    case NOTNULL:
+      return DOUBLE_TRUE;
+    default:
+      throw unsupported(term);
+    }
+  }
+
+  /** Returns the closed range of doubles, {@code [lo, hi]}, that a term
+   * matches, ignoring whether it is negated. The term is a
+   * {@link Ast.Comparison} other than "=", or a {@link Ast.NumericRange}.
+   * Open bounds become closed bounds at the adjacent double, and absent
+   * bounds become infinities. If the term matches no values, returns a
+   * range where {@code lo > hi}. */
+  static double[] doubleBounds(AstNode term) {
+    if (term instanceof Ast.Comparison) {
+      final double c =
+          decimals((Ast.Comparison) term).get(0).doubleValue();
+      switch (term.op) {
+      case GT:
+        return new double[] {Math.nextUp(c), Double.POSITIVE_INFINITY};
+      case GE:
+        return new double[] {c, Double.POSITIVE_INFINITY};
+      case LT:
+        return new double[] {Double.NEGATIVE_INFINITY, Math.nextDown(c)};
+      case LE:
+        return new double[] {Double.NEGATIVE_INFINITY, c};
+      default:
+        throw unsupported(term);
+      }
+    }
+    if (term instanceof Ast.NumericRange) {
+      final Ast.NumericRange range = (Ast.NumericRange) term;
+      final double lo = range.left.doubleValue();
+      final double hi = range.right.doubleValue();
+      switch (term.op) {
+      case OPEN_OPEN:
+        return new double[] {Math.nextUp(lo), Math.nextDown(hi)};
+      case OPEN_CLOSED:
+        return new double[] {Math.nextUp(lo), hi};
+      case CLOSED_OPEN:
+        return new double[] {lo, Math.nextDown(hi)};
+      case CLOSED_CLOSED:
+        return new double[] {lo, hi};
+      default:
+        throw unsupported(term);
+      }
+    }
+    throw unsupported(term);
+  }
+
+  /** Returns the distinct values, in ascending order, that an "=" term
+   * matches. */
+  static double[] doubleValues(Ast.Comparison comparison) {
+    return decimals(comparison).stream()
+        .mapToDouble(BigDecimal::doubleValue)
+        .sorted()
+        .distinct()
+        .toArray();
+  }
+
+  /** Returns a predicate that tests whether a double is equal to one of an
+   * ascending array of values. */
+  private static DoublePredicate doubleIn(double[] doubles) {
+    if (doubles.length == 1) {
+      final double value = doubles[0];
+      return v -> v == value;
+    }
+    if (doubles.length <= LINEAR_SCAN_MAX) {
+      return v -> {
+        for (double w : doubles) {
+          if (v == w) {
+            return true;
+          }
+        }
+        return false;
+      };
+    }
+    // Arrays.binarySearch distinguishes -0.0 from 0.0, and the array
+    // contains only 0.0 (BigDecimal has no negative zero).
+    return v -> Arrays.binarySearch(doubles, v == 0d ? 0d : v) >= 0;
+  }
+
+  private static DoublePredicate anyDouble(List<DoublePredicate> predicates) {
+    switch (predicates.size()) {
+    case 0:
+      return DOUBLE_TRUE;
+    case 1:
+      return predicates.get(0);
+    case 2:
+      final DoublePredicate p0 = predicates.get(0);
+      final DoublePredicate p1 = predicates.get(1);
+      return v -> p0.test(v) || p1.test(v);
+    default:
+      final DoublePredicate[] array =
+          predicates.toArray(new DoublePredicate[0]);
+      return v -> {
+        for (DoublePredicate p : array) {
+          if (p.test(v)) {
+            return true;
+          }
+        }
+        return false;
+      };
+    }
+  }
+
+  private static DoublePredicate noneDouble(List<DoublePredicate> predicates) {
+    switch (predicates.size()) {
+    case 0:
+      return DOUBLE_TRUE;
+    case 1:
+      final DoublePredicate p = predicates.get(0);
+      return v -> !p.test(v);
+    default:
+      final DoublePredicate any = anyDouble(predicates);
+      return v -> !any.test(v);
+    }
+  }
+}
+
+// End NumberCompiler.java
@@ -0,0 +1,325 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+import net.hydromatic.filtex.ast.Ast;
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.ast.Bound;
+import net.hydromatic.filtex.ast.Op;
+
+import com.google.common.collect.BoundType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableRangeSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The set of values that a numeric filter accepts, in canonical form.
+ *
+ * <p>The form consists of a sorted list of disjoint intervals, a set of
+ * excluded points, and whether null is accepted. A non-null value is in the
+ * set if it is in one of the intervals and is not an excluded point. For
+ * example, "{@code 1, 5, [10, 20], > 100, not 7}" becomes the intervals
+ * "{@code [1, 1], [5, 5], [10, 20], (100, +inf)}" with no excluded points
+ * (7 is not in any interval), and "{@code not 7, not 8}" becomes the
+ * interval "{@code (-inf, +inf)}" with excluded points 7 and 8.
+ *
+ * <p>Intervals are as large as possible: two intervals are never connected,
+ * and an excluded point always lies strictly inside an interval, where it
+ * would otherwise split that interval in two. Numbers are stored without
+ * trailing zeros. Therefore two filters that accept the same values, such
+ * as "{@code 1, 2, 3}" and "{@code [1, 3], not (1, 2), not (2, 3)}", have
+ * equal {@code NumberIntervals}.
+ *
+ * <p>Membership tests, {@link #contains(BigDecimal)}, use binary search.
+ */
+public class NumberIntervals {
+  /** Sorted, disjoint, non-connected intervals. */
+  public final ImmutableList<Interval> intervals;
+  /** Points removed from the interiors of {@link #intervals}. */
+  public final ImmutableSortedSet<BigDecimal> excludedPoints;
+  /** Whether the filter accepts null. */
+  public final boolean containsNull;
+
+  /** The intervals, as a range set, for binary search. */
+  private final ImmutableRangeSet<BigDecimal> rangeSet;
+
+  private NumberIntervals(ImmutableList<Interval> intervals,
+      ImmutableSortedSet<BigDecimal> excludedPoints, boolean containsNull) {
+    this.intervals = requireNonNull(intervals);
+    this.excludedPoints = requireNonNull(excludedPoints);
+    this.containsNull = containsNull;
+    final ImmutableRangeSet.Builder<BigDecimal> builder =
+        ImmutableRangeSet.builder();
+    intervals.forEach(interval -> builder.add(interval.toRange()));
+    this.rangeSet = builder.build();
+  }
+
+  /** Converts a numeric filter to canonical form. */
+  public static NumberIntervals of(AstNode node) {
+    final RangeSet<BigDecimal> positives = TreeRangeSet.create();
+    final RangeSet<BigDecimal> negatives = TreeRangeSet.create();
+    boolean hasPositive = false;
+    for (AstNode term : NumberCompiler.terms(node)) {
+      if (term.is()) {
+        hasPositive = true;
+        addTerm(positives, term);
+      } else {
+        addTerm(negatives, term);
+      }
+    }
+    if (!hasPositive) {
+      positives.add(Range.all());
+    }
+    positives.removeAll(negatives);
+
+    // Merge intervals that are separated by a single point, such as
+    // "(-inf, 7)" and "(7, +inf)", and record the point as excluded.
+    final List<Interval> intervals = new ArrayList<>();
+    final ImmutableSortedSet.Builder<BigDecimal> excludedPoints =
+        ImmutableSortedSet.naturalOrder();
+    for (Range<BigDecimal> range : positives.asRanges()) {
+      final Interval interval = Interval.of(range);
+      final int last = intervals.size() - 1;
+      if (last >= 0) {
+        final Interval previous = intervals.get(last);
+        if (previous.upperBound == Bound.OPEN
+            && interval.lowerBound == Bound.OPEN
+            && requireNonNull(previous.upper)
+                .compareTo(requireNonNull(interval.lower)) == 0) {
+          excludedPoints.add(interval.lower);
+          intervals.set(last,
+              new Interval(previous.lowerBound, previous.lower,
+                  interval.upperBound, interval.upper));
+          continue;
+        }
+      }
+      intervals.add(interval);
+    }
+    return new NumberIntervals(ImmutableList.copyOf(intervals),
+        excludedPoints.build(), NumberCompiler.matchesNull(node));
+  }
+
+  /** Adds the values that a term matches, ignoring whether it is negated,
+   * to a range set. */
+  private static void addTerm(RangeSet<BigDecimal> rangeSet, AstNode term) {
+    if (term instanceof Ast.Comparison) {
+      final Ast.Comparison comparison = (Ast.Comparison) term;
+      final List<BigDecimal> values = NumberCompiler.decimals(comparison);
+      final BigDecimal value = canonize(values.get(0));
+      switch (term.op) {
+      case EQ:
+        values.forEach(v -> rangeSet.add(Range.singleton(canonize(v))));
+        return;
+      case GT:
+        rangeSet.add(Range.greaterThan(value));
+        return;
+      case GE:
+        rangeSet.add(Range.atLeast(value));
+        return;
+      case LT:
+        rangeSet.add(Range.lessThan(value));
+        return;
+      case LE:
+        rangeSet.add(Range.atMost(value));
+        return;
+      default:
+        throw new IllegalArgumentException("not a numeric term: " + term.op);
+      }
+    }
+    if (term instanceof Ast.NumericRange) {
+      final Ast.NumericRange range = (Ast.NumericRange) term;
+      final BigDecimal left = canonize(range.left);
+      final BigDecimal right = canonize(range.right);
+      final int c = left.compareTo(right);
+      if (c > 0 || c == 0 && term.op != Op.CLOSED_CLOSED) {
+        return; // empty range
+      }
+      switch (term.op) {
+      case OPEN_OPEN:
+        rangeSet.add(Range.open(left, right));
+        return;
+      case OPEN_CLOSED:
+        rangeSet.add(Range.openClosed(left, right));
+        return;
+      case CLOSED_OPEN:
+        rangeSet.add(Range.closedOpen(left, right));
+        return;
+      case CLOSED_CLOSED:
+        rangeSet.add(Range.closed(left, right));
+        return;
+      default:
+        throw new IllegalArgumentException("not a numeric term: " + term.op);
+      }
+    }
+    switch (term.op) {
+    case NULL:
+      return;
+    case NOTNULL:
+      rangeSet.add(Range.all());
+      return;
+    default:
+      throw new IllegalArgumentException("not a numeric term: " + term.op);
+    }
+  }
+
+  /** Returns a number without trailing zeros, so that equal numbers have
+   * equal hash codes. */
+  private static BigDecimal canonize(BigDecimal value) {
+    return value.signum() == 0 ? BigDecimal.ZERO : value.stripTrailingZeros();
+  }
+
+  /** Returns whether a non-null value is in this set. */
+  public boolean contains(BigDecimal value) {
+    return rangeSet.contains(value) && !excludedPoints.contains(value);
+  }
+
+  /** Returns whether this set contains no non-null values. */
+  public boolean isEmpty() {
+    return intervals.isEmpty();
+  }
+
+  /** Returns the non-null values in this set as a range set. Unlike
+   * {@link #intervals}, the ranges do not contain the excluded points. */
+  public ImmutableRangeSet<BigDecimal> toRangeSet() {
+    if (excludedPoints.isEmpty()) {
+      return rangeSet;
+    }
+    final RangeSet<BigDecimal> rangeSet = TreeRangeSet.create(this.rangeSet);
+    excludedPoints.forEach(point -> rangeSet.remove(Range.singleton(point)));
+    return ImmutableRangeSet.copyOf(rangeSet);
+  }
+
+  @Override public int hashCode() {
+    return Objects.hash(intervals, excludedPoints, containsNull);
+  }
+
+  @Override public boolean equals(Object o) {
+    return o == this
+        || o instanceof NumberIntervals
+        && intervals.equals(((NumberIntervals) o).intervals)
+        && excludedPoints.equals(((NumberIntervals) o).excludedPoints)
+        && containsNull == ((NumberIntervals) o).containsNull;
+  }
+
+  /** Returns a string such as "{@code [1, 5), (5, 10] not 7, null}". */
+  @Override public String toString() {
+    final StringBuilder b = new StringBuilder();
+    for (Interval interval : intervals) {
+      if (b.length() > 0) {
+        b.append(", ");
+      }
+      b.append(interval);
+    }
+    excludedPoints.forEach(point ->
+        b.append(b.length() > 0 ? ", " : "").append("not ")
+            .append(point.toPlainString()));
+    if (containsNull) {
+      b.append(b.length() > 0 ? ", " : "").append("null");
+    }
+    return b.toString();
+  }
+
+  /** An interval of numbers, each of whose ends is open, closed, or
+   * absent (unbounded). */
+  public static class Interval {
+    public final Bound lowerBound;
+    /** Lower end-point; null if and only if {@link #lowerBound} is
+     * {@link Bound#ABSENT}. */
+    public final @Nullable BigDecimal lower;
+    public final Bound upperBound;
+    /** Upper end-point; null if and only if {@link #upperBound} is
+     * {@link Bound#ABSENT}. */
+    public final @Nullable BigDecimal upper;
+
+    Interval(Bound lowerBound, @Nullable BigDecimal lower, Bound upperBound,
+        @Nullable BigDecimal upper) {
+      this.lowerBound = requireNonNull(lowerBound);
+      this.lower = lower;
+      this.upperBound = requireNonNull(upperBound);
+      this.upper = upper;
+      if ((lowerBound == Bound.ABSENT) != (lower == null)
+          || (upperBound == Bound.ABSENT) != (upper == null)) {
+        throw new IllegalArgumentException("end-point must be present if and "
+            + "only if bound is present");
+      }
+    }
+
+    static Interval of(Range<BigDecimal> range) {
+      return new Interval(
+          range.hasLowerBound() ? bound(range.lowerBoundType()) : Bound.ABSENT,
+          range.hasLowerBound() ? range.lowerEndpoint() : null,
+          range.hasUpperBound() ? bound(range.upperBoundType()) : Bound.ABSENT,
+          range.hasUpperBound() ? range.upperEndpoint() : null);
+    }
+
+    private static Bound bound(BoundType boundType) {
+      return boundType == BoundType.OPEN ? Bound.OPEN : Bound.CLOSED;
+    }
+
+    private static BoundType boundType(Bound bound) {
+      return bound == Bound.OPEN ? BoundType.OPEN : BoundType.CLOSED;
+    }
+
+    /** Converts this interval to a Guava range. */
+    public Range<BigDecimal> toRange() {
+      if (lower == null) {
+        return upper == null ? Range.all()
+            : Range.upTo(upper, boundType(upperBound));
+      }
+      return upper == null ? Range.downTo(lower, boundType(lowerBound))
+          : Range.range(lower, boundType(lowerBound), upper,
+              boundType(upperBound));
+    }
+
+    @Override public int hashCode() {
+      return Objects.hash(lowerBound, lower, upperBound, upper);
+    }
+
+    @Override public boolean equals(Object o) {
+      return o == this
+          || o instanceof Interval
+          && lowerBound == ((Interval) o).lowerBound
+          && Objects.equals(lower, ((Interval) o).lower)
+          && upperBound == ((Interval) o).upperBound
+          && Objects.equals(upper, ((Interval) o).upper);
+    }
+
+    /** Returns a string such as "{@code [1, 5)}" or
+     * "{@code (-inf, 3]}". */
+    @Override public String toString() {
+      return (lower == null ? "(-inf"
+          : (lowerBound == Bound.OPEN ? "(" : "[") + lower.toPlainString())
+          + ", "
+          + (upper == null ? "+inf)"
+          : upper.toPlainString() + (upperBound == Bound.OPEN ? ")" : "]"));
+    }
+  }
+}
+
+// End NumberIntervals.java
@@ -0,0 +1,220 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+import net.hydromatic.filtex.ast.AstNode;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Static index of points, which finds the points that match a location
+ * filter.
+ *
+ * <p>The index is an implicit k-d tree, stored in three arrays of the same
+ * length: latitudes, longitudes and point ids, permuted so that each range
+ * of the arrays is a subtree. The root of the range {@code [lo, hi)} is the
+ * point at its middle, {@code m = (lo + hi) / 2}; points in {@code [lo, m)}
+ * have a coordinate less than or equal to the root's, and points in
+ * {@code [m + 1, hi)} greater than or equal to it. The coordinate is
+ * latitude at even depths and longitude at odd depths. Ranges of at most
+ * {@link #LEAF_SIZE} points are not divided further.
+ *
+ * <p>A query finds the bounding boxes of the filter (see
+ * {@link LocationCompiler}), skips subtrees that are outside all of the
+ * boxes, and tests each remaining point with the filter's predicate. A
+ * filter that is not bounded, such as "{@code is anywhere}", tests every
+ * point.
+ *
+ * <p>Building the index takes {@code O(n log n)} time, copies the
+ * coordinate arrays, and creates no object per point. Points with a NaN
+ * coordinate are treated as null, and omitted. An index is
+ * immutable and may be used by several threads at once.
+ */
+public class PointIndex {
+  /** Largest range of points that is scanned rather than divided. */
+  static final int LEAF_SIZE = 16;
+
+  private final double[] latitudes;
+  private final double[] longitudes;
+  private final int[] ids;
+
+  private PointIndex(double[] latitudes, double[] longitudes, int[] ids) {
+    this.latitudes = latitudes;
+    this.longitudes = longitudes;
+    this.ids = ids;
+    build(0, ids.length, 0);
+  }
+
+  /** Creates an index of points whose ids are their positions in the
+   * arrays. */
+  public static PointIndex of(double[] latitudes, double[] longitudes) {
+    checkArgument(latitudes.length == longitudes.length,
+        "latitudes and longitudes must have the same length");
+    int n = 0;
+    final double[] lats = new double[latitudes.length];
+    final double[] lons = new double[latitudes.length];
+    final int[] ids = new int[latitudes.length];
+    for (int i = 0; i < latitudes.length; i++) {
+      if (!Double.isNaN(latitudes[i]) && !Double.isNaN(longitudes[i])) {
+        lats[n] = latitudes[i];
+        lons[n] = longitudes[i];
+        ids[n] = i;
+        ++n;
+      }
+    }
+    return new PointIndex(Arrays.copyOf(lats, n), Arrays.copyOf(lons, n),
+        Arrays.copyOf(ids, n));
+  }
+
+  /** Returns the number of points in the index. */
+  public int size() {
+    return ids.length;
+  }
+
+  /** Returns the ids of the points that match a location filter, in
+   * ascending order. */
+  public int[] select(AstNode node) {
+    final LocationPredicate predicate = LocationCompiler.compile(node);
+    final List<double[]> boxes = LocationCompiler.bounds(node);
+    final Selection selection = new Selection();
+    if (boxes == null) {
+      for (int i = 0; i < ids.length; i++) {
+        if (predicate.test(latitudes[i], longitudes[i])) {
+          selection.add(ids[i]);
+        }
+      }
+    } else if (!boxes.isEmpty()) {
+      query(0, ids.length, 0, boxes.toArray(new double[0][]), predicate,
+          selection);
+    }
+    return selection.toSortedArray();
+  }
+
+  /** Arranges the points in {@code [lo, hi)} as a subtree whose root
+   * splits on latitude (if {@code axis} is 0) or longitude (if 1). */
+  private void build(int lo, int hi, int axis) {
+    while (hi - lo > LEAF_SIZE) {
+      final int m = (lo + hi) >>> 1;
+      select(lo, hi, m, axis == 0 ? latitudes : longitudes);
+      build(lo, m, 1 - axis);
+      lo = m + 1;
+      axis = 1 - axis;
+    }
+  }
+
+  /** Rearranges the points in {@code [lo, hi)} so that the point at
+   * {@code k} has the coordinate it would have if they were sorted, points
+   * before it have a coordinate less than or equal, and points after it
+   * greater than or equal (Hoare's selection algorithm). */
+  private void select(int lo, int hi, int k, double[] keys) {
+    int left = lo;
+    int right = hi - 1;
+    while (left < right) {
+      final double pivot = keys[(left + right) >>> 1];
+      int i = left;
+      int j = right;
+      while (i <= j) {
+        while (keys[i] < pivot) {
+          ++i;
+        }
+        while (keys[j] > pivot) {
+          --j;
+        }
+        if (i <= j) {
+          swap(i++, j--);
+        }
+      }
+      if (k <= j) {
+        right = j;
+      } else if (k >= i) {
+        left = i;
+      } else {
+        return;
+      }
+    }
+  }
+
+  private void swap(int i, int j) {
+    final double lat = latitudes[i];
+    latitudes[i] = latitudes[j];
+    latitudes[j] = lat;
+    final double lon = longitudes[i];
+    longitudes[i] = longitudes[j];
+    longitudes[j] = lon;
+    final int id = ids[i];
+    ids[i] = ids[j];
+    ids[j] = id;
+  }
+
+  /** Adds the ids of matching points in the subtree {@code [lo, hi)}.
+   * Each box is {@code [south, north, west, east]}. */
+  private void query(int lo, int hi, int axis, double[][] boxes,
+      LocationPredicate predicate, Selection selection) {
+    while (hi - lo > LEAF_SIZE) {
+      final int m = (lo + hi) >>> 1;
+      final double v = axis == 0 ? latitudes[m] : longitudes[m];
+      boolean left = false;
+      boolean right = false;
+      for (double[] box : boxes) {
+        left |= box[axis * 2] <= v;
+        right |= box[axis * 2 + 1] >= v;
+      }
+      if (left && right) {
+        // The root may be in a box; both subtrees may have points in boxes
+        if (predicate.test(latitudes[m], longitudes[m])) {
+          selection.add(ids[m]);
+        }
+        query(lo, m, 1 - axis, boxes, predicate, selection);
+        lo = m + 1;
+      } else if (left) {
+        hi = m;
+      } else {
+        lo = m + 1;
+      }
+      axis = 1 - axis;
+    }
+    for (int i = lo; i < hi; i++) {
+      if (predicate.test(latitudes[i], longitudes[i])) {
+        selection.add(ids[i]);
+      }
+    }
+  }
+
+  /** Growable array of point ids. */
+  private static class Selection {
+    int[] ids = new int[16];
+    int count;
+
+    void add(int id) {
+      if (count == ids.length) {
+        ids = Arrays.copyOf(ids, count * 2);
+      }
+      ids[count++] = id;
+    }
+
+    int[] toSortedArray() {
+      final int[] result = Arrays.copyOf(ids, count);
+      Arrays.sort(result);
+      return result;
+    }
+  }
+}
+
+// End PointIndex.java
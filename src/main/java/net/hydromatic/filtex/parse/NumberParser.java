@@ -0,0 +1,481 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.parse;
+
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.ast.Bound;
+import net.hydromatic.filtex.ast.Op;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.hydromatic.filtex.ast.AstBuilder.ast;
+
+/**
+ * Hand-written parser for numeric filter expressions.
+ *
+ * <p>Recognizes the same language as
+ * {@link FiltexParserImpl#numericExpressionEof()} in a single pass, and
+ * builds the same AST, but does not create a token manager, tokens, or
+ * strings for keywords and small numbers.
+ *
+ * <p>It is a fast path, not a replacement. If it sees anything it does not
+ * recognize, including anything that the generated parser would reject or
+ * that the generated lexer might tokenize differently (such as "2018-05" or
+ * "{{"), {@link #parse(CharSequence)} returns null, and the caller should
+ * use the generated parser.
+ */
+public class NumberParser {
+  // Token kinds
+  private static final int EOF = 0;
+  private static final int NUMBER = 1;
+  private static final int COMMA = 2;
+  private static final int AND = 3;
+  private static final int OR = 4;
+  private static final int NOT = 5;
+  private static final int NULL = 6;
+  private static final int TO = 7;
+  private static final int INF = 8;
+  private static final int MINUS_INF = 9;
+  private static final int NE = 10;
+  private static final int GT = 11;
+  private static final int GE = 12;
+  private static final int LT = 13;
+  private static final int LE = 14;
+  private static final int LPAREN = 15;
+  private static final int RPAREN = 16;
+  private static final int LBRACKET = 17;
+  private static final int RBRACKET = 18;
+  /** Something this parser does not recognize. */
+  private static final int UNKNOWN = 19;
+
+  /** Numbers with more digits than this are converted via a string. */
+  private static final int MAX_LONG_DIGITS = 18;
+
+  private final CharSequence s;
+  private int pos;
+  /** Kind of the current token. */
+  private int kind;
+  /** Value of the current token, if it is a {@link #NUMBER}. */
+  private @Nullable BigDecimal number;
+
+  private NumberParser(CharSequence s) {
+    this.s = s;
+    next();
+  }
+
+  /** Parses a numeric expression, returning its AST, or null if the
+   * expression should be parsed by {@link FiltexParserImpl}. */
+  public static @Nullable AstNode parse(CharSequence s) {
+    return new NumberParser(s).expression();
+  }
+
+  // Parser
+
+  private @Nullable AstNode expression() {
+    final List<AstNode> list = new ArrayList<>(2);
+    for (;;) {
+      final AstNode node = term();
+      if (node == null) {
+        return null;
+      }
+      list.add(node);
+      switch (kind) {
+      case COMMA:
+      case OR:
+        next();
+        break;
+      case EOF:
+        return ast.logicalExpression(list);
+      default:
+        return null;
+      }
+    }
+  }
+
+  private @Nullable AstNode term() {
+    final boolean is;
+    if (kind == NOT || kind == NE) {
+      is = false;
+      next();
+    } else {
+      is = true;
+    }
+    switch (kind) {
+    case NULL:
+      next();
+      return ast.isNull(is);
+    case GT:
+    case GE:
+      return intervalComp1(is);
+    case LT:
+    case LE:
+      return intervalComp2(is);
+    case NUMBER:
+    case TO:
+      return to(is);
+    case LPAREN:
+    case LBRACKET:
+      return interval(is);
+    default:
+      return null;
+    }
+  }
+
+  /** Parses "{@code > 10}", "{@code >= 7 AND < 80.44}",
+   * "{@code > 80.44 OR <= 7}". */
+  private @Nullable AstNode intervalComp1(boolean is) {
+    final Bound leftBound = kind == GT ? Bound.OPEN : Bound.CLOSED;
+    next();
+    final BigDecimal left = number();
+    if (left == null) {
+      return null;
+    }
+    if (kind != AND && kind != OR) {
+      return ast.between(is, leftBound, Bound.ABSENT, left, null);
+    }
+    final boolean reverse = kind == OR;
+    next();
+    if (kind != LT && kind != LE) {
+      return null;
+    }
+    final Bound rightBound = kind == LT ? Bound.OPEN : Bound.CLOSED;
+    next();
+    final BigDecimal right = number();
+    if (right == null) {
+      return null;
+    }
+    return reverse
+        ? ast.between(!is, leftBound.flip(), rightBound.flip(), right, left)
+        : ast.between(is, leftBound, rightBound, left, right);
+  }
+
+  /** Parses "{@code < 10}", "{@code <= 80.44 AND > 7}",
+   * "{@code < 7 OR >= 80.44}". */
+  private @Nullable AstNode intervalComp2(boolean is) {
+    final Bound leftBound = kind == LT ? Bound.OPEN : Bound.CLOSED;
+    next();
+    final BigDecimal left = number();
+    if (left == null) {
+      return null;
+    }
+    if (kind != AND && kind != OR) {
+      return ast.between(is, Bound.ABSENT, leftBound, null, left);
+    }
+    final boolean reverse = kind == OR;
+    next();
+    if (kind != GT && kind != GE) {
+      return null;
+    }
+    final Bound rightBound = kind == GT ? Bound.OPEN : Bound.CLOSED;
+    next();
+    final BigDecimal right = number();
+    if (right == null) {
+      return null;
+    }
+    return reverse
+        ? ast.between(!is, rightBound.flip(), leftBound.flip(), left, right)
+        : ast.between(is, rightBound, leftBound, right, left);
+  }
+
+  /** Parses "5", "5 to 10", "5 to", "to 10". */
+  private @Nullable AstNode to(boolean is) {
+    if (kind == TO) {
+      next();
+      final BigDecimal end = number();
+      return end == null ? null : ast.between(Op.ABSENT_CLOSED, is, end);
+    }
+    final BigDecimal begin = number();
+    if (begin == null) {
+      return null;
+    }
+    if (kind != TO) {
+      return ast.numberLiteral(is, begin);
+    }
+    next();
+    if (kind != NUMBER) {
+      return ast.between(Op.CLOSED_ABSENT, is, begin);
+    }
+    final BigDecimal end = number();
+    return ast.between(is, Bound.CLOSED, Bound.CLOSED, begin, end);
+  }
+
+  /** Parses "[0, 10)", "(-inf, 10]", "(5,)". */
+  private @Nullable AstNode interval(boolean is) {
+    Bound leftBound = kind == LPAREN ? Bound.OPEN : Bound.CLOSED;
+    next();
+    final @Nullable BigDecimal left;
+    if (kind == NUMBER) {
+      left = number();
+    } else {
+      if (kind == MINUS_INF) {
+        next();
+      }
+      left = null;
+    }
+    if (kind != COMMA) {
+      return null;
+    }
+    next();
+    final @Nullable BigDecimal right;
+    if (kind == NUMBER) {
+      right = number();
+    } else {
+      if (kind == INF) {
+        next();
+      }
+      right = null;
+    }
+    if (kind != RPAREN && kind != RBRACKET) {
+      return null;
+    }
+    Bound rightBound = kind == RPAREN ? Bound.OPEN : Bound.CLOSED;
+    next();
+    if (left == null && right == null) {
+      // The generated parser throws "unbounded interval"
+      return null;
+    }
+    if (left == null) {
+      leftBound = Bound.ABSENT;
+    }
+    if (right == null) {
+      rightBound = Bound.ABSENT;
+    }
+    return ast.between(is, leftBound, rightBound, left, right);
+  }
+
+  /** If the current token is a number, returns its value and moves to the
+   * next token; otherwise returns null. */
+  private @Nullable BigDecimal number() {
+    if (kind != NUMBER) {
+      return null;
+    }
+    final BigDecimal value = number;
+    next();
+    return value;
+  }
+
+  // Lexer
+
+  /** Reads the next token, and sets {@link #kind}. */
+  private void next() {
+    final int length = s.length();
+    while (pos < length && isWhitespace(s.charAt(pos))) {
+      ++pos;
+    }
+    if (pos >= length) {
+      kind = EOF;
+      return;
+    }
+    final char c = s.charAt(pos);
+    switch (c) {
+    case ',':
+      single(COMMA);
+      return;
+    case '(':
+      single(LPAREN);
+      return;
+    case ')':
+      single(RPAREN);
+      return;
+    case '[':
+      single(LBRACKET);
+      return;
+    case ']':
+      single(RBRACKET);
+      return;
+    case '>':
+      if (charAt(pos + 1) == '=') {
+        pos += 2;
+        kind = GE;
+      } else {
+        single(GT);
+      }
+      return;
+    case '<':
+      if (charAt(pos + 1) == '=') {
+        pos += 2;
+        kind = LE;
+      } else if (charAt(pos + 1) == '>') {
+        pos += 2;
+        kind = NE;
+      } else {
+        single(LT);
+      }
+      return;
+    case '!':
+      if (charAt(pos + 1) == '=') {
+        pos += 2;
+        kind = NE;
+      } else {
+        kind = UNKNOWN;
+      }
+      return;
+    case '-':
+      if (isLetter(charAt(pos + 1))) {
+        ++pos;
+        kind = word() == INF ? MINUS_INF : UNKNOWN;
+      } else {
+        scanNumber();
+      }
+      return;
+    default:
+      if (c == '.' || isDigit(c)) {
+        scanNumber();
+      } else if (isLetter(c)) {
+        kind = word();
+      } else {
+        kind = UNKNOWN;
+      }
+    }
+  }
+
+  private void single(int kind) {
+    ++pos;
+    this.kind = kind;
+  }
+
+  /** Returns the character at a given index, or 0 if past the end. */
+  private char charAt(int i) {
+    return i < s.length() ? s.charAt(i) : 0;
+  }
+
+  /** Reads a run of letters, and returns the kind of keyword, or
+   * {@link #UNKNOWN}. */
+  private int word() {
+    final int start = pos;
+    while (isLetter(charAt(pos))) {
+      ++pos;
+    }
+    switch (pos - start) {
+    case 2:
+      return matches(start, "TO") ? TO
+          : matches(start, "OR") ? OR
+          : UNKNOWN;
+    case 3:
+      return matches(start, "NOT") ? NOT
+          : matches(start, "AND") ? AND
+          : matches(start, "INF") ? INF
+          : UNKNOWN;
+    case 4:
+      return matches(start, "NULL") ? NULL : UNKNOWN;
+    default:
+      return UNKNOWN;
+    }
+  }
+
+  /** Returns whether the characters starting at {@code start} match an
+   * upper-case keyword, ignoring case. */
+  private boolean matches(int start, String keyword) {
+    for (int i = 0; i < keyword.length(); i++) {
+      if ((s.charAt(start + i) & ~0x20) != keyword.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Reads a number, such as "-12", "3.5", ".5" or "1e-3", and sets
+   * {@link #kind} to {@link #NUMBER} and {@link #number} to its value.
+   *
+   * <p>If the number is followed by "-", ":", "/" or ".", the generated
+   * lexer would read it as part of a longer token (such as "2018-05") or
+   * reject it; we set {@link #kind} to {@link #UNKNOWN}. */
+  private void scanNumber() {
+    final int start = pos;
+    boolean negative = false;
+    if (charAt(pos) == '-') {
+      negative = true;
+      ++pos;
+    }
+    long unscaled = 0;
+    int digitCount = 0;
+    int scale = 0;
+    while (isDigit(charAt(pos))) {
+      unscaled = unscaled * 10 + (s.charAt(pos++) - '0');
+      ++digitCount;
+    }
+    if (charAt(pos) == '.' && isDigit(charAt(pos + 1))) {
+      ++pos;
+      while (isDigit(charAt(pos))) {
+        unscaled = unscaled * 10 + (s.charAt(pos++) - '0');
+        ++digitCount;
+        ++scale;
+      }
+    } else if (digitCount == 0) {
+      kind = UNKNOWN;
+      return;
+    }
+    boolean exponent = false;
+    final char e = charAt(pos);
+    if (e == 'e' || e == 'E') {
+      int p = pos + 1;
+      if (charAt(p) == '-') {
+        ++p;
+      }
+      if (isDigit(charAt(p))) {
+        pos = p;
+        while (isDigit(charAt(pos))) {
+          ++pos;
+        }
+        exponent = true;
+      }
+    }
+    switch (charAt(pos)) {
+    case '-':
+    case ':':
+    case '/':
+    case '.':
+      kind = UNKNOWN;
+      return;
+    default:
+      break;
+    }
+    kind = NUMBER;
+    if (exponent || digitCount > MAX_LONG_DIGITS) {
+      number = new BigDecimal(s.subSequence(start, pos).toString());
+    } else {
+      number = BigDecimal.valueOf(negative ? -unscaled : unscaled, scale);
+    }
+  }
+
+  private static boolean isWhitespace(char c) {
+    switch (c) {
+    case ' ':
+    case '\t':
+    case '\n':
+    case '\r':
+    case '\f':
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isLetter(char c) {
+    return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+  }
+}
+
+// End NumberParser.java
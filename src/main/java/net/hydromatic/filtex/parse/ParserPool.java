@@ -0,0 +1,159 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.parse;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Pool of parsers.
+ *
+ * <p>Creating a {@link FiltexParserImpl} allocates a token manager and
+ * several arrays. A pool keeps parsers after use and re-initializes them,
+ * via {@link FiltexParserImpl#ReInit(CharStream)}, for the next expression.
+ * Each parser keeps its {@link StringCharStream}, and points it at the new
+ * expression.
+ *
+ * <p>The parsers are instances of {@link QuietParser}, and therefore do not
+ * generate detailed error messages.
+ *
+ * <p>Call {@link #acquire(CharSequence)} to get a parser, and
+ * {@link #release(QuietParser)} when you have finished with it. If
+ * parsing threw something other than a {@link ParseException}, the parser
+ * may be in an inconsistent state; call {@link #discard(QuietParser)}
+ * instead.
+ *
+ * <p>There are two implementations. {@link #threadLocal()} keeps one parser
+ * per thread, and is best for a fixed pool of platform threads.
+ * {@link #bounded(int)} keeps a shared queue of parsers, does not use thread
+ * locals or locks, and is therefore suitable for virtual threads.
+ */
+public abstract class ParserPool {
+  /** Creates a pool that holds one parser per thread. */
+  public static ParserPool threadLocal() {
+    return new ThreadLocalParserPool();
+  }
+
+  /** Creates a pool that holds at most {@code capacity} idle parsers,
+   * shared among all threads. */
+  public static ParserPool bounded(int capacity) {
+    checkArgument(capacity >= 0, "capacity must be non-negative");
+    return new BoundedParserPool(capacity);
+  }
+
+  /** Returns a parser that is ready to parse the given expression. */
+  public abstract QuietParser acquire(CharSequence expression);
+
+  /** Returns a parser to the pool. */
+  public abstract void release(QuietParser parser);
+
+  /** Informs the pool that a parser should not be re-used. */
+  public abstract void discard(QuietParser parser);
+
+  /** Creates a parser, or re-initializes an existing one. */
+  static QuietParser init(@Nullable QuietParser parser,
+      CharSequence expression) {
+    if (parser == null) {
+      return new QuietParser(new StringCharStream(expression));
+    }
+    final CharStream stream = parser.token_source.input_stream;
+    parser.ReInit(stream instanceof StringCharStream
+        ? ((StringCharStream) stream).reset(expression)
+        : new StringCharStream(expression));
+    return parser;
+  }
+
+  /** Pool that holds one parser per thread.
+   *
+   * <p>If a thread acquires a second parser before it has released the
+   * first, the second is created afresh and is not retained. */
+  private static class ThreadLocalParserPool extends ParserPool {
+    private final ThreadLocal<Slot> slots = ThreadLocal.withInitial(Slot::new);
+
+    @Override public QuietParser acquire(CharSequence expression) {
+      final Slot slot = slots.get();
+      if (slot.inUse) {
+        return init(null, expression);
+      }
+      slot.parser = init(slot.parser, expression);
+      slot.inUse = true;
+      return slot.parser;
+    }
+
+    @Override public void release(QuietParser parser) {
+      final Slot slot = slots.get();
+      if (slot.parser == parser) {
+        slot.inUse = false;
+      }
+    }
+
+    @Override public void discard(QuietParser parser) {
+      final Slot slot = slots.get();
+      if (slot.parser == parser) {
+        slot.parser = null;
+        slot.inUse = false;
+      }
+    }
+
+    /** A thread's parser, and whether it is currently acquired. */
+    private static class Slot {
+      @Nullable QuietParser parser;
+      boolean inUse;
+    }
+  }
+
+  /** Pool that holds up to a fixed number of idle parsers in a lock-free
+   * queue. */
+  private static class BoundedParserPool extends ParserPool {
+    private final Queue<QuietParser> idle =
+        new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final int capacity;
+
+    BoundedParserPool(int capacity) {
+      this.capacity = capacity;
+    }
+
+    @Override public QuietParser acquire(CharSequence expression) {
+      final @Nullable QuietParser parser = idle.poll();
+      if (parser != null) {
+        idleCount.decrementAndGet();
+      }
+      return init(parser, expression);
+    }
+
+    @Override public void release(QuietParser parser) {
+      if (idleCount.incrementAndGet() <= capacity) {
+        idle.offer(parser);
+      } else {
+        idleCount.decrementAndGet();
+      }
+    }
+
+    @Override public void discard(QuietParser parser) {
+      // Nothing to do. The parser is not in the queue, and will be
+      // garbage-collected.
+    }
+  }
+}
+
+// End ParserPool.java
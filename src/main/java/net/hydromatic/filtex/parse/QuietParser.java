@@ -0,0 +1,87 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.parse;
+
+import net.hydromatic.filtex.ast.Pos;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Parser that reports syntax errors cheaply.
+ *
+ * <p>When it encounters an error, a regular {@link FiltexParserImpl}
+ * computes the set of expected tokens, formats a message, fills in a stack
+ * trace, and throws a new {@link ParseException}. A {@code QuietParser}
+ * instead records the position of the error, available via
+ * {@link #errorPos()}, and throws a shared exception that has no message and
+ * no stack trace.
+ *
+ * <p>Use this parser when you only need to know whether an expression is
+ * valid. If you need to explain the error to a user, parse again with a
+ * regular {@link FiltexParserImpl}.
+ */
+public class QuietParser extends FiltexParserImpl {
+  /** The exception thrown for all errors, shared by all parsers and
+   * threads. It has no message and no stack trace, and this class never
+   * writes to it. It is not immutable: it inherits the public mutable
+   * fields of {@link ParseException} ({@code currentToken},
+   * {@code expectedTokenSequences}, {@code tokenImage}), which are null, and
+   * callers must not assign them or add suppressed exceptions to it. */
+  private static final ParseException ERROR = new QuietParseException();
+
+  private @Nullable Pos errorPos;
+
+  /** Creates a QuietParser. */
+  public QuietParser(CharStream stream) {
+    super(stream);
+  }
+
+  @Override public void ReInit(CharStream stream) {
+    super.ReInit(stream);
+    errorPos = null;
+  }
+
+  /** Returns the position of the token at which the most recent error
+   * occurred, or null if there has been no error since the parser was
+   * created or re-initialized. */
+  public @Nullable Pos errorPos() {
+    return errorPos;
+  }
+
+  @Override public ParseException generateParseException() {
+    // The offending token is the one after the last consumed token.
+    final Token t = token.next != null ? token.next : token;
+    errorPos = new Pos("", t.beginLine, t.beginColumn, t.endLine,
+        t.endColumn + 1);
+    return ERROR;
+  }
+
+  @Override protected ParseException error(String message) {
+    errorPos = pos();
+    return ERROR;
+  }
+
+  /** Parse exception that has no message and does not fill in its stack
+   * trace. */
+  private static class QuietParseException extends ParseException {
+    @Override public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+}
+
+// End QuietParser.java
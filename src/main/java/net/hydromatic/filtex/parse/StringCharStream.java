@@ -0,0 +1,220 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.parse;
+
+import java.io.IOException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Implementation of {@link CharStream} that reads directly from a
+ * {@link CharSequence}, such as a {@link String}.
+ *
+ * <p>JavaCC's default stream reads from a {@link java.io.Reader} into a
+ * buffer of several kilobytes, and records the line and column of every
+ * character it reads. Filter expressions are short and already in memory,
+ * so this stream indexes into the sequence, and computes lines and columns
+ * only when the token manager asks for them.
+ *
+ * <p>Line and column numbers follow the same rules as JavaCC's
+ * {@code SimpleCharStream}: lines and columns start at 1; "\r", "\n" and
+ * "\r\n" each end a line; a tab advances the column to the next tab stop.
+ *
+ * <p>Call {@link #reset(CharSequence)} to re-use a stream for another
+ * expression.
+ */
+public class StringCharStream implements CharStream {
+  /** Thrown at end of input. The token manager catches it and does not look
+   * at it, so it is shared and has no stack trace. */
+  private static final IOException EOF = new EofException();
+
+  private CharSequence s;
+  /** Index of the most recently read character; -1 if none have been
+   * read. */
+  private int pos;
+  /** Index of the first character of the current token. */
+  private int tokenBegin;
+  private int tabSize = 1;
+  private boolean trackLineColumn = true;
+
+  // Line and column of the character at index "lcIndex", and the state
+  // needed to compute subsequent lines and columns. Tokens are requested in
+  // order, so we usually only need to move forward.
+  private int lcIndex;
+  private int line;
+  private int column;
+  private boolean prevCharIsCR;
+  private boolean prevCharIsLF;
+
+  /** Creates a StringCharStream. */
+  public StringCharStream(CharSequence s) {
+    reset(s);
+  }
+
+  /** Re-initializes this stream to read from a different sequence. */
+  public StringCharStream reset(CharSequence s) {
+    this.s = requireNonNull(s);
+    pos = -1;
+    tokenBegin = 0;
+    resetLineColumn();
+    return this;
+  }
+
+  private void resetLineColumn() {
+    lcIndex = -1;
+    line = 1;
+    column = 0;
+    prevCharIsCR = false;
+    prevCharIsLF = false;
+  }
+
+  /** Moves the line/column state to the character at index {@code i}. */
+  private void seek(int i) {
+    if (i < lcIndex) {
+      resetLineColumn();
+    }
+    while (lcIndex < i) {
+      final char c = s.charAt(++lcIndex);
+      ++column;
+      if (prevCharIsLF) {
+        prevCharIsLF = false;
+        line += column = 1;
+      } else if (prevCharIsCR) {
+        prevCharIsCR = false;
+        if (c == '\n') {
+          prevCharIsLF = true;
+        } else {
+          line += column = 1;
+        }
+      }
+      switch (c) {
+      case '\r':
+        prevCharIsCR = true;
+        break;
+      case '\n':
+        prevCharIsLF = true;
+        break;
+      case '\t':
+        --column;
+        column += tabSize - (column % tabSize);
+        break;
+      default:
+        break;
+      }
+    }
+  }
+
+  private int lineAt(int i) {
+    seek(i);
+    return line;
+  }
+
+  private int columnAt(int i) {
+    seek(i);
+    return column;
+  }
+
+  @Override public char readChar() throws IOException {
+    if (pos + 1 >= s.length()) {
+      throw EOF;
+    }
+    return s.charAt(++pos);
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override public int getColumn() {
+    return getEndColumn();
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override public int getLine() {
+    return getEndLine();
+  }
+
+  @Override public int getEndColumn() {
+    return columnAt(pos);
+  }
+
+  @Override public int getEndLine() {
+    return lineAt(pos);
+  }
+
+  @Override public int getBeginColumn() {
+    return columnAt(tokenBegin);
+  }
+
+  @Override public int getBeginLine() {
+    return lineAt(tokenBegin);
+  }
+
+  @Override public void backup(int amount) {
+    pos -= amount;
+  }
+
+  @Override public char BeginToken() throws IOException {
+    if (pos + 1 >= s.length()) {
+      tokenBegin = pos;
+      throw EOF;
+    }
+    tokenBegin = ++pos;
+    return s.charAt(pos);
+  }
+
+  @Override public String GetImage() {
+    return s.subSequence(tokenBegin, pos + 1).toString();
+  }
+
+  @Override public char[] GetSuffix(int len) {
+    final char[] chars = new char[len];
+    for (int i = 0; i < len; i++) {
+      chars[i] = s.charAt(pos - len + 1 + i);
+    }
+    return chars;
+  }
+
+  @Override public void Done() {
+    // Nothing to release.
+  }
+
+  @Override public void setTabSize(int tabSize) {
+    this.tabSize = tabSize;
+    resetLineColumn();
+  }
+
+  @Override public int getTabSize() {
+    return tabSize;
+  }
+
+  @Override public boolean getTrackLineColumn() {
+    return trackLineColumn;
+  }
+
+  @Override public void setTrackLineColumn(boolean trackLineColumn) {
+    // Lines and columns cost nothing unless they are asked for, so we
+    // record the flag but always track.
+    this.trackLineColumn = trackLineColumn;
+  }
+
+  /** Signals end of input. Does not fill in its stack trace. */
+  private static class EofException extends IOException {
+    @Override public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+}
+
+// End StringCharStream.java
@@ -0,0 +1,111 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * A sequence of characters backed by a region of a {@link ByteBuffer} that
+ * contains only ASCII bytes.
+ *
+ * <p>Each byte is one character, so the sequence does not need to be
+ * decoded or copied. Use {@link #decode(ByteBuffer)} to read UTF-8 text; it
+ * returns an {@code AsciiCharSequence} if the text is ASCII, and decodes the
+ * text into a {@link String} otherwise.
+ */
+public class AsciiCharSequence implements CharSequence {
+  private final ByteBuffer buffer;
+  private final int start;
+  private final int length;
+
+  private AsciiCharSequence(ByteBuffer buffer, int start, int length) {
+    this.buffer = buffer;
+    this.start = start;
+    this.length = length;
+  }
+
+  /** Returns the characters in the remaining bytes of a buffer, which are
+   * encoded in UTF-8. Does not change the buffer's position.
+   *
+   * <p>If every byte is ASCII, returns a view onto the buffer; the caller
+   * must not modify those bytes while the view is in use. Otherwise,
+   * returns a newly decoded string. */
+  public static CharSequence decode(ByteBuffer buffer) {
+    final int start = buffer.position();
+    final int end = buffer.limit();
+    if (buffer.hasArray()) {
+      final byte[] bytes = buffer.array();
+      final int offset = buffer.arrayOffset();
+      for (int i = start; i < end; i++) {
+        if (bytes[offset + i] < 0) {
+          // CHECKSTYLE: IGNORE 1
+          return new String(bytes, offset + start, end - start,
+              StandardCharsets.UTF_8);
+        }
+      }
+    } else {
+      for (int i = start; i < end; i++) {
+        if (buffer.get(i) < 0) {
+          return StandardCharsets.UTF_8.decode(buffer.duplicate())
+              .toString();
+        }
+      }
+    }
+    return new AsciiCharSequence(buffer, start, end - start);
+  }
+
+  /** As {@link #decode(ByteBuffer)}, for a region of a byte array. */
+  public static CharSequence decode(byte[] bytes, int offset, int length) {
+    return decode(ByteBuffer.wrap(bytes, offset, length));
+  }
+
+  @Override public int length() {
+    return length;
+  }
+
+  @Override public char charAt(int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("index " + index + ", length "
+          + length);
+    }
+    return (char) buffer.get(start + index);
+  }
+
+  @Override public CharSequence subSequence(int start, int end) {
+    checkPositionIndexes(start, end, length);
+    return new AsciiCharSequence(buffer, this.start + start, end - start);
+  }
+
+  @Override public String toString() {
+    if (buffer.hasArray()) {
+      // CHECKSTYLE: IGNORE 1
+      return new String(buffer.array(), buffer.arrayOffset() + start, length,
+          StandardCharsets.ISO_8859_1);
+    }
+    final byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(start + i);
+    }
+    // CHECKSTYLE: IGNORE 1
+    return new String(bytes, StandardCharsets.ISO_8859_1);
+  }
+}
+
+// End AsciiCharSequence.java
@@ -0,0 +1,71 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex.eval;
+
+import net.hydromatic.filtex.eval.BatchEvaluator.Kernel;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels that use the JDK Vector API.
+ *
+ * <p>This class is compiled for JDK 17 and is in the
+ * {@code META-INF/versions/17} part of the jar. {@link BatchEvaluator}
+ * loads it by name, and uses scalar kernels if it cannot be loaded.
+ *
+ * <p>Each kernel computes a word of 64 results by comparing one vector of
+ * values at a time, and shifting the vector's mask into place. The
+ * preferred species has 1, 2, 4 or 8 lanes, each of which divides 64. The
+ * last word of a batch may have fewer than 64 values; the kernel uses a
+ * scalar loop for it.
+ */
+class VectorKernels implements KernelFactory {
+  private static final VectorSpecies<Double> DOUBLE_SPECIES =
+      DoubleVector.SPECIES_PREFERRED;
+
+  /** {@inheritDoc}
+   *
+   * <p>Returns a scalar kernel. C2 compiles the scalar loop, which uses a
+   * single unsigned comparison, so well that in {@code VectorBenchmark} a
+   * vector kernel was no faster, and for some filters slower. */
+  @Override public Kernel<long[]> longRange(long lo, long hi) {
+    return BatchEvaluator.scalarLongRange(lo, hi);
+  }
+
+  @Override public Kernel<double[]> doubleRange(double lo, double hi) {
+    final Kernel<double[]> scalar = BatchEvaluator.scalarDoubleRange(lo, hi);
+    final int lanes = DOUBLE_SPECIES.length();
+    return (values, start, n) -> {
+      if (n < 64) {
+        return scalar.word(values, start, n);
+      }
+      long word = 0L;
+      for (int i = 0; i < 64; i += lanes) {
+        final DoubleVector v =
+            DoubleVector.fromArray(DOUBLE_SPECIES, values, start + i);
+        word |= v.compare(VectorOperators.GE, lo)
+            .and(v.compare(VectorOperators.LE, hi))
+            .toLong() << i;
+      }
+      return word;
+    };
+  }
+}
+
+// End VectorKernels.java
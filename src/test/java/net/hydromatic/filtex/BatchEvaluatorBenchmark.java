@@ -0,0 +1,110 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex;
+
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.eval.BatchEvaluator;
+import net.hydromatic.filtex.eval.NumberCompiler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
+
+/**
+ * Compares evaluating a numeric filter against a column of 64k longs using
+ * {@link BatchEvaluator} with calling a {@link LongPredicate} for each
+ * row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchEvaluatorBenchmark {
+  private static final int COUNT = 65_536;
+
+  @Param({"[0,20],>30", "<7 OR >80.44", "1, 5, [10, 20], > 100, not 7",
+      "not 3, not 4, NULL"})
+  String expression;
+
+  long[] values;
+  long[] validity;
+  long[] bits;
+  LongPredicate predicate;
+  boolean matchesNull;
+  BatchEvaluator<long[]> evaluator;
+
+  @Setup public void setup() {
+    final Random random = new Random(0);
+    values = new long[COUNT];
+    for (int i = 0; i < COUNT; i++) {
+      values[i] = random.nextInt(200) - 50;
+    }
+    validity = new long[BatchEvaluator.wordCount(COUNT)];
+    for (int w = 0; w < validity.length; w++) {
+      // About 1 in 16 values is null
+      validity[w] = ~(random.nextLong() & random.nextLong()
+          & random.nextLong() & random.nextLong());
+    }
+    bits = new long[validity.length];
+    final AstNode node =
+        Filtex.parseFilterExpression(TypeFamily.NUMBER, expression);
+    predicate = NumberCompiler.compileLong(node);
+    matchesNull = NumberCompiler.matchesNull(node);
+    evaluator = BatchEvaluator.ofLong(node);
+  }
+
+  /** Calls the predicate for each non-null row, and sets bits one at a
+   * time. */
+  @Benchmark public long[] perRow() {
+    final long[] bits = this.bits;
+    for (int w = 0; w < bits.length; w++) {
+      final long valid = validity[w];
+      long word = 0L;
+      for (int j = 0; j < 64; j++) {
+        final boolean b = (valid & (1L << j)) != 0
+            ? predicate.test(values[w * 64 + j])
+            : matchesNull;
+        if (b) {
+          word |= 1L << j;
+        }
+      }
+      bits[w] = word;
+    }
+    return bits;
+  }
+
+  @Benchmark public long[] batch() {
+    evaluator.evaluate(values, validity, COUNT, bits);
+    return bits;
+  }
+}
+
+// End BatchEvaluatorBenchmark.java
@@ -0,0 +1,92 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex;
+
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.eval.DateIntervals;
+import net.hydromatic.filtex.eval.DateResolutions;
+import net.hydromatic.filtex.eval.DateResolver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares resolving a relative date filter as of every hour of a year
+ * using {@link DateResolver#resolveBatch(AstNode, long[])} with creating a
+ * resolver for each instant.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchResolverBenchmark {
+  private static final ZoneId ZONE = ZoneId.of("America/New_York");
+
+  @Param({"3 months ago for 2 days", "last 7 days", "this year to day"})
+  String expression;
+
+  AstNode node;
+  long[] instants;
+  DateResolver resolver;
+
+  @Setup public void setup() {
+    node = Filtex.parseFilterExpression(TypeFamily.DATE, expression);
+    final long start = Instant.parse("2018-01-01T00:00:00Z").toEpochMilli();
+    instants = new long[365 * 24];
+    for (int i = 0; i < instants.length; i++) {
+      instants[i] = start + TimeUnit.HOURS.toMillis(i);
+    }
+    resolver =
+        new DateResolver(Clock.fixed(Instant.ofEpochMilli(start),
+            ZoneOffset.UTC), ZONE);
+  }
+
+  @Benchmark public DateResolutions batch() {
+    return resolver.resolveBatch(node, instants);
+  }
+
+  @Benchmark public long[] perInstant() {
+    final long[] starts = new long[instants.length];
+    for (int i = 0; i < instants.length; i++) {
+      final Clock clock =
+          Clock.fixed(Instant.ofEpochMilli(instants[i]), ZoneOffset.UTC);
+      final DateIntervals intervals =
+          new DateResolver(clock, ZONE).resolve(node);
+      starts[i] = intervals.start(0);
+    }
+    return starts;
+  }
+}
+
+// End BatchResolverBenchmark.java
@@ -0,0 +1,94 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex;
+
+import net.hydromatic.filtex.eval.LocationCompiler;
+import net.hydromatic.filtex.eval.LocationPredicate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares evaluating a circle filter against 1 million locations, spread
+ * over the United States, using {@link LocationCompiler} with computing the
+ * haversine distance of every location.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CircleBenchmark {
+  private static final int COUNT = 1 << 20;
+
+  @Param({"10 miles from 40.7, -74.0", "500 miles from 40.7, -74.0"})
+  String expression;
+
+  double[] latitudes;
+  double[] longitudes;
+  LocationPredicate compiled;
+  LocationPredicate haversine;
+
+  @Setup public void setup() {
+    final Random random = new Random(0);
+    latitudes = new double[COUNT];
+    longitudes = new double[COUNT];
+    for (int i = 0; i < COUNT; i++) {
+      latitudes[i] = 25 + random.nextDouble() * 24;
+      longitudes[i] = -125 + random.nextDouble() * 58;
+    }
+    compiled =
+        LocationCompiler.compile(
+            Filtex.parseFilterExpression(TypeFamily.LOCATION, expression));
+    final double meters =
+        Double.parseDouble(expression.substring(0, expression.indexOf(' ')))
+            * 1_609.344d;
+    haversine = (lat, lon) -> {
+      final double phi0 = Math.toRadians(40.7);
+      final double phi1 = Math.toRadians(lat);
+      final double sinDPhi = Math.sin((phi1 - phi0) / 2);
+      final double sinDLambda = Math.sin(Math.toRadians(lon + 74.0) / 2);
+      final double h = sinDPhi * sinDPhi
+          + Math.cos(phi0) * Math.cos(phi1) * sinDLambda * sinDLambda;
+      return 2 * Math.asin(Math.sqrt(h)) * LocationCompiler.EARTH_RADIUS_METERS
+          <= meters;
+    };
+  }
+
+  @Benchmark public long[] compiled() {
+    return compiled.evaluate(latitudes, longitudes, COUNT);
+  }
+
+  @Benchmark public long[] haversine() {
+    return haversine.evaluate(latitudes, longitudes, COUNT);
+  }
+}
+
+// End CircleBenchmark.java
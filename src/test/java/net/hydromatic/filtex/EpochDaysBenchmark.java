@@ -0,0 +1,134 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex;
+
+import net.hydromatic.filtex.eval.DateCompiler;
+import net.hydromatic.filtex.eval.DateResolver;
+import net.hydromatic.filtex.eval.EpochDays;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Clock;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+/**
+ * Compares evaluating calendar-field filters against a column of 64k epoch
+ * days using {@link EpochDays} arithmetic with converting each value to a
+ * {@link LocalDate}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EpochDaysBenchmark {
+  private static final int COUNT = 65_536;
+
+  @Param({"monday, friday", "this month", "this quarter"})
+  String expression;
+
+  int[] days;
+  long[] bits;
+  IntPredicate arithmetic;
+  IntPredicate localDate;
+
+  @Setup public void setup() {
+    final Random random = new Random(0);
+    final LocalDate today = LocalDate.of(2018, 5, 18);
+    days = new int[COUNT];
+    for (int i = 0; i < COUNT; i++) {
+      // Within about 5 years of today
+      days[i] = (int) today.toEpochDay() + random.nextInt(3_650) - 1_825;
+    }
+    bits = new long[(COUNT + 63) / 64];
+    final DateResolver resolver =
+        new DateResolver(
+            Clock.fixed(Instant.parse("2018-05-18T10:20:30Z"), ZoneOffset.UTC),
+            ZoneOffset.UTC);
+    arithmetic =
+        DateCompiler.compileEpochDay(
+            Filtex.parseFilterExpression(TypeFamily.DATE, expression),
+            resolver);
+    localDate = baseline(expression, today);
+  }
+
+  /** Returns a predicate that converts each value to a {@link LocalDate}
+   * and tests its fields. */
+  private static IntPredicate baseline(String expression, LocalDate today) {
+    switch (expression) {
+    case "monday, friday":
+      return d -> {
+        final DayOfWeek dayOfWeek = LocalDate.ofEpochDay(d).getDayOfWeek();
+        return dayOfWeek == DayOfWeek.MONDAY || dayOfWeek == DayOfWeek.FRIDAY;
+      };
+    case "this month":
+      return d -> {
+        final LocalDate date = LocalDate.ofEpochDay(d);
+        return date.getYear() == today.getYear()
+            && date.getMonth() == today.getMonth();
+      };
+    case "this quarter":
+      final int quarter = (today.getMonthValue() - 1) / 3;
+      return d -> {
+        final LocalDate date = LocalDate.ofEpochDay(d);
+        return date.getYear() == today.getYear()
+            && (date.getMonthValue() - 1) / 3 == quarter;
+      };
+    default:
+      throw new AssertionError(expression);
+    }
+  }
+
+  private long[] evaluate(IntPredicate predicate) {
+    final long[] bits = this.bits;
+    for (int w = 0; w < bits.length; w++) {
+      long word = 0L;
+      for (int j = 0; j < 64; j++) {
+        word |= (predicate.test(days[w * 64 + j]) ? 1L : 0L) << j;
+      }
+      bits[w] = word;
+    }
+    return bits;
+  }
+
+  @Benchmark public long[] arithmetic() {
+    return evaluate(arithmetic);
+  }
+
+  @Benchmark public long[] localDate() {
+    return evaluate(localDate);
+  }
+}
+
+// End EpochDaysBenchmark.java
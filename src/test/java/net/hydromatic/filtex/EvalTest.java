@@ -0,0 +1,1587 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex;
+
+import net.hydromatic.filtex.ast.Ast;
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.ast.Bound;
+import net.hydromatic.filtex.ast.Location;
+import net.hydromatic.filtex.ast.Op;
+import net.hydromatic.filtex.eval.BatchEvaluator;
+import net.hydromatic.filtex.eval.BoundaryCache;
+import net.hydromatic.filtex.eval.DateCompiler;
+import net.hydromatic.filtex.eval.DateIntervals;
+import net.hydromatic.filtex.eval.DateResolution;
+import net.hydromatic.filtex.eval.DateResolutionCache;
+import net.hydromatic.filtex.eval.DateResolutions;
+import net.hydromatic.filtex.eval.DateResolver;
+import net.hydromatic.filtex.eval.EpochDays;
+import net.hydromatic.filtex.eval.FiscalCalendar;
+import net.hydromatic.filtex.eval.Geohash;
+import net.hydromatic.filtex.eval.LocationCompiler;
+import net.hydromatic.filtex.eval.LocationIndex;
+import net.hydromatic.filtex.eval.LocationPredicate;
+import net.hydromatic.filtex.eval.Locations;
+import net.hydromatic.filtex.eval.NumberCompiler;
+import net.hydromatic.filtex.eval.NumberIntervals;
+import net.hydromatic.filtex.eval.PointIndex;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Longs;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.DoublePredicate;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static net.hydromatic.filtex.Filtex.parseFilterExpression;
+import static net.hydromatic.filtex.TestValues.forEach;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasToString;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+
+/** Tests evaluation of filter expressions. */
+public class EvalTest {
+  private static AstNode number(String expression) {
+    return parseFilterExpression(TypeFamily.NUMBER, expression);
+  }
+
+  /** Checks that a numeric filter accepts some long values and rejects
+   * others. */
+  private static void checkLong(String expression, long[] accepted,
+      long[] rejected) {
+    final LongPredicate predicate =
+        NumberCompiler.compileLong(number(expression));
+    check(expression, predicate::test, Longs.asList(accepted),
+        Longs.asList(rejected));
+  }
+
+  /** Checks that a numeric filter accepts some double values and rejects
+   * others. */
+  private static void checkDouble(String expression, double[] accepted,
+      double[] rejected) {
+    final DoublePredicate predicate =
+        NumberCompiler.compileDouble(number(expression));
+    check(expression, predicate::test, Doubles.asList(accepted),
+        Doubles.asList(rejected));
+  }
+
+  /** Checks that a compiled filter accepts some values and rejects
+   * others. */
+  private static <T> void check(String expression, Predicate<T> predicate,
+      List<T> accepted, List<T> rejected) {
+    for (T v : accepted) {
+      assertThat(expression + " accepts " + v, predicate.test(v), is(true));
+    }
+    for (T v : rejected) {
+      assertThat(expression + " rejects " + v, predicate.test(v), is(false));
+    }
+  }
+
+  private static long[] longs(long... values) {
+    return values;
+  }
+
+  private static double[] doubles(double... values) {
+    return values;
+  }
+
+  @Test void testCompileLong() {
+    checkLong("5", longs(5), longs(4, 6));
+    checkLong("1, 2, 3", longs(1, 2, 3), longs(0, 4));
+    checkLong("not 5", longs(4, 6, Long.MIN_VALUE), longs(5));
+    checkLong("not 1, not 2", longs(0, 3), longs(1, 2));
+    checkLong("[1, 10], not 3", longs(1, 2, 10), longs(0, 3, 11));
+    checkLong("1, 2, not 3", longs(0, 5), longs(1, 2, 3));
+    checkLong("[0,20],>30", longs(0, 10, 20, 31), longs(-1, 21, 25, 30));
+    checkLong("<7 OR >80.44", longs(5, 6, 81), longs(7, 50, 80));
+    checkLong(">7.5", longs(8, Long.MAX_VALUE), longs(7, Long.MIN_VALUE));
+    checkLong(">=7.5", longs(8), longs(7));
+    checkLong("<= -7.5", longs(-8, Long.MIN_VALUE), longs(-7, 0));
+    checkLong("< -7.5", longs(-8), longs(-7));
+    checkLong("7.5", longs(), longs(7, 8));
+    checkLong("> 1e30", longs(), longs(0, Long.MAX_VALUE));
+    checkLong("< 1e30", longs(0, Long.MIN_VALUE, Long.MAX_VALUE), longs());
+    checkLong("(1, 2)", longs(), longs(1, 2));
+    checkLong("(1, 3)", longs(2), longs(1, 3));
+    checkLong("[1, 3)", longs(1, 2), longs(0, 3));
+    checkLong("(1, 3]", longs(2, 3), longs(1, 4));
+    checkLong("1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12",
+        longs(1, 9, 12), longs(0, 13));
+    checkLong("NULL", longs(), longs(0, 1));
+    checkLong("NOT NULL", longs(0, 1, Long.MIN_VALUE), longs());
+    checkLong("NULL, 3", longs(3), longs(0));
+  }
+
+  /** Checks that a numeric filter accepts some unscaled decimal values and
+   * rejects others. */
+  private static void checkDecimal(String expression, int scale,
+      long[] accepted, long[] rejected) {
+    final LongPredicate predicate =
+        NumberCompiler.compileDecimal(number(expression), scale);
+    check(expression, predicate::test, Longs.asList(accepted),
+        Longs.asList(rejected));
+  }
+
+  @Test void testCompileDecimal() {
+    checkDecimal(">= 80.44", 2, longs(8044, 8045), longs(8043, -8044));
+    checkDecimal("> 80.44", 2, longs(8045), longs(8044));
+    checkDecimal("<7 OR >80.44", 2, longs(699, 8045), longs(700, 8044));
+    checkDecimal("80.44", 2, longs(8044), longs(8043, 8045));
+    checkDecimal("80.44", 3, longs(80440), longs(8044, 80441));
+    checkDecimal("80.44", 1, longs(), longs(804, 805));
+    checkDecimal("> 1.005", 2, longs(101), longs(100));
+    checkDecimal(">= 1.005", 2, longs(101), longs(100));
+    checkDecimal("< 1.005", 2, longs(100), longs(101));
+    checkDecimal("[0.1, 0.3]", 1, longs(1, 2, 3), longs(0, 4));
+    checkDecimal("(0.1, 0.3)", 2, longs(11, 29), longs(10, 30));
+    checkDecimal("not 2.5, >= 2", 1, longs(20, 24, 26), longs(19, 25));
+    checkDecimal("> 1e17", 2, longs(), longs(Long.MAX_VALUE));
+    checkDecimal("< 1e17", 2, longs(Long.MAX_VALUE), longs());
+  }
+
+  @Test void testCompileDouble() {
+    checkDouble("5", doubles(5), doubles(4.999, 5.001));
+    checkDouble("not 5", doubles(4, 6), doubles(5));
+    checkDouble("[0,20],>30", doubles(0, 10.5, 20, 30.001),
+        doubles(-0.1, 20.1, 30));
+    checkDouble("<7 OR >80.44", doubles(6.99, 80.45), doubles(7, 50, 80.44));
+    checkDouble(">7.5", doubles(7.51), doubles(7.5));
+    checkDouble("7.5, 0", doubles(7.5, 0, -0d), doubles(7));
+    checkDouble("1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 0",
+        doubles(1, 9, 11, -0d), doubles(0.5, 13));
+    checkDouble("NULL", doubles(), doubles(0));
+    checkDouble("NOT NULL", doubles(0, Double.NaN), doubles());
+  }
+
+  @Test void testMatchesNull() {
+    final List<String> accepting =
+        ImmutableList.of("NULL", "NULL, 3", "not 3", "not 3, not 4");
+    forEach(accepting, expression ->
+        assertThat(expression,
+            NumberCompiler.matchesNull(number(expression)), is(true)));
+    final List<String> rejecting =
+        ImmutableList.of("NOT NULL", "3", "[1, 2]", "> 5", "3, > 4");
+    forEach(rejecting, expression ->
+        assertThat(expression,
+            NumberCompiler.matchesNull(number(expression)), is(false)));
+  }
+
+  private static NumberIntervals intervals(String expression) {
+    return NumberIntervals.of(number(expression));
+  }
+
+  @Test void testNumberIntervals() {
+    final NumberIntervals intervals =
+        intervals("1, 5, [10, 20], > 100, not 7");
+    assertThat(intervals,
+        hasToString("[1, 1], [5, 5], [10, 20], (100, +inf)"));
+    assertThat(intervals.intervals.size(), is(4));
+    assertThat(intervals.intervals.get(2).lowerBound, is(Bound.CLOSED));
+    assertThat(intervals.intervals.get(3).upperBound, is(Bound.ABSENT));
+    assertThat(intervals.contains(new BigDecimal("15.5")), is(true));
+    assertThat(intervals.contains(new BigDecimal("5.00")), is(true));
+    assertThat(intervals.contains(new BigDecimal("7")), is(false));
+    assertThat(intervals.contains(new BigDecimal("100")), is(false));
+    assertThat(intervals.containsNull, is(false));
+
+    assertThat(intervals("not 7, not 8"),
+        hasToString("(-inf, +inf), not 7, not 8, null"));
+    assertThat(intervals("not 7, not 8").toRangeSet(),
+        hasToString("[(-∞..7), (7..8), (8..+∞)]"));
+    assertThat(intervals("[1, 10], not 5, not [7, 8]"),
+        hasToString("[1, 7), (8, 10], not 5"));
+    assertThat(intervals("<7 OR >80.44"),
+        hasToString("(-inf, 7), (80.44, +inf), null"));
+    assertThat(intervals("[1, 2), [2, 3]"), hasToString("[1, 3]"));
+    assertThat(intervals("(1, 2), (2, 3)"), hasToString("(1, 3), not 2"));
+    assertThat(intervals("[5, 3]").isEmpty(), is(true));
+    assertThat(intervals("NULL"), hasToString("null"));
+    assertThat(intervals("NOT NULL"), hasToString("(-inf, +inf)"));
+
+    // Equivalent filters have equal intervals
+    checkEquivalent("1, 2, 3", "3, 2.0, 1.00");
+    checkEquivalent("1, 2, 3", "[1, 3], not (1, 2), not (2, 3)");
+    checkEquivalent("[1, 5]", "[1, 3], [2, 5]");
+    checkEquivalent("not 7", "<7, >7, NULL");
+    checkEquivalent(">= 0", "0, > 0");
+  }
+
+  private static void checkEquivalent(String expression1,
+      String expression2) {
+    final NumberIntervals intervals1 = intervals(expression1);
+    final NumberIntervals intervals2 = intervals(expression2);
+    assertThat(intervals1, is(intervals2));
+    assertThat(intervals1.hashCode(), is(intervals2.hashCode()));
+  }
+
+  /** Compares compiled long and decimal predicates, and
+   * {@link NumberIntervals}, with a reference evaluator that works on
+   * {@link BigDecimal} values, for each numeric expression in
+   * {@link TestValues}, and for values around each constant. */
+  @Test void testCompileLongMatchesReference() {
+    final List<String> expressions = new ArrayList<>();
+    TestValues.NUMBER_EXPRESSION_TEST_ITEMS.forEach(item ->
+        expressions.add(item.expression));
+    expressions.add("[0,20],>30");
+    expressions.add("<7 OR >80.44");
+    expressions.add("not 1, not 2, not 3.5, >= -2.5");
+    forEach(expressions, expression -> {
+      final AstNode node = number(expression);
+      if (node.op == Op.MATCHES_ADVANCED) {
+        return;
+      }
+      final TreeSet<Long> values = new TreeSet<>();
+      values.add(Long.MIN_VALUE);
+      values.add(Long.MAX_VALUE);
+      for (long v = -10; v <= 10; v++) {
+        values.add(v);
+      }
+      for (BigDecimal c : constants(node)) {
+        if (c.abs().compareTo(BigDecimal.valueOf(1L << 62)) < 0) {
+          final long v = c.longValue();
+          for (long d = -2; d <= 2; d++) {
+            values.add(v + d);
+          }
+        }
+      }
+      final LongPredicate predicate = NumberCompiler.compileLong(node);
+      for (long v : values) {
+        assertThat(expression + " on " + v, predicate.test(v),
+            is(reference(node, BigDecimal.valueOf(v))));
+      }
+      final NumberIntervals intervals = NumberIntervals.of(node);
+      for (long v : values) {
+        final BigDecimal d = BigDecimal.valueOf(v);
+        assertThat(expression + " contains " + v, intervals.contains(d),
+            is(reference(node, d)));
+        assertThat(expression + " range set contains " + v,
+            intervals.toRangeSet().contains(d), is(reference(node, d)));
+      }
+      for (int scale = 1; scale <= 3; scale++) {
+        final LongPredicate decimalPredicate =
+            NumberCompiler.compileDecimal(node, scale);
+        for (long v : values) {
+          for (long u : new long[] {v, v * 1000 + 1, v * 1000 - 1}) {
+            final BigDecimal d = BigDecimal.valueOf(u, scale);
+            assertThat(expression + " on " + d, decimalPredicate.test(u),
+                is(reference(node, d)));
+          }
+        }
+      }
+    });
+  }
+
+  @Test void testBatchEvaluator() {
+    final long[] values = {5, 6, 7, 80, 81, 0, -3, 100};
+    // Values 1 and 5 are null
+    final long[] validity = {~((1L << 1) | (1L << 5))};
+    final BatchEvaluator<long[]> evaluator =
+        BatchEvaluator.ofLong(number("<7 OR >80.44"));
+    final long[] bits = evaluator.evaluate(values, validity, values.length);
+    // The filter is a negated range, "not [7, 80.44]", so matches nulls
+    assertThat(Long.toBinaryString(bits[0]), is("11110011"));
+    assertThat(BatchEvaluator.ofLong(number("NULL"))
+            .evaluate(values, validity, values.length)[0],
+        is(~validity[0] & 0xFF));
+    assertThat(BatchEvaluator.ofLong(number("NOT NULL"))
+            .evaluate(values, validity, values.length)[0],
+        is(validity[0] & 0xFF));
+    assertThat(BatchEvaluator.ofLong(number("NOT NULL"))
+            .evaluate(values, null, values.length)[0],
+        is(0xFFL));
+  }
+
+  /** Compares batch evaluation, for long, decimal and double columns with
+   * and without validity bitmaps, and with scalar and vector kernels, with
+   * the compiled predicates. */
+  @Test void testBatchEvaluatorMatchesPredicates() {
+    // On JDK 17 and later, the build adds the incubator module; if vector
+    // kernels failed to load, the comparison below would be scalar with
+    // scalar
+    final String version = System.getProperty("java.specification.version");
+    if (!version.startsWith("1.") && Integer.parseInt(version) >= 17) {
+      assertThat(BatchEvaluator.isVectorAvailable(), is(true));
+    }
+    final Random random = new Random(1234);
+    final int count = 200;
+    final long[] longs = new long[count];
+    final double[] doubles = new double[count];
+    for (int i = 0; i < count; i++) {
+      longs[i] = random.nextInt(240) - 120;
+      doubles[i] = longs[i] / 2d;
+    }
+    final long[] validity = new long[BatchEvaluator.wordCount(count)];
+    for (int w = 0; w < validity.length; w++) {
+      validity[w] = random.nextLong();
+    }
+
+    final List<String> expressions = new ArrayList<>();
+    TestValues.NUMBER_EXPRESSION_TEST_ITEMS.forEach(item ->
+        expressions.add(item.expression));
+    expressions.add("[0,20],>30");
+    expressions.add("not 1, not 2, not 3.5, >= -2.5");
+    expressions.add("NULL, 3");
+    expressions.add("1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12");
+    forEach(expressions, expression -> {
+      final AstNode node = number(expression);
+      if (node.op == Op.MATCHES_ADVANCED) {
+        return;
+      }
+      final boolean matchesNull = NumberCompiler.matchesNull(node);
+      final LongPredicate longPredicate = NumberCompiler.compileLong(node);
+      final LongPredicate decimalPredicate =
+          NumberCompiler.compileDecimal(node, 1);
+      final DoublePredicate doublePredicate =
+          NumberCompiler.compileDouble(node);
+      final long[] longBits =
+          BatchEvaluator.ofLong(node).evaluate(longs, null, count);
+      final long[] longNullBits =
+          BatchEvaluator.ofLong(node).evaluate(longs, validity, count);
+      final long[] decimalBits =
+          BatchEvaluator.ofDecimal(node, 1).evaluate(longs, validity, count);
+      final long[] doubleBits =
+          BatchEvaluator.ofDouble(node).evaluate(doubles, validity, count);
+
+      // Scalar kernels give the same results as vector kernels (if the
+      // JDK Vector API is available, as it is on JDK 17 and later;
+      // otherwise both are scalar)
+      assertThat(
+          BatchEvaluator.ofDecimal(node, 1, false)
+              .evaluate(longs, validity, count),
+          is(decimalBits));
+      assertThat(
+          BatchEvaluator.ofDouble(node, false)
+              .evaluate(doubles, validity, count),
+          is(doubleBits));
+
+      for (int i = 0; i < count; i++) {
+        final boolean valid = bit(validity, i);
+        final String s = expression + " on " + longs[i];
+        assertThat(s, bit(longBits, i), is(longPredicate.test(longs[i])));
+        assertThat(s, bit(longNullBits, i),
+            is(valid ? longPredicate.test(longs[i]) : matchesNull));
+        assertThat(s, bit(decimalBits, i),
+            is(valid ? decimalPredicate.test(longs[i]) : matchesNull));
+        assertThat(s, bit(doubleBits, i),
+            is(valid ? doublePredicate.test(doubles[i]) : matchesNull));
+      }
+    });
+  }
+
+  private static boolean bit(long[] bits, int i) {
+    return (bits[i >>> 6] & (1L << i)) != 0;
+  }
+
+  /** Returns the numeric constants in a filter. */
+  private static List<BigDecimal> constants(AstNode node) {
+    final List<BigDecimal> list = new ArrayList<>();
+    for (AstNode term : terms(node)) {
+      if (term instanceof Ast.Comparison) {
+        ((Ast.Comparison) term).value.forEach(v -> list.add((BigDecimal) v));
+      } else if (term instanceof Ast.NumericRange) {
+        list.add(((Ast.NumericRange) term).left);
+        list.add(((Ast.NumericRange) term).right);
+      }
+    }
+    return list;
+  }
+
+  private static List<AstNode> terms(AstNode node) {
+    final List<AstNode> terms = new ArrayList<>();
+    if (node.op == Op.COMMA) {
+      final Ast.Call2 call2 = (Ast.Call2) node;
+      terms.addAll(terms(call2.left));
+      if (call2.right != null) {
+        terms.addAll(terms(call2.right));
+      }
+    } else {
+      terms.add(node);
+    }
+    return terms;
+  }
+
+  /** Evaluates a numeric filter on a non-null value, slowly but surely. */
+  private static boolean reference(AstNode node, BigDecimal v) {
+    boolean hasPositive = false;
+    boolean positiveMatch = false;
+    for (AstNode term : terms(node)) {
+      final boolean match = referenceTerm(term, v);
+      if (term.is()) {
+        hasPositive = true;
+        positiveMatch |= match;
+      } else if (match) {
+        return false;
+      }
+    }
+    return !hasPositive || positiveMatch;
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static boolean referenceTerm(AstNode term, BigDecimal v) {
+    if (term instanceof Ast.Comparison) {
+      final List<Comparable> values = ((Ast.Comparison) term).value;
+      final int c = v.compareTo((BigDecimal) values.get(0));
+      switch (term.op) {
+      case EQ:
+        return values.stream()
+            .anyMatch(value -> v.compareTo((BigDecimal) value) == 0);
+      case GT:
+        return c > 0;
+      case GE:
+        return c >= 0;
+      case LT:
+        return c < 0;
+      case LE:
+        return c <= 0;
+      default:
+        throw new AssertionError(term.op);
+      }
+    }
+    if (term instanceof Ast.NumericRange) {
+      final Ast.NumericRange range = (Ast.NumericRange) term;
+      final int cLeft = v.compareTo(range.left);
+      final int cRight = v.compareTo(range.right);
+      switch (term.op) {
+      case OPEN_OPEN:
+        return cLeft > 0 && cRight < 0;
+      case OPEN_CLOSED:
+        return cLeft > 0 && cRight <= 0;
+      case CLOSED_OPEN:
+        return cLeft >= 0 && cRight < 0;
+      case CLOSED_CLOSED:
+        return cLeft >= 0 && cRight <= 0;
+      default:
+        throw new AssertionError(term.op);
+      }
+    }
+    return term.op == Op.NOTNULL;
+  }
+
+  /** Friday, 2018-05-18 10:20:30 UTC. */
+  private static final Clock CLOCK =
+      Clock.fixed(Instant.parse("2018-05-18T10:20:30Z"), ZoneOffset.UTC);
+
+  private static DateIntervals resolve(String expression, ZoneId zone) {
+    final AstNode node = parseFilterExpression(TypeFamily.DATE, expression);
+    return new DateResolver(CLOCK, zone).resolve(node);
+  }
+
+  /** Checks that a date filter resolves to the expected intervals, in
+   * UTC. */
+  private static void checkResolve(String expression, String expected) {
+    assertThat(expression, resolve(expression, ZoneOffset.UTC),
+        hasToString(expected));
+  }
+
+  @Test void testDateResolver() {
+    checkResolve("today",
+        "[2018-05-18T00:00:00Z, 2018-05-19T00:00:00Z)");
+    checkResolve("yesterday",
+        "[2018-05-17T00:00:00Z, 2018-05-18T00:00:00Z)");
+    checkResolve("3 days",
+        "[2018-05-16T00:00:00Z, 2018-05-19T00:00:00Z)");
+    checkResolve("last 3 days",
+        "[2018-05-16T00:00:00Z, 2018-05-19T00:00:00Z)");
+    checkResolve("1 hour",
+        "[2018-05-18T10:00:00Z, 2018-05-18T11:00:00Z)");
+    checkResolve("3 days ago for 3 days",
+        "[2018-05-15T00:00:00Z, 2018-05-18T00:00:00Z)");
+    checkResolve("3 days ago",
+        "[2018-05-15T00:00:00Z, 2018-05-16T00:00:00Z)");
+    checkResolve("2 days from now",
+        "[2018-05-20T00:00:00Z, 2018-05-21T00:00:00Z)");
+    checkResolve("3 months ago for 2 days",
+        "[2018-02-01T00:00:00Z, 2018-02-03T00:00:00Z)");
+    checkResolve("before 3 days ago",
+        "(-inf, 2018-05-15T00:00:00Z)");
+    checkResolve("after 2 weeks from now",
+        "[2018-05-28T00:00:00Z, +inf)");
+
+    // Weeks start on Monday
+    checkResolve("this week",
+        "[2018-05-14T00:00:00Z, 2018-05-21T00:00:00Z)");
+    checkResolve("last month",
+        "[2018-04-01T00:00:00Z, 2018-05-01T00:00:00Z)");
+    checkResolve("next quarter",
+        "[2018-07-01T00:00:00Z, 2018-10-01T00:00:00Z)");
+    checkResolve("before this year", "(-inf, 2018-01-01T00:00:00Z)");
+    checkResolve("after next month", "[2018-06-01T00:00:00Z, +inf)");
+    checkResolve("this year to day",
+        "[2018-01-01T00:00:00Z, 2018-05-19T00:00:00Z)");
+
+    checkResolve("after 2018-10-05", "[2018-10-05T00:00:00Z, +inf)");
+    checkResolve("before 2018-01-01 12:00:00",
+        "(-inf, 2018-01-01T12:00:00Z)");
+    checkResolve("2018/05/10 to 2018/05/13",
+        "[2018-05-10T00:00:00Z, 2018-05-13T00:00:00Z)");
+    checkResolve("2018/05/10 for 3 days",
+        "[2018-05-10T00:00:00Z, 2018-05-13T00:00:00Z)");
+    checkResolve("2018/05/10 05:00 for 5 hours",
+        "[2018-05-10T05:00:00Z, 2018-05-10T10:00:00Z)");
+    // Days and larger units keep the time of day of a date-time start
+    checkResolve("2018-01-01 12:00:00 for 3 days",
+        "[2018-01-01T12:00:00Z, 2018-01-04T12:00:00Z)");
+    checkResolve("2018/05/10 05:00 for 1 day",
+        "[2018-05-10T05:00:00Z, 2018-05-11T05:00:00Z)");
+    checkResolve("2018/01/31 12:00 for 1 month",
+        "[2018-01-31T12:00:00Z, 2018-02-28T12:00:00Z)");
+    checkResolve("3 hours ago for 1 day",
+        "[2018-05-18T07:00:00Z, 2018-05-19T07:00:00Z)");
+    checkResolve("2018/05 for 3 months",
+        "[2018-05-01T00:00:00Z, 2018-08-01T00:00:00Z)");
+    checkResolve("2018",
+        "[2018-01-01T00:00:00Z, 2019-01-01T00:00:00Z)");
+    checkResolve("2018-Q4",
+        "[2018-10-01T00:00:00Z, 2019-01-01T00:00:00Z)");
+    checkResolve("2018/05",
+        "[2018-05-01T00:00:00Z, 2018-06-01T00:00:00Z)");
+    checkResolve("2018/05/10",
+        "[2018-05-10T00:00:00Z, 2018-05-11T00:00:00Z)");
+
+    // Comma lists are merged
+    checkResolve("today, yesterday",
+        "[2018-05-17T00:00:00Z, 2018-05-19T00:00:00Z)");
+    checkResolve("2018/05/10, 2018/05/12, 2018/05/13",
+        "[2018-05-10T00:00:00Z, 2018-05-11T00:00:00Z), "
+            + "[2018-05-12T00:00:00Z, 2018-05-14T00:00:00Z)");
+    checkResolve("null", "null");
+    checkResolve("not null", "(-inf, +inf)");
+
+    // A day of the week is not a finite list of intervals
+    try {
+      final DateIntervals intervals = resolve("monday", ZoneOffset.UTC);
+      throw new AssertionError("expected error, got " + intervals);
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage(),
+          is("cannot resolve day of week 'monday' to intervals"));
+    }
+  }
+
+  /** Tests that days are calendar days in the resolver's time zone. On
+   * 2018-03-11, daylight saving time started in Los Angeles, and the day was
+   * 23 hours long. */
+  @Test void testDateResolverTimeZone() {
+    final ZoneId zone = ZoneId.of("America/Los_Angeles");
+    // 2018-05-18 10:20:30 UTC is 03:20:30 PDT, the same day
+    assertThat(resolve("today", zone),
+        hasToString("[2018-05-18T07:00:00Z, 2018-05-19T07:00:00Z)"));
+    assertThat(resolve("1 hour", zone),
+        hasToString("[2018-05-18T10:00:00Z, 2018-05-18T11:00:00Z)"));
+    assertThat(resolve("2018/03/11", zone),
+        hasToString("[2018-03-11T08:00:00Z, 2018-03-12T07:00:00Z)"));
+    assertThat(resolve("2018/03/10 for 2 days", zone),
+        hasToString("[2018-03-10T08:00:00Z, 2018-03-12T07:00:00Z)"));
+    // A day is a calendar day: 12:00 PST to 12:00 PDT is 23 hours
+    assertThat(resolve("2018/03/10 12:00 for 1 day", zone),
+        hasToString("[2018-03-10T20:00:00Z, 2018-03-11T19:00:00Z)"));
+    // Hours are elapsed time: 01:00 PST to 04:00 PDT
+    assertThat(resolve("2018/03/11 01:00 for 3 hours", zone),
+        hasToString("[2018-03-11T09:00:00Z, 2018-03-11T12:00:00Z)"));
+  }
+
+  /** Resolves filters in every time zone that the JDK knows, at instants
+   * near daylight saving time transitions, and checks that the results
+   * agree with {@link java.time.ZonedDateTime} arithmetic, and are the same
+   * with and without a {@link BoundaryCache}. */
+  @Test void testDateResolverAllZones() {
+    final List<ZoneId> zones =
+        ZoneId.getAvailableZoneIds().stream().sorted().map(ZoneId::of)
+            .collect(Collectors.toList());
+    final List<String> expressions =
+        ImmutableList.of("today", "this week", "last 3 days",
+            "3 months ago for 2 days", "this year to day", "before last month",
+            "this fiscal_quarter", "1 hour", "2018/03/11 for 2 days");
+    final BoundaryCache cache = BoundaryCache.ofSize(100_000);
+    for (String instant : new String[] {"2018-05-18T10:20:30Z",
+        "2018-03-11T10:00:00Z", "2018-11-04T09:30:00Z",
+        "2018-12-31T23:30:00Z"}) {
+      final Clock clock = Clock.fixed(Instant.parse(instant), ZoneOffset.UTC);
+      final DateResolver resolver = new DateResolver(clock, ZoneOffset.UTC);
+      final DateResolver cachedResolver = resolver.withCache(cache);
+      for (ZoneId zone : zones) {
+        final DateResolver zoneResolver = resolver.withZone(zone);
+        final LocalDate today = clock.instant().atZone(zone).toLocalDate();
+        assertThat(zoneResolver.today(), is(today.toEpochDay()));
+        final LocalDate monday =
+            today.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        assertThat(zoneResolver.resolve(parse("this week")),
+            is(days(monday, monday.plusWeeks(1), zone)));
+        assertThat(zoneResolver.resolve(parse("last 3 months")),
+            is(days(today.withDayOfMonth(1).minusMonths(2),
+                today.withDayOfMonth(1).plusMonths(1), zone)));
+        for (String expression : expressions) {
+          final AstNode node = parse(expression);
+          assertThat(cachedResolver.withZone(zone).resolve(node),
+              is(zoneResolver.resolve(node)));
+        }
+      }
+      // resolveAll gives the same result as resolving for each zone
+      final AstNode node = parse("last 2 weeks");
+      final List<DateIntervals> list = resolver.resolveAll(node, zones);
+      assertThat(list.size(), is(zones.size()));
+      for (int i = 0; i < zones.size(); i++) {
+        assertThat(list.get(i),
+            is(resolver.withZone(zones.get(i)).resolve(node)));
+      }
+    }
+
+    // A resolver looks up its zone once
+    cache.invalidateAll();
+    final long misses = cache.stats().missCount();
+    final long hits = cache.stats().hitCount();
+    final DateResolver resolver =
+        new DateResolver(CLOCK, ZoneId.of("Asia/Kolkata")).withCache(cache);
+    resolver.resolve(parse("this month"));
+    resolver.resolve(parse("2018/05"));
+    assertThat(cache.stats().missCount() - misses, is(1L));
+    assertThat(cache.stats().hitCount() - hits, is(0L));
+    assertThat(cache.size(), is(1L));
+  }
+
+  /** Checks that {@link BoundaryCache} gives the same start of day as
+   * {@link LocalDate#atStartOfDay(ZoneId)}, in every zone, for days in
+   * order and at random, including days when midnight is skipped or
+   * repeated. */
+  @Test void testBoundaryCache() {
+    final BoundaryCache cache = BoundaryCache.ofSize(1_000);
+    final Random random = new Random(1);
+    final long lo = LocalDate.of(1900, 1, 1).toEpochDay();
+    final long hi = LocalDate.of(2050, 1, 1).toEpochDay();
+    for (String zoneId : new TreeSet<>(ZoneId.getAvailableZoneIds())) {
+      final ZoneId zone = ZoneId.of(zoneId);
+      for (long d = lo; d < hi; d += 61) {
+        checkDayStart(cache, zone, d);
+      }
+      for (int i = 0; i < 50; i++) {
+        checkDayStart(cache, zone, lo + random.nextInt((int) (hi - lo)));
+      }
+    }
+    // In Sao Paulo, in 2018, clocks went forward at midnight on November 4
+    final ZoneId saoPaulo = ZoneId.of("America/Sao_Paulo");
+    final long day = LocalDate.of(2018, 11, 4).toEpochDay();
+    assertThat(Instant.ofEpochMilli(cache.start(saoPaulo, day)),
+        hasToString("2018-11-04T03:00:00Z"));
+    assertThat(Instant.ofEpochMilli(cache.start(saoPaulo, day + 1)),
+        hasToString("2018-11-05T02:00:00Z"));
+    for (long d = day - 400; d < day + 400; d++) {
+      checkDayStart(cache, saoPaulo, d);
+    }
+  }
+
+  private static void checkDayStart(BoundaryCache cache, ZoneId zone,
+      long epochDay) {
+    final long expected =
+        LocalDate.ofEpochDay(epochDay).atStartOfDay(zone).toInstant()
+            .toEpochMilli();
+    final long actual = cache.start(zone, epochDay);
+    if (actual != expected) {
+      assertThat(zone + " " + LocalDate.ofEpochDay(epochDay), actual,
+          is(expected));
+    }
+  }
+
+  private static AstNode parse(String expression) {
+    return parseFilterExpression(TypeFamily.DATE, expression);
+  }
+
+  /** Returns the interval from the start of one day to the start of
+   * another. */
+  private static DateIntervals days(LocalDate start, LocalDate end,
+      ZoneId zone) {
+    return DateIntervals.of(
+        start.atStartOfDay(zone).toInstant().toEpochMilli(),
+        end.atStartOfDay(zone).toInstant().toEpochMilli());
+  }
+
+  @Test void testResolveWithExpiry() {
+    final BiConsumer<String, String> check = (expression, expected) ->
+        assertThat(new DateResolver(CLOCK, ZoneOffset.UTC)
+                .resolveWithExpiry(parse(expression)),
+            hasToString(expected));
+    check.accept("this month",
+        "[2018-05-01T00:00:00Z, 2018-06-01T00:00:00Z) "
+            + "until 2018-06-01T00:00:00Z");
+    check.accept("last 7 days",
+        "[2018-05-12T00:00:00Z, 2018-05-19T00:00:00Z) "
+            + "until 2018-05-19T00:00:00Z");
+    check.accept("3 hours",
+        "[2018-05-18T08:00:00Z, 2018-05-18T11:00:00Z) "
+            + "until 2018-05-18T11:00:00Z");
+    check.accept("this year to day",
+        "[2018-01-01T00:00:00Z, 2018-05-19T00:00:00Z) "
+            + "until 2018-05-19T00:00:00Z");
+    check.accept("2018, this week",
+        "[2018-01-01T00:00:00Z, 2019-01-01T00:00:00Z) "
+            + "until 2018-05-21T00:00:00Z");
+    check.accept("2018/05/10",
+        "[2018-05-10T00:00:00Z, 2018-05-11T00:00:00Z) until forever");
+    check.accept("not null", "(-inf, +inf) until forever");
+
+    // In Los Angeles, today ends at 07:00 UTC
+    final DateResolution resolution =
+        new DateResolver(CLOCK, ZoneId.of("America/Los_Angeles"))
+            .resolveWithExpiry(parse("today"));
+    assertThat(resolution.isConstant(), is(false));
+    assertThat(Instant.ofEpochMilli(resolution.expiry),
+        hasToString("2018-05-19T07:00:00Z"));
+    assertThat(resolution.intervals,
+        is(resolve("today", ZoneId.of("America/Los_Angeles"))));
+  }
+
+  @Test void testDateResolutionCache() {
+    final MutableClock clock = new MutableClock(CLOCK.instant());
+    final DateResolutionCache cache =
+        DateResolutionCache.of(new DateResolver(clock, ZoneOffset.UTC), 100);
+    final AstNode thisMonth = parse("this month");
+    final AstNode may = parse("2018/05");
+    final DateResolution r1 = cache.resolve(thisMonth);
+    final DateResolution r2 = cache.resolve(may);
+    assertThat(cache.size(), is(2L));
+    assertThat(cache.resolve(thisMonth), sameInstance(r1));
+
+    // Just before the end of May, nothing has changed
+    clock.instant = Instant.parse("2018-05-31T23:59:59.999Z");
+    assertThat(cache.resolve(thisMonth), sameInstance(r1));
+    assertThat(cache.resolve(may), sameInstance(r2));
+
+    // In June, "this month" is resolved again; "2018/05" is not
+    clock.instant = Instant.parse("2018-06-01T00:00:00Z");
+    final DateResolution r3 = cache.resolve(thisMonth);
+    assertThat(r3,
+        hasToString("[2018-06-01T00:00:00Z, 2018-07-01T00:00:00Z) "
+            + "until 2018-07-01T00:00:00Z"));
+    assertThat(cache.resolve(thisMonth), sameInstance(r3));
+    assertThat(cache.resolve(may), sameInstance(r2));
+    assertThat(cache.size(), is(2L));
+
+    // Each zone has its own entry
+    final DateResolution r4 =
+        cache.resolve(ZoneId.of("Pacific/Auckland"), thisMonth);
+    assertThat(Instant.ofEpochMilli(r4.expiry),
+        hasToString("2018-06-30T12:00:00Z"));
+    assertThat(cache.size(), is(3L));
+  }
+
+  /** Clock whose time can be changed. */
+  private static class MutableClock extends Clock {
+    Instant instant;
+    final ZoneId zone;
+
+    MutableClock(Instant instant) {
+      this(instant, ZoneOffset.UTC);
+    }
+
+    MutableClock(Instant instant, ZoneId zone) {
+      this.instant = instant;
+      this.zone = zone;
+    }
+
+    @Override public ZoneId getZone() {
+      return zone;
+    }
+
+    @Override public Clock withZone(ZoneId zone) {
+      return zone.equals(this.zone) ? this : new MutableClock(instant, zone);
+    }
+
+    @Override public Instant instant() {
+      return instant;
+    }
+  }
+
+  @Test void testResolveBatch() {
+    final ZoneId zone = ZoneId.of("America/Los_Angeles");
+    final DateResolver resolver = new DateResolver(CLOCK, zone);
+
+    // Every hour of 2018, sorted; then random instants from 2016 to 2020
+    final long start = Instant.parse("2018-01-01T08:00:00Z").toEpochMilli();
+    final long hour = TimeUnit.HOURS.toMillis(1);
+    final long[] hourly = new long[365 * 24];
+    for (int i = 0; i < hourly.length; i++) {
+      hourly[i] = start + i * hour;
+    }
+    final Random random = new Random(2);
+    final long[] randoms = new long[500];
+    for (int i = 0; i < randoms.length; i++) {
+      randoms[i] = start - 2 * 365 * 24 * hour
+          + (long) (random.nextDouble() * 4 * 365 * 24 * hour);
+    }
+
+    final List<String> expressions =
+        ImmutableList.of("3 months ago for 2 days", "last 7 days",
+            "this year to day", "3 hours", "2018/05", "today, null",
+            "this fiscal_quarter", "before 3 days ago", "after next month");
+    for (String expression : expressions) {
+      final AstNode node = parse(expression);
+      for (long[] instants : ImmutableList.of(hourly, randoms)) {
+        final DateResolutions resolutions =
+            resolver.resolveBatch(node, instants);
+        assertThat(resolutions.size(), is(instants.length));
+        for (int i = 0; i < instants.length; i += 7) {
+          final Clock clock =
+              Clock.fixed(Instant.ofEpochMilli(instants[i]), ZoneOffset.UTC);
+          assertThat(expression + " as of " + clock.instant(),
+              resolutions.intervals(i),
+              is(new DateResolver(clock, zone).resolve(node)));
+        }
+      }
+    }
+
+    // One resolution per month in which the instants fall, in the same
+    // primitive arrays
+    final DateResolutions resolutions =
+        resolver.resolveBatch(parse("3 months ago for 2 days"), hourly);
+    assertThat(resolutions.resolutionCount(), is(12));
+    assertThat(resolutions.starts.length, is(12));
+    assertThat(Instant.ofEpochMilli(resolutions.starts[0]),
+        hasToString("2017-10-01T07:00:00Z"));
+    assertThat(Instant.ofEpochMilli(resolutions.ends[0]),
+        hasToString("2017-10-03T07:00:00Z"));
+    assertThat(resolutions.index[24 * 31 - 1], is(0));
+    assertThat(resolutions.index[24 * 31], is(1));
+    assertThat(resolver.resolveBatch(parse("2018/05"), randoms)
+        .resolutionCount(), is(1));
+    assertThat(resolver.resolveBatch(parse("3 hours"), hourly)
+        .resolutionCount(), is(hourly.length));
+  }
+
+  private static LocationPredicate location(String expression) {
+    return LocationCompiler.compile(
+        parseFilterExpression(TypeFamily.LOCATION, expression));
+  }
+
+  /** Great-circle distance, in meters, by the spherical law of cosines with
+   * {@code atan2}; a reference for {@link LocationCompiler}. */
+  private static double distance(double lat0, double lon0, double lat1,
+      double lon1) {
+    final double phi0 = Math.toRadians(lat0);
+    final double phi1 = Math.toRadians(lat1);
+    final double dLambda = Math.toRadians(lon1 - lon0);
+    final double y =
+        Math.hypot(Math.cos(phi1) * Math.sin(dLambda),
+            Math.cos(phi0) * Math.sin(phi1)
+                - Math.sin(phi0) * Math.cos(phi1) * Math.cos(dLambda));
+    final double x = Math.sin(phi0) * Math.sin(phi1)
+        + Math.cos(phi0) * Math.cos(phi1) * Math.cos(dLambda);
+    return Math.atan2(y, x) * LocationCompiler.EARTH_RADIUS_METERS;
+  }
+
+  @Test void testCompileCircle() {
+    final LocationPredicate p = location("10 miles from 40.7, -74.0");
+    assertThat(p.test(40.7, -74.0), is(true));
+    // Hoboken, 2 miles; Newark, 9 miles; Paterson, 14 miles
+    assertThat(p.test(40.7440, -74.0324), is(true));
+    assertThat(p.test(40.7357, -74.1724), is(true));
+    assertThat(p.test(40.9168, -74.1718), is(false));
+    assertThat(p.test(39.9526, -75.1652), is(false));
+    assertThat(p.test(Double.NaN, -74.0), is(false));
+    // 10 miles is 0.1447 degrees of latitude
+    assertThat(p.test(40.7 + 0.1446, -74.0), is(true));
+    assertThat(p.test(40.7 - 0.1448, -74.0), is(false));
+
+    assertThat(location("").test(10, 20), is(true));
+    assertThat(location("NOT NULL").test(10, 20), is(true));
+    assertThat(location("NULL").test(10, 20), is(false));
+    assertThat(location("36.97, -122.03").test(36.97, -122.03), is(true));
+    assertThat(location("36.97, -122.03").test(36.97, -122.04), is(false));
+
+    // Circles that cross the antimeridian, or contain a pole
+    final LocationPredicate fiji = location("300 kilometers from -17.7, 179.5");
+    assertThat(fiji.test(-17.7, -179.0), is(true));
+    assertThat(fiji.test(-17.7, 177.0), is(true));
+    assertThat(fiji.test(-17.7, -176.0), is(false));
+    final LocationPredicate pole = location("500 miles from 85, 0");
+    assertThat(pole.test(89, 180), is(true));
+    assertThat(pole.test(84, 30), is(true));
+    assertThat(pole.test(75, 180), is(false));
+
+    // Random circles and locations agree with the reference, except within
+    // a meter of the edge; the bitset agrees with the predicate
+    final Random random = new Random(3);
+    final int count = 1_000;
+    final double[] latitudes = new double[count];
+    final double[] longitudes = new double[count];
+    for (int k = 0; k < 100; k++) {
+      final double lat0 = random.nextDouble() * 180 - 90;
+      final double lon0 = random.nextDouble() * 360 - 180;
+      final double meters = Math.pow(10, 2 + random.nextDouble() * 5);
+      final LocationPredicate circle =
+          LocationCompiler.circle(lat0, lon0, meters);
+      for (int i = 0; i < count; i++) {
+        // Half near the center, half anywhere
+        final double spread = i % 2 == 0 ? meters / 50_000 : 180;
+        latitudes[i] = Math.max(-90, Math.min(90,
+            lat0 + (random.nextDouble() * 2 - 1) * spread));
+        double lon = lon0 + (random.nextDouble() * 2 - 1) * spread * 2;
+        longitudes[i] = lon > 180 ? lon - 360 : lon < -180 ? lon + 360 : lon;
+      }
+      final long[] bits = circle.evaluate(latitudes, longitudes, count);
+      for (int i = 0; i < count; i++) {
+        final boolean b = circle.test(latitudes[i], longitudes[i]);
+        assertThat(bit(bits, i), is(b));
+        final double d =
+            distance(lat0, lon0, latitudes[i], longitudes[i]);
+        if (Math.abs(d - meters) > 1) {
+          assertThat("circle " + lat0 + ", " + lon0 + " " + meters
+                  + "m; location " + latitudes[i] + ", " + longitudes[i],
+              b, is(d < meters));
+        }
+      }
+    }
+  }
+
+  @Test void testCompileBox() {
+    final LocationPredicate p =
+        location("inside box from 72.33, -173.14 to 14.39, -61.70");
+    assertThat(p.test(40.7, -74.0), is(true));
+    assertThat(p.test(14.39, -61.70), is(true));
+    assertThat(p.test(72.33, -173.14), is(true));
+    assertThat(p.test(10, -74.0), is(false));
+    assertThat(p.test(40.7, -50.0), is(false));
+    assertThat(p.test(40.7, 179.0), is(false));
+    assertThat(p.test(Double.NaN, -74.0), is(false));
+
+    // A box from 170 east to 170 west crosses the 180° meridian
+    final LocationPredicate pacific =
+        location("inside box from 10, 170 to -10, -170");
+    assertThat(pacific.test(0, 175), is(true));
+    assertThat(pacific.test(0, 180), is(true));
+    assertThat(pacific.test(0, -180), is(true));
+    assertThat(pacific.test(0, -171), is(true));
+    assertThat(pacific.test(0, 0), is(false));
+    assertThat(pacific.test(0, 169), is(false));
+    assertThat(pacific.test(0, -169), is(false));
+    assertThat(pacific.test(11, 175), is(false));
+    // The box from 170 west to 170 east is most of the world
+    final LocationPredicate world =
+        location("inside box from 10, -170 to -10, 170");
+    assertThat(world.test(0, 0), is(true));
+    assertThat(world.test(0, 175), is(false));
+  }
+
+  /** Evaluates location filters against a column of locations with a
+   * validity bitmap, and compares with the predicates. */
+  @Test void testBatchEvaluatorLocations() {
+    final Random random = new Random(4);
+    final int count = 300;
+    final double[] latitudes = new double[count];
+    final double[] longitudes = new double[count];
+    for (int i = 0; i < count; i++) {
+      latitudes[i] = random.nextDouble() * 180 - 90;
+      longitudes[i] = random.nextDouble() * 360 - 180;
+    }
+    final Locations locations = Locations.of(latitudes, longitudes);
+    final long[] validity = new long[BatchEvaluator.wordCount(count)];
+    for (int w = 0; w < validity.length; w++) {
+      validity[w] = random.nextLong();
+    }
+    final List<String> expressions = new ArrayList<>();
+    TestValues.LOCATION_EXPRESSION_TEST_ITEMS.forEach(item ->
+        expressions.add(item.expression));
+    expressions.add("inside box from 10, 170 to -60, -100");
+    expressions.add("3000 kilometers from 0, 179");
+    forEach(expressions, expression -> {
+      final AstNode node =
+          parseFilterExpression(TypeFamily.LOCATION, expression);
+      final LocationPredicate predicate = LocationCompiler.compile(node);
+      final boolean matchesNull = NumberCompiler.matchesNull(node);
+      final BatchEvaluator<Locations> evaluator =
+          BatchEvaluator.ofLocation(node);
+      final long[] bits = evaluator.evaluate(locations, null, count);
+      final long[] nullBits = evaluator.evaluate(locations, validity, count);
+      for (int i = 0; i < count; i++) {
+        final boolean b = predicate.test(latitudes[i], longitudes[i]);
+        final String s =
+            expression + " on " + latitudes[i] + ", " + longitudes[i];
+        assertThat(s, bit(bits, i), is(b));
+        assertThat(s, bit(nullBits, i),
+            is(bit(validity, i) ? b : matchesNull));
+      }
+    });
+  }
+
+  /** Adds random circles and boxes to a {@link LocationIndex}, removes
+   * some, and checks that it finds the same filters as testing each
+   * filter. */
+  @Test void testLocationIndex() {
+    final LocationIndex<Integer> index = LocationIndex.of(0.5);
+    final Map<Integer, LocationPredicate> predicates = new HashMap<>();
+    final Random random = new Random(5);
+    for (int i = 0; i < 2_000; i++) {
+      final String expression;
+      final int lat = random.nextInt(170) - 85;
+      final int lon = random.nextInt(360) - 180;
+      switch (i % 10) {
+      case 0:
+        expression = "inside box from " + (lat + 2) + ", " + lon + " to "
+            + lat + ", " + (lon + 5 > 180 ? lon + 5 - 360 : lon + 5);
+        break;
+      case 1:
+        expression = random.nextInt(3000) + " kilometers from " + lat
+            + ", " + lon;
+        break;
+      case 2:
+        expression = i % 100 == 2 ? "" : lat + ", " + lon;
+        break;
+      default:
+        expression = random.nextInt(50) + " miles from " + lat + ", " + lon;
+      }
+      final AstNode node =
+          parseFilterExpression(TypeFamily.LOCATION, expression);
+      index.add(i, node);
+      predicates.put(i, LocationCompiler.compile(node));
+    }
+    for (int i = 0; i < 2_000; i += 3) {
+      assertThat(index.remove(i), is(true));
+      predicates.remove(i);
+    }
+    assertThat(index.remove(0), is(false));
+    assertThat(index.size(), is(predicates.size()));
+
+    for (int k = 0; k < 2_000; k++) {
+      final double lat = k % 100 == 0 ? 90 : random.nextDouble() * 180 - 90;
+      final double lon = k % 100 == 1 ? 180 : random.nextDouble() * 360 - 180;
+      final Set<Integer> expected = new TreeSet<>();
+      predicates.forEach((key, predicate) -> {
+        if (predicate.test(lat, lon)) {
+          expected.add(key);
+        }
+      });
+      assertThat(new TreeSet<>(index.matches(lat, lon)), is(expected));
+    }
+
+    // A point matches itself; replacing a filter moves it
+    index.add(5_000, parseFilterExpression(TypeFamily.LOCATION, "10, 20"));
+    assertThat(index.matches(10, 20).contains(5_000), is(true));
+    index.add(5_000, parseFilterExpression(TypeFamily.LOCATION, "-10, 20"));
+    assertThat(index.matches(10, 20).contains(5_000), is(false));
+    assertThat(index.matches(-10, 20).contains(5_000), is(true));
+  }
+
+  /** Queries a {@link PointIndex} with random filters, and checks that it
+   * selects the same points as testing every point. */
+  @Test void testPointIndex() {
+    final Random random = new Random(6);
+    final int count = 20_000;
+    final double[] latitudes = new double[count];
+    final double[] longitudes = new double[count];
+    for (int i = 0; i < count; i++) {
+      if (i % 10 == 0 && i > 0) {
+        // Duplicate an earlier point
+        latitudes[i] = latitudes[i / 2];
+        longitudes[i] = longitudes[i / 2];
+      } else if (i % 1_000 == 7) {
+        latitudes[i] = Double.NaN;
+        longitudes[i] = 0;
+      } else {
+        latitudes[i] = Math.round(random.nextDouble() * 1_800 - 900) / 10d;
+        longitudes[i] = Math.round(random.nextDouble() * 3_600 - 1_800) / 10d;
+      }
+    }
+    final PointIndex index = PointIndex.of(latitudes, longitudes);
+    assertThat(index.size(), is(count - 20));
+
+    final List<String> expressions = new ArrayList<>();
+    TestValues.LOCATION_EXPRESSION_TEST_ITEMS.forEach(item ->
+        expressions.add(item.expression));
+    expressions.add("inside box from 10, 170 to -60, -100");
+    expressions.add("3000 kilometers from 0, 179");
+    expressions.add("500 miles from 88, 10");
+    expressions.add(latitudes[2] + ", " + longitudes[2]);
+    for (int k = 0; k < 50; k++) {
+      expressions.add(randomLocationFilter(random, k % 2 == 0, 2_000));
+    }
+    forEach(expressions, expression -> {
+      final AstNode node =
+          parseFilterExpression(TypeFamily.LOCATION, expression);
+      final LocationPredicate predicate = LocationCompiler.compile(node);
+      final List<Integer> expected = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        if (!Double.isNaN(latitudes[i])
+            && predicate.test(latitudes[i], longitudes[i])) {
+          expected.add(i);
+        }
+      }
+      final List<Integer> actual = new ArrayList<>();
+      for (int id : index.select(node)) {
+        actual.add(id);
+      }
+      assertThat(expression, actual, is(expected));
+    });
+  }
+
+  /** Generates a random location filter: a circle of up to
+   * {@code maxKilometers}, or a box up to 5 degrees high that spans 160 to
+   * 200 degrees of longitude, with an integer latitude and longitude
+   * {@code lat, lon} that is its center or its south-west corner. */
+  private static String randomLocationFilter(Random random, boolean circle,
+      int maxKilometers) {
+    final int lat = random.nextInt(170) - 85;
+    final int lon = random.nextInt(360) - 180;
+    final int lon1 = Math.floorMod(lon + random.nextInt(40) + 160, 360) - 180;
+    return circle
+        ? random.nextInt(maxKilometers) + " kilometers from " + lat + ", " + lon
+        : "inside box from " + (lat + random.nextInt(5)) + ", " + lon
+            + " to " + lat + ", " + lon1;
+  }
+
+  @Test void testGeohash() {
+    assertThat(Geohash.encode(57.64911, 10.40744, 11), is("u4pruydqqvj"));
+    assertThat(Geohash.encode(40.7, -74.0, 5), is("dr5rs"));
+    final double[] box = Geohash.bounds("u4pruydqqvj");
+    assertThat(box[0] <= 57.64911 && 57.64911 <= box[1], is(true));
+    assertThat(box[2] <= 10.40744 && 10.40744 <= box[3], is(true));
+    assertThat(Arrays.toString(Geohash.bounds("")),
+        is("[-90.0, 90.0, -180.0, 180.0]"));
+    assertThat(Arrays.toString(Geohash.bounds("d")),
+        is("[0.0, 45.0, -90.0, -45.0]"));
+  }
+
+  /** Checks that the covering of location filters contains every location
+   * that the filter matches, and respects the maximum number of cells. */
+  @Test void testGeohashCover() {
+    final AstNode nyc =
+        parseFilterExpression(TypeFamily.LOCATION,
+            "10 miles from 40.7, -74.0");
+    assertThat(Geohash.cover(nyc, 12, 1), hasToString("[dr]"));
+    assertThat(Geohash.cover(nyc, 3, 100), hasToString("[dr5, dr7]"));
+    final List<String> cells = Geohash.cover(nyc, 5, 32);
+    // 22 cells; dividing "dr5r" or "dr72" would exceed 32
+    assertThat(cells,
+        hasToString("[dr5pp, dr5pr, dr5px, dr5pz, dr5qb, dr5qc, dr5qd, "
+            + "dr5qe, dr5qf, dr5qg, dr5qs, dr5qt, dr5qu, dr5qv, dr5qy, "
+            + "dr5qz, dr5r, dr5x0, dr5x2, dr5x8, dr5xb, dr72]"));
+    assertThat(
+        Geohash.cover(parseFilterExpression(TypeFamily.LOCATION, ""), 5, 10),
+        is(ImmutableList.of("")));
+    assertThat(
+        Geohash.cover(parseFilterExpression(TypeFamily.LOCATION, "NULL"), 5,
+            10),
+        is(ImmutableList.of()));
+
+    // Random circles and boxes, and locations near them
+    final Random random = new Random(7);
+    final int[] hits = new int[2];
+    for (int k = 0; k < 60; k++) {
+      final String expression = randomLocationFilter(random, k % 2 == 0, 500);
+      final AstNode node =
+          parseFilterExpression(TypeFamily.LOCATION, expression);
+      final LocationPredicate predicate = LocationCompiler.compile(node);
+      final Location location = node instanceof Ast.Circle
+          ? ((Ast.Circle) node).location
+          : ((Ast.Box) node).from;
+      final double lat = location.latitude.doubleValue();
+      final double lon = location.longitude.doubleValue();
+      final int maxCells = 1 + random.nextInt(200);
+      final int precision = 1 + random.nextInt(7);
+      final List<String> cover = Geohash.cover(node, precision, maxCells);
+      assertThat(expression, cover.size() <= maxCells, is(true));
+      for (int i = 0; i < 2_000; i++) {
+        final double lat2 =
+            Math.max(-90, Math.min(90, lat + random.nextDouble() * 30 - 15));
+        final double lon2 = Math.floorMod(
+            (long) ((lon + 180 + random.nextDouble() * 60 - 30) * 1e9),
+            (long) 360e9) / 1e9 - 180;
+        if (predicate.test(lat2, lon2)) {
+          ++hits[k % 2];
+          final String hash = Geohash.encode(lat2, lon2,
+              Geohash.MAX_PRECISION);
+          assertThat(expression + " at " + lat2 + ", " + lon2,
+              cover.stream().anyMatch(hash::startsWith), is(true));
+        }
+      }
+    }
+    // Some locations are in circles, and some are in boxes
+    assertThat(hits[0] > 0, is(true));
+    assertThat(hits[1] > 0, is(true));
+  }
+
+  @Test void testDateIntervals() {
+    final long day = 86_400_000L;
+    final DateIntervals a =
+        DateIntervals.of(new long[] {5 * day, 0, 2 * day, 9 * day},
+            new long[] {6 * day, 3 * day, 4 * day, 9 * day});
+    assertThat(a.size(), is(2));
+    assertThat(a,
+        hasToString("[1970-01-01T00:00:00Z, 1970-01-05T00:00:00Z), "
+            + "[1970-01-06T00:00:00Z, 1970-01-07T00:00:00Z)"));
+    assertThat(a.contains(0), is(true));
+    assertThat(a.contains(4 * day - 1), is(true));
+    assertThat(a.contains(4 * day), is(false));
+    assertThat(a.contains(-1), is(false));
+    assertThat(a.contains(6 * day), is(false));
+
+    final DateIntervals b = DateIntervals.of(day, 5 * day + 1);
+    assertThat(a.minus(b),
+        hasToString("[1970-01-01T00:00:00Z, 1970-01-02T00:00:00Z), "
+            + "[1970-01-06T00:00:00.001Z, 1970-01-07T00:00:00Z)"));
+    assertThat(a.union(b),
+        hasToString("[1970-01-01T00:00:00Z, 1970-01-07T00:00:00Z)"));
+    assertThat(DateIntervals.ALL.minus(b).withNull(true),
+        hasToString("(-inf, 1970-01-02T00:00:00Z), "
+            + "[1970-01-06T00:00:00.001Z, +inf), null"));
+    assertThat(a.minus(DateIntervals.ALL).isEmpty(), is(true));
+    assertThat(DateIntervals.ALL.minus(b).toRangeSet(),
+        hasToString("[(-\u221e..86400000), [432000001..+\u221e)]"));
+    assertThat(a.union(b), is(DateIntervals.of(0, 6 * day)));
+  }
+
+  @Test void testDateCompiler() {
+    final ZoneId zone = ZoneId.of("America/Los_Angeles");
+    final DateResolver resolver = new DateResolver(CLOCK, zone);
+    forEach(ImmutableList.of(TypeFamily.DATE, TypeFamily.DATE_TIME),
+        typeFamily -> {
+          // In Los Angeles, "today" is 2018-05-18, which is 17669 days after
+          // 1970-01-01, and starts at 2018-05-18T07:00:00Z.
+          final DateIntervals today =
+              resolver.resolve(parseFilterExpression(typeFamily, "today"));
+          final IntPredicate days = DateCompiler.compileEpochDay(today, zone);
+          assertThat(days.test(17668), is(false));
+          assertThat(days.test(17669), is(true));
+          assertThat(days.test(17670), is(false));
+
+          final long start = Instant.parse("2018-05-18T07:00:00Z")
+              .toEpochMilli();
+          final long end = start + 86_400_000L;
+          final LongPredicate millis =
+              DateCompiler.compileEpoch(today, TimeUnit.MILLISECONDS);
+          assertThat(millis.test(start - 1), is(false));
+          assertThat(millis.test(start), is(true));
+          assertThat(millis.test(end - 1), is(true));
+          assertThat(millis.test(end), is(false));
+
+          final LongPredicate micros =
+              DateCompiler.compileEpoch(today, TimeUnit.MICROSECONDS);
+          assertThat(micros.test(start * 1_000L - 1), is(false));
+          assertThat(micros.test(start * 1_000L), is(true));
+          assertThat(micros.test(end * 1_000L - 1), is(true));
+          assertThat(micros.test(end * 1_000L), is(false));
+
+          final LongPredicate nanos =
+              DateCompiler.compileEpoch(today, TimeUnit.NANOSECONDS);
+          assertThat(nanos.test(start * 1_000_000L - 1), is(false));
+          assertThat(nanos.test(start * 1_000_000L), is(true));
+          assertThat(nanos.test(end * 1_000_000L - 1), is(true));
+          assertThat(nanos.test(end * 1_000_000L), is(false));
+
+          final LongPredicate seconds =
+              DateCompiler.compileEpoch(today, TimeUnit.SECONDS);
+          assertThat(seconds.test(start / 1_000L - 1), is(false));
+          assertThat(seconds.test(start / 1_000L), is(true));
+          assertThat(seconds.test(end / 1_000L - 1), is(true));
+          assertThat(seconds.test(end / 1_000L), is(false));
+
+          final Predicate<Timestamp> timestamps =
+              DateCompiler.compileTimestamp(today);
+          final Timestamp t = new Timestamp(end - 1);
+          t.setNanos(999_999_999);
+          assertThat(timestamps.test(t), is(true));
+          assertThat(timestamps.test(new Timestamp(end)), is(false));
+          assertThat(timestamps.test(null), is(false));
+        });
+
+    // A second is in an interval if its start is; the epoch-day predicate
+    // matches days whose start is in the interval.
+    final DateIntervals minute =
+        resolver.resolve(parseFilterExpression(TypeFamily.DATE_TIME,
+            "2018/05/10 12:00"));
+    final long noon = Instant.parse("2018-05-10T19:00:00Z").getEpochSecond();
+    final LongPredicate seconds =
+        DateCompiler.compileEpoch(minute, TimeUnit.SECONDS);
+    assertThat(seconds.test(noon - 1), is(false));
+    assertThat(seconds.test(noon + 59), is(true));
+    assertThat(seconds.test(noon + 60), is(false));
+    assertThat(DateCompiler.compileEpochDay(minute, zone).test(17661),
+        is(false));
+
+    // Unbounded intervals, and null
+    final DateIntervals before =
+        resolver.resolve(
+            parseFilterExpression(TypeFamily.DATE, "before 2018/05/10, null"));
+    final LongPredicate nanos =
+        DateCompiler.compileEpoch(before, TimeUnit.NANOSECONDS);
+    assertThat(nanos.test(Long.MIN_VALUE), is(true));
+    assertThat(nanos.test(0), is(true));
+    assertThat(nanos.test(Long.MAX_VALUE), is(false));
+    final IntPredicate days = DateCompiler.compileEpochDay(before, zone);
+    assertThat(days.test(Integer.MIN_VALUE), is(true));
+    assertThat(days.test(17660), is(true));
+    assertThat(days.test(17661), is(false));
+    assertThat(DateCompiler.compileTimestamp(before).test(null), is(true));
+  }
+
+  /** Tests that batch evaluators of date filters give the same result as
+   * predicates, for few and many intervals. */
+  @Test void testBatchEvaluatorDates() {
+    final ZoneId zone = ZoneId.of("America/Los_Angeles");
+    final DateResolver resolver = new DateResolver(CLOCK, zone);
+    final List<String> expressions =
+        ImmutableList.of("today", "this year to day, null",
+            "before 2018/05/10, after 2018/05/12",
+            "2018/05/01, 2018/05/03, 2018/05/05, 2018/05/07, 2018/05/09, "
+                + "2018/05/11, 2018/05/13, 2018/05/15, 2018/05/17, "
+                + "2018/05/19");
+    final int count = 1_000;
+    final Random random = new Random(0);
+    final long start = Instant.parse("2018-04-28T00:00:00Z").toEpochMilli();
+    final long[] millis = new long[count];
+    final int[] days = new int[count];
+    final long[] validity = new long[BatchEvaluator.wordCount(count)];
+    for (int i = 0; i < count; i++) {
+      millis[i] = start + (long) (random.nextDouble() * 25 * 86_400_000L);
+      days[i] = (int) (millis[i] / 86_400_000L);
+      if (random.nextInt(10) > 0) {
+        validity[i / 64] |= 1L << i;
+      }
+    }
+    forEach(expressions, expression -> {
+      final DateIntervals intervals =
+          resolver.resolve(parseFilterExpression(TypeFamily.DATE, expression));
+      final LongPredicate millisPredicate =
+          DateCompiler.compileEpoch(intervals, TimeUnit.MILLISECONDS);
+      final IntPredicate dayPredicate =
+          DateCompiler.compileEpochDay(intervals, zone);
+      final long[] millisBits =
+          BatchEvaluator.ofEpoch(intervals, TimeUnit.MILLISECONDS)
+              .evaluate(millis, validity, count);
+      final long[] dayBits =
+          BatchEvaluator.ofEpochDay(intervals, zone)
+              .evaluate(days, validity, count);
+      for (int i = 0; i < count; i++) {
+        final boolean valid = (validity[i / 64] & (1L << i)) != 0;
+        assertThat(expression + " millis " + millis[i],
+            (millisBits[i / 64] & (1L << i)) != 0,
+            is(valid ? millisPredicate.test(millis[i])
+                : intervals.containsNull));
+        assertThat(expression + " day " + days[i],
+            (dayBits[i / 64] & (1L << i)) != 0,
+            is(valid ? dayPredicate.test(days[i]) : intervals.containsNull));
+      }
+    });
+  }
+
+  /** Tests that {@link EpochDays} agrees with {@link LocalDate}. */
+  @Test void testEpochDays() {
+    final Random random = new Random(0);
+    final List<Long> days = new ArrayList<>();
+    for (long d = -800_000; d < 800_000; d += 97) {
+      days.add(d); // from about 160 BC to 4100 AD
+    }
+    for (int i = 0; i < 1_000; i++) {
+      days.add(random.nextInt(40_000) - 20_000L);
+    }
+    days.add(LocalDate.MIN.toEpochDay());
+    days.add(LocalDate.MAX.toEpochDay());
+    forEach(days, d -> {
+      final LocalDate date = LocalDate.ofEpochDay(d);
+      assertThat(EpochDays.year(d), is(date.getYear()));
+      assertThat(EpochDays.month(d), is(date.getMonthValue()));
+      assertThat(EpochDays.dayOfMonth(d), is(date.getDayOfMonth()));
+      assertThat(EpochDays.quarter(d), is((date.getMonthValue() + 2) / 3));
+      assertThat(EpochDays.dayOfWeek(d), is(date.getDayOfWeek().getValue()));
+      final long epochMonth =
+          (date.getYear() - 1970L) * 12 + date.getMonthValue() - 1;
+      assertThat(EpochDays.epochMonth(d), is(epochMonth));
+      assertThat(EpochDays.epochQuarter(d),
+          is(Math.floorDiv(epochMonth, 3L)));
+      assertThat(EpochDays.firstDayOfMonth(epochMonth),
+          is(date.withDayOfMonth(1).toEpochDay()));
+      assertThat(
+          EpochDays.daysFromCivil(date.getYear(), date.getMonthValue(),
+              date.getDayOfMonth()),
+          is(d));
+      final long monday =
+          date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY))
+              .toEpochDay();
+      assertThat(EpochDays.epochWeek(d), is(Math.floorDiv(monday + 3, 7L)));
+    });
+  }
+
+  /** Tests {@link DateCompiler#compileEpochDay(AstNode, DateResolver)},
+   * which evaluates calendar fields by arithmetic; where a filter can also
+   * be resolved to intervals, the results must be the same. */
+  @Test void testCompileEpochDayFields() {
+    final ZoneId zone = ZoneId.of("America/Los_Angeles");
+    final DateResolver resolver = new DateResolver(CLOCK, zone);
+    final long today = LocalDate.of(2018, 5, 18).toEpochDay();
+    assertThat(resolver.today(), is(today));
+
+    final IntPredicate weekdays =
+        DateCompiler.compileEpochDay(
+            parseFilterExpression(TypeFamily.DATE, "monday, friday"),
+            resolver);
+    for (int d = (int) today - 30; d < today + 30; d++) {
+      final DayOfWeek dayOfWeek = LocalDate.ofEpochDay(d).getDayOfWeek();
+      assertThat(weekdays.test(d),
+          is(dayOfWeek == DayOfWeek.MONDAY || dayOfWeek == DayOfWeek.FRIDAY));
+    }
+
+    final IntPredicate mixed =
+        DateCompiler.compileEpochDay(
+            parseFilterExpression(TypeFamily.DATE,
+                "sunday, last month, 2018/05/10"),
+            resolver);
+    assertThat(mixed.test((int) today), is(false)); // Friday
+    assertThat(mixed.test((int) today + 2), is(true)); // Sunday
+    assertThat(mixed.test((int) today - 8), is(true)); // 2018/05/10
+    assertThat(mixed.test((int) today - 20), is(true)); // 2018/04/28
+    assertThat(mixed.test((int) today - 50), is(false)); // 2018/03/29
+
+    final List<String> expressions =
+        ImmutableList.of("today", "yesterday, tomorrow", "this week",
+            "last week", "next month", "this quarter",
+            "last year", "before this month", "after last week",
+            "before next quarter, null", "after next year", "this day",
+            "3 days", "this year to day", "not null");
+    forEach(expressions, expression -> {
+      final AstNode node = parseFilterExpression(TypeFamily.DATE, expression);
+      final IntPredicate fields = DateCompiler.compileEpochDay(node, resolver);
+      final IntPredicate intervals =
+          DateCompiler.compileEpochDay(resolver.resolve(node), zone);
+      for (int d = (int) today - 800; d < today + 800; d++) {
+        assertThat(expression + " " + LocalDate.ofEpochDay(d),
+            fields.test(d), is(intervals.test(d)));
+      }
+    });
+  }
+
+  @Test void testFiscalCalendar() {
+    final FiscalCalendar calendar = FiscalCalendar.DEFAULT;
+    final long may18 = LocalDate.of(2018, 5, 18).toEpochDay();
+    assertThat(LocalDate.ofEpochDay(calendar.yearStart(2018)),
+        hasToString("2018-01-01"));
+    assertThat(calendar.year(may18), is(2018));
+    assertThat(calendar.quarter(may18), is(2));
+
+    // Fiscal year 2018 starts in April 2018
+    final FiscalCalendar april = FiscalCalendar.of(4);
+    assertThat(april, hasToString("FiscalCalendar{startMonth=4, "
+        + "pattern=MONTHS}"));
+    assertThat(LocalDate.ofEpochDay(april.yearStart(2018)),
+        hasToString("2018-04-01"));
+    assertThat(LocalDate.ofEpochDay(april.quarterStart(2018, 4)),
+        hasToString("2019-01-01"));
+    assertThat(april.year(LocalDate.of(2019, 2, 1).toEpochDay()), is(2018));
+    assertThat(april.quarter(may18), is(1));
+
+    // A retail 4-4-5 calendar: the year starts on the Sunday nearest
+    // February 1. Fiscal 2023 has 53 weeks.
+    final FiscalCalendar retail =
+        FiscalCalendar.of(2)
+            .withPattern(FiscalCalendar.Pattern.FOUR_FOUR_FIVE)
+            .withFirstDayOfWeek(DayOfWeek.SUNDAY);
+    assertThat(retail, hasToString("FiscalCalendar{startMonth=2, "
+        + "pattern=FOUR_FOUR_FIVE, firstDayOfWeek=SUNDAY}"));
+    assertThat(LocalDate.ofEpochDay(retail.yearStart(2017)),
+        hasToString("2017-01-29"));
+    assertThat(LocalDate.ofEpochDay(retail.yearStart(2018)),
+        hasToString("2018-02-04"));
+    assertThat(LocalDate.ofEpochDay(retail.quarterStart(2018, 2)),
+        hasToString("2018-05-06"));
+    assertThat(retail.yearStart(2024) - retail.yearStart(2023),
+        is(53 * 7L));
+    assertThat(retail.year(LocalDate.of(2024, 2, 3).toEpochDay()),
+        is(2023));
+    assertThat(retail.quarter(may18), is(2));
+
+    // Boundaries outside the precomputed range are the same as inside.
+    forEach(ImmutableList.of(april, retail,
+        retail.withPattern(FiscalCalendar.Pattern.FIVE_FOUR_FOUR)),
+        c -> {
+          final FiscalCalendar narrow = c.withYearRange(2010, 2012);
+          for (long d = LocalDate.of(2000, 1, 1).toEpochDay();
+               d < LocalDate.of(2025, 1, 1).toEpochDay(); d++) {
+            assertThat(narrow.year(d), is(c.year(d)));
+            assertThat(narrow.epochQuarter(d), is(c.epochQuarter(d)));
+            final long q = c.epochQuarter(d);
+            assertThat(c.quarterStart(q) <= d, is(true));
+            assertThat(d < c.quarterStart(q + 1), is(true));
+          }
+        });
+
+    // Resolve fiscal filters
+    final ZoneId zone = ZoneOffset.UTC;
+    final DateResolver resolver = new DateResolver(CLOCK, zone, retail);
+    final BiConsumer<String, String> check = (expression, expected) ->
+        assertThat(expression,
+            resolver.resolve(parseFilterExpression(TypeFamily.DATE,
+                expression)),
+            hasToString(expected));
+    check.accept("FY2018",
+        "[2018-02-04T00:00:00Z, 2019-02-03T00:00:00Z)");
+    check.accept("FY2018-Q2",
+        "[2018-05-06T00:00:00Z, 2018-08-05T00:00:00Z)");
+    check.accept("this fiscal_quarter",
+        "[2018-05-06T00:00:00Z, 2018-08-05T00:00:00Z)");
+    check.accept("last fiscal_year",
+        "[2017-01-29T00:00:00Z, 2018-02-04T00:00:00Z)");
+    check.accept("3 fiscal_quarters",
+        "[2017-10-29T00:00:00Z, 2018-08-05T00:00:00Z)");
+    check.accept("after next fiscal_quarter",
+        "[2018-08-05T00:00:00Z, +inf)");
+    assertThat(
+        new DateResolver(CLOCK, zone, april)
+            .resolve(parseFilterExpression(TypeFamily.DATE, "FY2018-Q2")),
+        hasToString("[2018-07-01T00:00:00Z, 2018-10-01T00:00:00Z)"));
+
+    // Arithmetic on epoch days agrees with resolved intervals
+    final long today = resolver.today();
+    forEach(
+        ImmutableList.of("this fiscal_quarter", "next fiscal_year",
+            "before last fiscal_quarter", "after this fiscal_year"),
+        expression -> {
+          final AstNode node =
+              parseFilterExpression(TypeFamily.DATE, expression);
+          final IntPredicate fields =
+              DateCompiler.compileEpochDay(node, resolver);
+          final IntPredicate intervals =
+              DateCompiler.compileEpochDay(resolver.resolve(node), zone);
+          for (int d = (int) today - 800; d < today + 800; d++) {
+            assertThat(expression + " " + LocalDate.ofEpochDay(d),
+                fields.test(d), is(intervals.test(d)));
+          }
+        });
+  }
+}
+
+// End EvalTest.java
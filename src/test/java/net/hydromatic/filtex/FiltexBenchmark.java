@@ -0,0 +1,311 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex;
+
+import net.hydromatic.filtex.ast.Ast;
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.ast.Digester;
+import net.hydromatic.filtex.ast.Op;
+import net.hydromatic.filtex.ast.Summary;
+import net.hydromatic.filtex.parse.FiltexParserImpl;
+import net.hydromatic.filtex.parse.ParseException;
+import net.hydromatic.filtex.parse.StringCharStream;
+
+import com.google.common.collect.ImmutableList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static net.hydromatic.filtex.ast.AstBuilder.ast;
+
+/**
+ * Benchmarks the main operations on filter expressions: parse, transform,
+ * unparse, summary and digest.
+ *
+ * <p>Each operation is applied to every expression in a corpus. The corpus
+ * is determined by two parameters: {@code typeFamily}, and {@code corpus},
+ * which is either "testValues" (the expressions in {@link TestValues}) or
+ * "synthetic" (generated expressions that are longer and more numerous).
+ * Expressions for which an operation throws, such as dates that cannot yet
+ * be unparsed, are left out of that operation's corpus; currently only
+ * LOCATION has summaries.
+ *
+ * <p>Run with "-prof gc" to see allocation rates. For example,
+ *
+ * <pre>{@code
+ * ./mvnw -Pbenchmark test-compile exec:exec \
+ *     -Djmh.args="FiltexBenchmark -p typeFamily=NUMBER -prof gc"
+ * }</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FiltexBenchmark {
+  @Param({"NUMBER", "DATE", "LOCATION"})
+  TypeFamily typeFamily;
+
+  @Param({"testValues", "synthetic"})
+  String corpus;
+
+  /** Expressions to parse. */
+  List<String> expressions;
+
+  /** For each valid expression, the terms of its untransformed AST. */
+  List<List<AstNode>> termLists;
+
+  /** Parsed expressions that can be unparsed. */
+  List<AstNode> unparseNodes;
+
+  /** Parsed expressions, and their text, that can be summarized. */
+  List<AstNode> summaryNodes;
+  List<String> summaryExpressions;
+
+  /** Parsed expressions that can be digested. */
+  List<AstNode> digestNodes;
+
+  @Setup public void setup() {
+    expressions =
+        corpus.equals("synthetic") ? synthetic(typeFamily)
+            : testValues(typeFamily);
+    termLists = new ArrayList<>();
+    unparseNodes = new ArrayList<>();
+    summaryNodes = new ArrayList<>();
+    summaryExpressions = new ArrayList<>();
+    digestNodes = new ArrayList<>();
+    for (String expression : expressions) {
+      final ParseResult result =
+          Filtex.tryParseFilterExpression(typeFamily, expression);
+      if (!result.isValid()) {
+        continue;
+      }
+      final AstNode node = result.node;
+      if (succeeds(node, AstNode::toString)) {
+        unparseNodes.add(node);
+      }
+      if (succeeds(node, n ->
+          Summary.summary(typeFamily, n, expression, ImmutableList.of()))) {
+        summaryNodes.add(node);
+        summaryExpressions.add(expression);
+      }
+      if (succeeds(node, n -> n.digest(new Digester()))) {
+        digestNodes.add(node);
+      }
+
+      // Terms for the transform benchmark come from the raw AST, before
+      // transforms have merged terms.
+      final List<AstNode> terms = new ArrayList<>();
+      addTerms(terms, parseRaw(expression));
+      termLists.add(terms);
+    }
+  }
+
+  private AstNode parseRaw(String expression) {
+    try {
+      return Filtex.parseRaw(
+          new FiltexParserImpl(new StringCharStream(expression)), typeFamily);
+    } catch (ParseException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /** Adds the terms of a logical expression to a list. */
+  private static void addTerms(List<AstNode> terms, AstNode node) {
+    if (node.op == Op.COMMA) {
+      addTerms(terms, ((Ast.Call2) node).left);
+      addTerms(terms, ((Ast.Call2) node).right);
+    } else {
+      terms.add(node);
+    }
+  }
+
+  private static boolean succeeds(AstNode node,
+      Function<AstNode, Object> action) {
+    try {
+      action.apply(node);
+      return true;
+    } catch (RuntimeException | AssertionError e) {
+      return false;
+    }
+  }
+
+  /** Returns the expressions in {@link TestValues} for a type family. */
+  private static List<String> testValues(TypeFamily typeFamily) {
+    final List<String> list = new ArrayList<>();
+    switch (typeFamily) {
+    case NUMBER:
+      TestValues.NUMBER_EXPRESSION_TEST_ITEMS.forEach(item ->
+          list.add(item.expression));
+      break;
+    case DATE:
+      TestValues.DATE_EXPRESSION_TEST_ITEMS.forEach(item ->
+          list.add(item.expression));
+      break;
+    case LOCATION:
+      TestValues.LOCATION_EXPRESSION_TEST_ITEMS.forEach(item ->
+          list.add(item.expression));
+      break;
+    default:
+      throw new AssertionError(typeFamily);
+    }
+    return list;
+  }
+
+  /** Generates expressions for a type family. Numeric expressions are long
+   * lists of terms; date and location expressions, whose grammars do not
+   * allow lists, are many distinct single terms. */
+  private static List<String> synthetic(TypeFamily typeFamily) {
+    final List<String> list = new ArrayList<>();
+    switch (typeFamily) {
+    case NUMBER:
+      for (int i = 0; i < 10; i++) {
+        final StringBuilder b = new StringBuilder();
+        for (int j = 0; j < 100; j++) {
+          if (j > 0) {
+            b.append(", ");
+          }
+          final int k = i * 100 + j;
+          switch (j % 5) {
+          case 0:
+            b.append(k);
+            break;
+          case 1:
+            b.append("not ").append(k).append(".25");
+            break;
+          case 2:
+            b.append('[').append(k).append(", ").append(k + 10).append(')');
+            break;
+          case 3:
+            b.append(">=").append(k).append(" AND <").append(k + 0.5);
+            break;
+          default:
+            b.append(k).append(" to ").append(k * 2);
+            break;
+          }
+        }
+        list.add(b.toString());
+      }
+      break;
+    case DATE:
+      for (int i = 1; i <= 200; i++) {
+        list.add(i + " days");
+        list.add(i + " months ago for " + (i % 7 + 1) + " days");
+        list.add("before " + i + " weeks from now");
+        list.add(
+            String.format(Locale.ROOT, "%04d-%02d-%02d", 1900 + i,
+                i % 12 + 1, i % 28 + 1));
+        list.add(
+            String.format(Locale.ROOT, "%04d/%02d", 1900 + i, i % 12 + 1));
+      }
+      break;
+    case LOCATION:
+      for (int i = 0; i < 1_000; i++) {
+        final String lat = format((i % 170) - 85 + i / 1e4);
+        final String lon = format((i % 350) - 175 - i / 1e4);
+        switch (i % 3) {
+        case 0:
+          list.add(lat + ", " + lon);
+          break;
+        case 1:
+          list.add((i % 100 + 1) + " miles from " + lat + ", " + lon);
+          break;
+        default:
+          list.add("inside box from " + lat + ", " + lon + " to "
+              + format((i % 170) - 85 - 1.5) + ", "
+              + format((i % 350) - 175 + 2.5));
+          break;
+        }
+      }
+      break;
+    default:
+      throw new AssertionError(typeFamily);
+    }
+    return list;
+  }
+
+  /** Formats a coordinate with 6 decimal places. */
+  private static String format(double d) {
+    return String.format(Locale.ROOT, "%.6f", d);
+  }
+
+  @Benchmark public void parse(Blackhole blackhole) {
+    for (String expression : expressions) {
+      blackhole.consume(Filtex.parseFilterExpression(typeFamily, expression));
+    }
+  }
+
+  /** Applies the type family's transform (for NUMBER,
+   * {@link Transforms#numberTransform}) to a freshly built logical
+   * expression over each expression's terms. Transforms modify the tree, so
+   * we cannot re-use it. */
+  @Benchmark public void transform(Blackhole blackhole) {
+    for (List<AstNode> terms : termLists) {
+      final AstNode root = ast.logicalExpression(terms);
+      switch (typeFamily) {
+      case NUMBER:
+        blackhole.consume(Transforms.numberTransform(root));
+        break;
+      case DATE:
+        blackhole.consume(Transforms.dateTransform(root));
+        break;
+      default:
+        blackhole.consume(Transforms.locationTransform(root));
+        break;
+      }
+    }
+  }
+
+  @Benchmark public void unparse(Blackhole blackhole) {
+    for (AstNode node : unparseNodes) {
+      blackhole.consume(node.toString());
+    }
+  }
+
+  @Benchmark public void summary(Blackhole blackhole) {
+    for (int i = 0; i < summaryNodes.size(); i++) {
+      blackhole.consume(
+          Summary.summary(typeFamily, summaryNodes.get(i),
+              summaryExpressions.get(i), ImmutableList.of()));
+    }
+  }
+
+  @Benchmark public void digest(Blackhole blackhole) {
+    for (AstNode node : digestNodes) {
+      blackhole.consume(node.digest(new Digester()).toString());
+    }
+  }
+}
+
+// End FiltexBenchmark.java
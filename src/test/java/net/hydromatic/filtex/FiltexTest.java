@@ -16,9 +16,32 @@
  */
 package net.hydromatic.filtex;
 
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.ast.Asts;
+import net.hydromatic.filtex.ast.Digester;
+import net.hydromatic.filtex.parse.ParseException;
+import net.hydromatic.filtex.parse.ParserPool;
+
+import com.google.common.cache.CacheStats;
+
 import org.junit.jupiter.api.Test;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static net.hydromatic.filtex.TestValues.forEach;
+
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 /** Tests the {@link Filtex} facade. */
@@ -27,6 +50,200 @@ public class FiltexTest {
     assertThat(Filtex.getExpressionType(true, "field_filter"),
         is(TypeFamily.NUMBER));
   }
+
+  /** Tests {@link ParseCache}. */
+  @Test void testParseCache() {
+    final ParseCache cache = ParseCache.ofSize(2);
+    final AstNode node = cache.parse(TypeFamily.NUMBER, "[0,20],>30");
+    assertThat(node.toString(), is("{[0,20],30}"));
+    assertThat(cache.parse(TypeFamily.NUMBER, "[0,20],>30"),
+        sameInstance(node));
+
+    // Same string, different type family, is a different entry
+    final AstNode node2 = cache.parse(TypeFamily.LOCATION, "[0,20],>30");
+    assertThat(node2.type(), is("matchesAdvanced"));
+    assertThat(cache.size(), is(2L));
+
+    // A third entry evicts one of the others
+    cache.parse(TypeFamily.NUMBER, "not 1");
+    CacheStats stats = cache.stats();
+    assertThat(stats.hitCount(), is(1L));
+    assertThat(stats.missCount(), is(3L));
+    assertThat(stats.evictionCount(), is(1L));
+    assertThat(cache.size(), is(2L));
+
+    // Transforms do not assign ids to, or otherwise modify, a shared tree
+    final AstNode node3 = cache.parse(TypeFamily.NUMBER, "not 1, not 2");
+    final String digest = digest(node3);
+    assertThat(digest(Transforms.numberTransform(node3)), is(digest));
+    assertThat(digest(node3), is(digest));
+    Asts.traverse(node3, n -> assertThat(n.id, nullValue()));
+
+    cache.invalidateAll();
+    assertThat(cache.size(), is(0L));
+  }
+
+  /** Tests a {@link ParseCache} that evicts by weight. */
+  @Test void testParseCacheWeight() {
+    final ParseCache cache = ParseCache.ofWeight(10);
+    cache.parse(TypeFamily.NUMBER, "1");
+    cache.parse(TypeFamily.NUMBER, "2");
+    assertThat(cache.size(), is(2L));
+
+    // "1, 2, 3, 4, 5" has weight 14, more than the cache can hold
+    cache.parse(TypeFamily.NUMBER, "1, 2, 3, 4, 5");
+    assertThat(cache.stats().evictionCount() > 0, is(true));
+  }
+
+  /** Tests {@link Filtex#tryParseFilterExpression(TypeFamily, String)},
+   * which reports errors without throwing. */
+  @Test void testTryParse() {
+    final ParseResult result =
+        Filtex.tryParseFilterExpression(TypeFamily.NUMBER, "[0,20],>30");
+    assertThat(result.isValid(), is(true));
+    assertThat(result.errorPos, nullValue());
+    assertThat(result.diagnostic(), nullValue());
+    assertThat(result.node.toString(), is("{[0,20],30}"));
+
+    // Parse error; the second "," is at column 4
+    final ParseResult result2 =
+        Filtex.tryParseFilterExpression(TypeFamily.NUMBER, "1, ,2");
+    assertThat(result2.isValid(), is(false));
+    assertThat(result2.node.type(), is("matchesAdvanced"));
+    assertThat(result2.node.expression(), is("1, ,2"));
+    assertThat(result2.errorPos, notNullValue());
+    assertThat(result2.errorPos.startColumn, is(4));
+    final ParseException e = result2.diagnostic();
+    assertThat(e, notNullValue());
+    assertThat(e.getMessage(), containsString("at line 1, column 4"));
+
+    // Character that is not valid in any token
+    final ParseResult result3 =
+        Filtex.tryParseFilterExpression(TypeFamily.NUMBER, "1^");
+    assertThat(result3.isValid(), is(false));
+    assertThat(result3.errorPos.startColumn, is(2));
+    assertThat(result3.diagnostic(), notNullValue());
+
+    // Semantic error, detected in an action rather than by the grammar
+    final ParseResult result4 =
+        Filtex.tryParseFilterExpression(TypeFamily.NUMBER, "(,)");
+    assertThat(result4.isValid(), is(false));
+    assertThat(result4.diagnostic().getMessage(), is("unbounded interval"));
+  }
+
+  /** Tests {@link Filtex#parseFilterExpression(TypeFamily, ByteBuffer)}
+   * and similar methods, which parse UTF-8 bytes. */
+  @Test void testParseBytes() {
+    final ParserPool pool = ParserPool.threadLocal();
+    forEach(TestValues.NUMBER_EXPRESSION_TEST_ITEMS, item ->
+        checkParseBytes(pool, TypeFamily.NUMBER, item.expression));
+    forEach(TestValues.DATE_EXPRESSION_TEST_ITEMS, item ->
+        checkParseBytes(pool, TypeFamily.DATE, item.expression));
+    forEach(TestValues.LOCATION_EXPRESSION_TEST_ITEMS, item ->
+        checkParseBytes(pool, TypeFamily.LOCATION, item.expression));
+
+    // Non-ASCII expressions are decoded; invalid ones become
+    // "matchesAdvanced" with the decoded text.
+    checkParseBytes(pool, TypeFamily.LOCATION,
+        "72.3°N, 173.1°W to 14.4°N, 61.7°W");
+    checkParseBytes(pool, TypeFamily.NUMBER, "1, 2,\u00a03");
+    final AstNode node =
+        Filtex.parseFilterExpression(TypeFamily.NUMBER,
+            "≥ 5".getBytes(StandardCharsets.UTF_8), 0, 5);
+    assertThat(node.type(), is("matchesAdvanced"));
+    assertThat(node.expression(), is("≥ 5"));
+  }
+
+  private static void checkParseBytes(ParserPool pool, TypeFamily typeFamily,
+      String expression) {
+    final String expected =
+        digest(Filtex.parseFilterExpression(typeFamily, expression));
+
+    // Expression in the middle of a larger array
+    final byte[] bytes = expression.getBytes(StandardCharsets.UTF_8);
+    final byte[] padded = new byte[bytes.length + 4];
+    padded[0] = padded[1] = '(';
+    padded[padded.length - 2] = padded[padded.length - 1] = ')';
+    System.arraycopy(bytes, 0, padded, 2, bytes.length);
+    assertThat(
+        digest(
+            Filtex.parseFilterExpression(typeFamily, padded, 2,
+                bytes.length)),
+        is(expected));
+    assertThat(
+        digest(
+            Filtex.parseFilterExpression(pool, typeFamily, padded, 2,
+                bytes.length)),
+        is(expected));
+
+    // Direct buffer; position is unchanged
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(padded.length);
+    buffer.put(padded);
+    // Call the methods of Buffer, not ByteBuffer's covariant overrides,
+    // which do not exist on JDK 8
+    ((Buffer) buffer).position(2).limit(2 + bytes.length);
+    assertThat(digest(Filtex.parseFilterExpression(typeFamily, buffer)),
+        is(expected));
+    assertThat(buffer.position(), is(2));
+  }
+
+  private static String digest(AstNode node) {
+    return node.digest(new Digester()).toString();
+  }
+
+  /** Tests {@link Filtex#parseAll(List)}. */
+  @Test void testParseAll() {
+    final List<FilterRequest> requests =
+        Arrays.asList(FilterRequest.of(TypeFamily.NUMBER, "1, 2"),
+            FilterRequest.of(TypeFamily.LOCATION, "NULL"),
+            FilterRequest.of(TypeFamily.NUMBER, "foo"),
+            FilterRequest.of(TypeFamily.NUMBER, "1, 2"),
+            FilterRequest.of(TypeFamily.NUMBER, "NULL"));
+    final List<ParseResult> results = Filtex.parseAll(requests);
+    assertThat(results.size(), is(5));
+    assertThat(results.get(0).node.toString(), is("1,2"));
+    assertThat(results.get(1).node.type(), is("null"));
+    assertThat(results.get(2).isValid(), is(false));
+    assertThat(results.get(3), sameInstance(results.get(0)));
+    assertThat(results.get(4).typeFamily, is(TypeFamily.NUMBER));
+
+    // A batch large enough to be split into chunks, on a caller-supplied
+    // executor. Every third request is a duplicate.
+    final List<FilterRequest> requests2 = new ArrayList<>();
+    for (int i = 0; i < 1_000; i++) {
+      requests2.add(FilterRequest.of(TypeFamily.NUMBER, ">" + i));
+      requests2.add(FilterRequest.of(TypeFamily.DATE, i + " days"));
+      requests2.add(FilterRequest.of(TypeFamily.NUMBER, ">" + (i / 2)));
+    }
+    final ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      final List<ParseResult> results2 = Filtex.parseAll(requests2, executor);
+      assertThat(results2.size(), is(requests2.size()));
+      for (int i = 0; i < requests2.size(); i++) {
+        final ParseResult result = results2.get(i);
+        assertThat(result.typeFamily, is(requests2.get(i).typeFamily));
+        assertThat(result.expression, is(requests2.get(i).expression));
+      }
+      assertThat(results2.get(2), sameInstance(results2.get(0)));
+      assertThat(results2.get(5), sameInstance(results2.get(0)));
+      assertThat(results2.get(3).node.type(), is(">"));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /** Tests that {@link Filtex#metrics()} counts fallbacks. Other tests run
+   * concurrently, so we can only check lower bounds. */
+  @Test void testMetrics() {
+    final ParseMetrics metrics = Filtex.metrics();
+    final long parseCount = metrics.parseCount();
+    final long fallbackCount = metrics.fallbackCount();
+    Filtex.parseFilterExpression(TypeFamily.NUMBER, "1");
+    Filtex.parseFilterExpression(TypeFamily.NUMBER, "foo");
+    assertThat(metrics.parseCount() >= parseCount + 2, is(true));
+    assertThat(metrics.fallbackCount() >= fallbackCount + 1, is(true));
+    assertThat(metrics.fallbackRate() > 0d, is(true));
+  }
 }
 
 // End FiltexTest.java
@@ -19,10 +19,10 @@
 import net.hydromatic.filtex.ast.AstNode;
 import net.hydromatic.filtex.parse.FiltexParserImpl;
 import net.hydromatic.filtex.parse.ParseException;
+import net.hydromatic.filtex.parse.StringCharStream;
 
 import org.hamcrest.Matcher;
 
-import java.io.StringReader;
 import java.util.function.Consumer;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -44,7 +44,8 @@ static Ft ft(TypeFamily typeFamily, String s) {
 
   /** Creates a parser and performs the given action. */
   Ft withParser(Consumer<FiltexParserImpl> action) {
-    final FiltexParserImpl parser = new FiltexParserImpl(new StringReader(s));
+    final FiltexParserImpl parser =
+        new FiltexParserImpl(new StringCharStream(s));
     action.accept(parser);
     return this;
   }
@@ -0,0 +1,121 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex;
+
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.eval.LocationCompiler;
+import net.hydromatic.filtex.eval.LocationIndex;
+import net.hydromatic.filtex.eval.LocationPredicate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures matching a location against 100,000 saved circle and box
+ * filters spread over the United States, using a {@link LocationIndex} and
+ * by testing every filter; and replacing a filter in the index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationIndexBenchmark {
+  private static final int FILTER_COUNT = 100_000;
+  private static final int POINT_COUNT = 4_096;
+
+  @Param({"0.1", "0.5"})
+  double cellDegrees;
+
+  LocationIndex<Integer> index;
+  LocationPredicate[] predicates;
+  AstNode[] nodes;
+  double[] latitudes;
+  double[] longitudes;
+  int i;
+
+  @Setup public void setup() {
+    final Random random = new Random(0);
+    index = LocationIndex.of(cellDegrees);
+    predicates = new LocationPredicate[FILTER_COUNT];
+    nodes = new AstNode[FILTER_COUNT];
+    for (int k = 0; k < FILTER_COUNT; k++) {
+      final String lat =
+          String.format(Locale.ROOT, "%.4f", 25 + random.nextDouble() * 24);
+      final String lon =
+          String.format(Locale.ROOT, "%.4f", -125 + random.nextDouble() * 58);
+      final String expression = k % 10 == 0
+          ? "inside box from " + lat + ", " + lon + " to "
+              + (Double.parseDouble(lat) - 0.1) + ", "
+              + (Double.parseDouble(lon) + 0.1)
+          : (1 + random.nextInt(20)) + " miles from " + lat + ", " + lon;
+      nodes[k] = Filtex.parseFilterExpression(TypeFamily.LOCATION, expression);
+      predicates[k] = LocationCompiler.compile(nodes[k]);
+      index.add(k, nodes[k]);
+    }
+    latitudes = new double[POINT_COUNT];
+    longitudes = new double[POINT_COUNT];
+    for (int k = 0; k < POINT_COUNT; k++) {
+      latitudes[k] = 25 + random.nextDouble() * 24;
+      longitudes[k] = -125 + random.nextDouble() * 58;
+    }
+  }
+
+  @Benchmark public List<Integer> index() {
+    final int k = i++ & (POINT_COUNT - 1);
+    return index.matches(latitudes[k], longitudes[k]);
+  }
+
+  @Benchmark public List<Integer> scan() {
+    final int k = i++ & (POINT_COUNT - 1);
+    final double lat = latitudes[k];
+    final double lon = longitudes[k];
+    final List<Integer> keys = new ArrayList<>();
+    for (int f = 0; f < predicates.length; f++) {
+      if (predicates[f].test(lat, lon)) {
+        keys.add(f);
+      }
+    }
+    return keys;
+  }
+
+  /** Removes a filter and adds it again. */
+  @Benchmark public int removeAdd() {
+    final int k = i++ % FILTER_COUNT;
+    index.remove(k);
+    index.add(k, nodes[k]);
+    return index.size();
+  }
+}
+
+// End LocationIndexBenchmark.java
@@ -0,0 +1,92 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex;
+
+import net.hydromatic.filtex.parse.FiltexParserImpl;
+import net.hydromatic.filtex.parse.NumberParser;
+import net.hydromatic.filtex.parse.ParseException;
+import net.hydromatic.filtex.parse.StringCharStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of {@link NumberParser} with the generated
+ * parser.
+ *
+ * <p>Parses each valid expression in
+ * {@link TestValues#NUMBER_EXPRESSION_TEST_ITEMS}, without applying
+ * transforms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NumberParserBenchmark {
+  /** Which parser to use: "generated" is {@link FiltexParserImpl},
+   * "handWritten" is {@link NumberParser}. */
+  @Param({"generated", "handWritten"})
+  String parser;
+
+  List<String> expressions;
+
+  @Setup public void setup() {
+    expressions = new ArrayList<>();
+    TestValues.NUMBER_EXPRESSION_TEST_ITEMS.forEach(item -> {
+      if (NumberParser.parse(item.expression) != null) {
+        expressions.add(item.expression);
+      }
+    });
+  }
+
+  @Benchmark public void parse(Blackhole blackhole) throws ParseException {
+    switch (parser) {
+    case "generated":
+      for (String expression : expressions) {
+        blackhole.consume(
+            new FiltexParserImpl(new StringCharStream(expression))
+                .numericExpressionEof());
+      }
+      break;
+    case "handWritten":
+      for (String expression : expressions) {
+        blackhole.consume(NumberParser.parse(expression));
+      }
+      break;
+    default:
+      throw new AssertionError(parser);
+    }
+  }
+}
+
+// End NumberParserBenchmark.java
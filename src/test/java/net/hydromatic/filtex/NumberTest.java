@@ -16,19 +16,27 @@
  */
 package net.hydromatic.filtex;
 
+import net.hydromatic.filtex.ast.Ast;
 import net.hydromatic.filtex.ast.AstNode;
 import net.hydromatic.filtex.ast.Asts;
+import net.hydromatic.filtex.parse.FiltexParserImpl;
+import net.hydromatic.filtex.parse.NumberParser;
+import net.hydromatic.filtex.parse.ParseException;
+import net.hydromatic.filtex.parse.StringCharStream;
+import net.hydromatic.filtex.parse.TokenMgrError;
 
 import com.google.common.collect.ImmutableList;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static net.hydromatic.filtex.Filtex.parseFilterExpression;
 import static net.hydromatic.filtex.TestValues.forEach;
 import static net.hydromatic.filtex.ast.Asts.convertTypeToOption;
 
+import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
@@ -238,6 +246,90 @@ void checkNull(String expression, String type) {
         checkNumeric(c.expression, c.type, c.textInput));
   }
 
+  /** Expressions that test the edges of the lexer. Each must be parsed the
+   * same by {@link NumberParser} and the generated parser, or rejected by
+   * {@link NumberParser}. */
+  static final List<String> LEXER_EXPRESSIONS =
+      ImmutableList.of("", " ", "1.50", "007", "-0", "-0.0", "1e3", "1E-3",
+          "1.5e3", "-.5e2", "1e", "1e-", "1.", "1..2", ".", "-", "- 1", "-.",
+          "12345678901234567890", "123456789012345678", "-999999999999999999",
+          "5to 10", "5 TO", "to5", "tomorrow", "infinity", "not5", "NOTNULL",
+          "null5", "2018-05", "2018/05", "12:30", "2018-Q1", "FY2018", "1-2",
+          "[-inf,inf]", "(-INF, 10]", "[5,)", "(,5]", "(-inf,)", "[inf, 5]",
+          "(-infinity, 5)", ">5 OR 3", ">5 AND <", "< 5 or >= 6", "<>5",
+          "< >5", "!5", "! = 5", "=5", "{{_user_attributes[]}}", "1 AND 2",
+          "1,,2", "1,", ",1", "1 OR 2 or 3", "1\t,\r\n2\f", "1\u00a0",
+          "１", "not not 1", "not null, 1 to 2, [3,4), >5 and <=6");
+
+  /** Tests that {@link NumberParser} produces the same ASTs as the generated
+   * parser. */
+  @Test void testNumberParser() {
+    final List<String> expressions = new ArrayList<>();
+    TestValues.NUMBER_EXPRESSION_TEST_ITEMS.forEach(item ->
+        expressions.add(item.expression));
+    NUMERIC_CASES.forEach(c -> expressions.add(c.expression));
+    NULL_CASES.forEach(c -> expressions.add(c.expression));
+    BETWEEN_CASES.forEach(c -> expressions.add(c.expression));
+    NOW_SUPPORTED_CASES.forEach(c -> expressions.add(c.expression));
+    final int validCount = expressions.size();
+    UNSUPPORTED_CASES.forEach(c -> expressions.add(c.expression));
+    expressions.addAll(FAIL_EXPRESSIONS);
+    expressions.addAll(LEXER_EXPRESSIONS);
+
+    for (int i = 0; i < expressions.size(); i++) {
+      final String expression = expressions.get(i);
+      final String expected = describe(parseGenerated(expression));
+      final String actual = describe(NumberParser.parse(expression));
+      if (actual == null) {
+        // NumberParser declined the expression; the generated parser must
+        // handle it. For the expressions from the well-formed test cases,
+        // NumberParser should not decline unless the generated parser
+        // rejects too.
+        if (i < validCount) {
+          assertThat(expression, expected, nullValue());
+        }
+      } else {
+        assertThat(expression, expected, notNullValue());
+        assertThat(expression, actual, is(expected));
+      }
+    }
+  }
+
+  /** Parses an expression using the generated parser; returns null if it is
+   * invalid. */
+  private static AstNode parseGenerated(String expression) {
+    final FiltexParserImpl parser =
+        new FiltexParserImpl(new StringCharStream(expression));
+    try {
+      return parser.numericExpressionEof();
+    } catch (ParseException | TokenMgrError
+        | UnsupportedOperationException e) {
+      return null;
+    }
+  }
+
+  /** Describes the structure of a numeric AST, including the scale of each
+   * number. */
+  private static String describe(AstNode node) {
+    if (node == null) {
+      return null;
+    }
+    if (node instanceof Ast.Call2) {
+      final Ast.Call2 call2 = (Ast.Call2) node;
+      return node.op + "(" + describe(call2.left) + ", "
+          + describe(call2.right) + ")";
+    }
+    if (node instanceof Ast.Comparison) {
+      final Ast.Comparison comparison = (Ast.Comparison) node;
+      return node.op + (comparison.is ? "" : "!") + comparison.value;
+    }
+    if (node instanceof Ast.NumericRange) {
+      final Ast.NumericRange range = (Ast.NumericRange) node;
+      return node.op + (range.is ? "" : "!") + "[" + range.left + ", "
+          + range.right + "]";
+    }
+    return node.op + (node.is() ? "" : "!");
+  }
 }
 
 // End ParserTest.java
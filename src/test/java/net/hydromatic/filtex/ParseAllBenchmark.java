@@ -0,0 +1,111 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how {@link Filtex#parseAll(List, java.util.concurrent.Executor)}
+ * scales with the number of threads.
+ *
+ * <p>The batch has 10,000 distinct expressions of the NUMBER, DATE and
+ * LOCATION type families, derived from {@link TestValues}. With
+ * {@code threads = 0}, parses the batch one expression at a time, without
+ * {@code parseAll}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseAllBenchmark {
+  /** Number of threads in the executor; 0 means parse sequentially. */
+  @Param({"0", "1", "2", "4", "8"})
+  int threads;
+
+  List<FilterRequest> requests;
+  ForkJoinPool executor;
+
+  @Setup public void setup() {
+    requests = new ArrayList<>();
+    final List<FilterRequest> templates = new ArrayList<>();
+    TestValues.NUMBER_EXPRESSION_TEST_ITEMS.forEach(item ->
+        templates.add(FilterRequest.of(TypeFamily.NUMBER, item.expression)));
+    TestValues.DATE_EXPRESSION_TEST_ITEMS.forEach(item ->
+        templates.add(FilterRequest.of(TypeFamily.DATE, item.expression)));
+    TestValues.LOCATION_EXPRESSION_TEST_ITEMS.forEach(item ->
+        templates.add(FilterRequest.of(TypeFamily.LOCATION, item.expression)));
+    // Append whitespace to make each expression distinct, so that
+    // de-duplication does not make the benchmark trivial.
+    for (int i = 0; requests.size() < 10_000; i++) {
+      final FilterRequest template = templates.get(i % templates.size());
+      final int copy = i / templates.size();
+      requests.add(
+          FilterRequest.of(template.typeFamily,
+              template.expression + spaces(copy)));
+    }
+    if (threads > 0) {
+      executor = new ForkJoinPool(threads);
+    }
+  }
+
+  private static String spaces(int n) {
+    final StringBuilder b = new StringBuilder();
+    for (int i = 0; i < n; i++) {
+      b.append(' ');
+    }
+    return b.toString();
+  }
+
+  @TearDown public void tearDown() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  @Benchmark public Object parseAll() {
+    if (executor == null) {
+      final List<ParseResult> results = new ArrayList<>();
+      for (FilterRequest request : requests) {
+        results.add(
+            Filtex.tryParseFilterExpression(request.typeFamily,
+                request.expression));
+      }
+      return results;
+    }
+    return Filtex.parseAll(requests, executor);
+  }
+}
+
+// End ParseAllBenchmark.java
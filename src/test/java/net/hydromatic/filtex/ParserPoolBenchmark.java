@@ -0,0 +1,93 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex;
+
+import net.hydromatic.filtex.parse.ParserPool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares parsing with a new parser per call against parsing with a
+ * {@link ParserPool}.
+ *
+ * <p>Parses each expression in
+ * {@link TestValues#NUMBER_EXPRESSION_TEST_ITEMS}. Run with "-prof gc" to see
+ * the difference in allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ParserPoolBenchmark {
+  /** How parsers are obtained. "new" creates a parser per call,
+   * "threadLocal" and "bounded" use the corresponding {@link ParserPool}. */
+  @Param({"new", "threadLocal", "bounded"})
+  String pool;
+
+  ParserPool parserPool;
+  List<String> expressions;
+
+  @Setup public void setup() {
+    expressions =
+        TestValues.NUMBER_EXPRESSION_TEST_ITEMS.stream()
+            .map(item -> item.expression)
+            .collect(Collectors.toList());
+    switch (pool) {
+    case "new":
+      parserPool = null;
+      break;
+    case "threadLocal":
+      parserPool = ParserPool.threadLocal();
+      break;
+    case "bounded":
+      parserPool = ParserPool.bounded(16);
+      break;
+    default:
+      throw new AssertionError(pool);
+    }
+  }
+
+  @Benchmark public void parse(Blackhole blackhole) {
+    for (String expression : expressions) {
+      blackhole.consume(parserPool == null
+          ? Filtex.parseFilterExpression(TypeFamily.NUMBER, expression)
+          : Filtex.parseFilterExpression(parserPool, TypeFamily.NUMBER,
+              expression));
+    }
+  }
+}
+
+// End ParserPoolBenchmark.java
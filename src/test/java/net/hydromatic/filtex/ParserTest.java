@@ -16,14 +16,28 @@
  */
 package net.hydromatic.filtex;
 
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.parse.FiltexParserImplTokenManager;
+import net.hydromatic.filtex.parse.ParserPool;
+import net.hydromatic.filtex.parse.StringCharStream;
+import net.hydromatic.filtex.parse.Token;
+
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import static net.hydromatic.filtex.Filtex.parseFilterExpression;
 import static net.hydromatic.filtex.Ft.ft;
 import static net.hydromatic.filtex.Matchers.isAst;
 import static net.hydromatic.filtex.Matchers.isComparison;
+import static net.hydromatic.filtex.TestValues.forEach;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
 
 /**
  * Tests the parser.
@@ -45,6 +59,67 @@ public class ParserTest {
     ft(TypeFamily.NUMBER, "[0,20],>30")
         .assertParse(isAst("{[0,20],30}"));
   }
+
+  /** Tests that parsers re-used via a {@link ParserPool} give the same
+   * results as new parsers, including after a failed parse. */
+  @Test void testParserPool() {
+    for (ParserPool pool
+        : Arrays.asList(ParserPool.threadLocal(), ParserPool.bounded(2))) {
+      for (int i = 0; i < 2; i++) {
+        forEach(TestValues.NUMBER_EXPRESSION_TEST_ITEMS, item -> {
+          final AstNode expected =
+              parseFilterExpression(TypeFamily.NUMBER, item.expression);
+          final AstNode actual =
+              parseFilterExpression(pool, TypeFamily.NUMBER, item.expression);
+          assertThat(actual.toString(), is(expected.toString()));
+          assertThat(parseFilterExpression(pool, TypeFamily.NUMBER, "foo")
+              .type(), is("matchesAdvanced"));
+        });
+      }
+    }
+  }
+
+  /** Tests {@link StringCharStream}, in particular the positions of tokens
+   * that follow line breaks and tabs. */
+  @Test void testStringCharStream() {
+    final StringCharStream stream =
+        new StringCharStream("1,\r\n\t2 ,\n 30");
+    assertThat(tokens(stream),
+        is("[1@1:1-1:1, ,@1:2-1:2, 2@2:2-2:2, ,@2:4-2:4, 30@3:2-3:3, "
+            + "@3:3-3:3]"));
+
+    // Tab stops every 4 columns; "2" is now at column 5
+    stream.reset("1,\r\n\t2 ,\n 30");
+    stream.setTabSize(4);
+    assertThat(tokens(stream),
+        is("[1@1:1-1:1, ,@1:2-1:2, 2@2:5-2:5, ,@2:7-2:7, 30@3:2-3:3, "
+            + "@3:3-3:3]"));
+
+    // A CharSequence that is not a String; a lone "\r" ends a line
+    stream.reset(new StringBuilder("[0,\r20]"));
+    stream.setTabSize(1);
+    assertThat(tokens(stream),
+        is("[[@1:1-1:1, 0@1:2-1:2, ,@1:3-1:3, 20@2:1-2:2, ]@2:3-2:3, "
+            + "@2:3-2:3]"));
+
+    stream.reset("");
+    assertThat(tokens(stream), is("[@1:0-1:0]"));
+  }
+
+  /** Returns the tokens in a stream, with their positions. */
+  private static String tokens(StringCharStream stream) {
+    final FiltexParserImplTokenManager tokenManager =
+        new FiltexParserImplTokenManager(stream);
+    final List<String> list = new ArrayList<>();
+    for (;;) {
+      final Token t = tokenManager.getNextToken();
+      list.add(t.image + "@" + t.beginLine + ":" + t.beginColumn
+          + "-" + t.endLine + ":" + t.endColumn);
+      if (t.kind == 0) {
+        return list.toString();
+      }
+    }
+  }
 }
 
 // End ParserTest.java
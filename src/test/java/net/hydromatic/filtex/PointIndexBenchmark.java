@@ -0,0 +1,96 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex;
+
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.eval.LocationCompiler;
+import net.hydromatic.filtex.eval.LocationPredicate;
+import net.hydromatic.filtex.eval.PointIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares selecting the points, among 1 million spread over the United
+ * States, that match a location filter, using a {@link PointIndex} with
+ * testing every point.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PointIndexBenchmark {
+  private static final int COUNT = 1 << 20;
+
+  @Param({"10 miles from 40.7, -74.0", "200 miles from 40.7, -74.0",
+      "inside box from 42, -80 to 38, -70"})
+  String expression;
+
+  double[] latitudes;
+  double[] longitudes;
+  PointIndex index;
+  AstNode node;
+  LocationPredicate predicate;
+
+  @Setup public void setup() {
+    final Random random = new Random(0);
+    latitudes = new double[COUNT];
+    longitudes = new double[COUNT];
+    for (int i = 0; i < COUNT; i++) {
+      latitudes[i] = 25 + random.nextDouble() * 24;
+      longitudes[i] = -125 + random.nextDouble() * 58;
+    }
+    index = PointIndex.of(latitudes, longitudes);
+    node = Filtex.parseFilterExpression(TypeFamily.LOCATION, expression);
+    predicate = LocationCompiler.compile(node);
+  }
+
+  @Benchmark public int[] index() {
+    return index.select(node);
+  }
+
+  @Benchmark public int[] scan() {
+    int[] ids = new int[16];
+    int n = 0;
+    for (int i = 0; i < COUNT; i++) {
+      if (predicate.test(latitudes[i], longitudes[i])) {
+        if (n == ids.length) {
+          ids = Arrays.copyOf(ids, n * 2);
+        }
+        ids[n++] = i;
+      }
+    }
+    return Arrays.copyOf(ids, n);
+  }
+}
+
+// End PointIndexBenchmark.java
@@ -0,0 +1,102 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex;
+
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.eval.BatchEvaluator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares scalar kernels with kernels that use the JDK Vector API, for
+ * numeric range filters over columns of 64k longs and doubles.
+ *
+ * <p>Requires JDK 17 or higher; the forked JVM is started with
+ * "{@code --add-modules jdk.incubator.vector}". If vector kernels are not
+ * available, the "vector" runs fail rather than measure scalar kernels.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class VectorBenchmark {
+  private static final int COUNT = 65_536;
+
+  @Param({"[0,20]", ">= 7 AND < 80.44", "[0,20],>30"})
+  String expression;
+
+  @Param({"scalar", "vector"})
+  String kernels;
+
+  long[] longs;
+  double[] doubles;
+  long[] validity;
+  long[] bits;
+  BatchEvaluator<long[]> longEvaluator;
+  BatchEvaluator<double[]> doubleEvaluator;
+
+  @Setup public void setup() {
+    final Random random = new Random(0);
+    longs = new long[COUNT];
+    doubles = new double[COUNT];
+    for (int i = 0; i < COUNT; i++) {
+      longs[i] = random.nextInt(200) - 50;
+      doubles[i] = random.nextDouble() * 200d - 50d;
+    }
+    validity = new long[BatchEvaluator.wordCount(COUNT)];
+    for (int w = 0; w < validity.length; w++) {
+      validity[w] = ~(random.nextLong() & random.nextLong()
+          & random.nextLong() & random.nextLong());
+    }
+    bits = new long[validity.length];
+    final boolean vector = kernels.equals("vector");
+    if (vector && !BatchEvaluator.isVectorAvailable()) {
+      throw new IllegalStateException("vector kernels are not available");
+    }
+    final AstNode node =
+        Filtex.parseFilterExpression(TypeFamily.NUMBER, expression);
+    longEvaluator = BatchEvaluator.ofDecimal(node, 0, vector);
+    doubleEvaluator = BatchEvaluator.ofDouble(node, vector);
+  }
+
+  @Benchmark public long[] longColumn() {
+    longEvaluator.evaluate(longs, validity, COUNT, bits);
+    return bits;
+  }
+
+  @Benchmark public long[] doubleColumn() {
+    doubleEvaluator.evaluate(doubles, validity, COUNT, bits);
+    return bits;
+  }
+}
+
+// End VectorBenchmark.java
@@ -0,0 +1,84 @@
+/*
+ * Licensed to Julian Hyde under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hydromatic.filtex;
+
+import net.hydromatic.filtex.ast.AstNode;
+import net.hydromatic.filtex.eval.BoundaryCache;
+import net.hydromatic.filtex.eval.DateIntervals;
+import net.hydromatic.filtex.eval.DateResolver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Measures resolving a date filter in every time zone that the JDK knows
+ * (about 600), with and without a {@link BoundaryCache}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZoneResolverBenchmark {
+  @Param({"this week", "last 3 days", "this fiscal_quarter"})
+  String expression;
+
+  AstNode node;
+  List<ZoneId> zones;
+  DateResolver uncached;
+  DateResolver cached;
+
+  @Setup public void setup() {
+    node = Filtex.parseFilterExpression(TypeFamily.DATE, expression);
+    zones =
+        ZoneId.getAvailableZoneIds().stream().sorted().map(ZoneId::of)
+            .collect(Collectors.toList());
+    uncached =
+        new DateResolver(
+            Clock.fixed(Instant.parse("2018-05-18T10:20:30Z"), ZoneOffset.UTC),
+            ZoneOffset.UTC);
+    cached = uncached.withCache(BoundaryCache.ofSize(10_000));
+  }
+
+  @Benchmark public List<DateIntervals> uncached() {
+    return uncached.resolveAll(node, zones);
+  }
+
+  @Benchmark public List<DateIntervals> cached() {
+    return cached.resolveAll(node, zones);
+  }
+}
+
+// End ZoneResolverBenchmark.java